@@ -0,0 +1,213 @@
+package com.decnorton.bitecoin;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Matches acks from a display to the commands they answer, by 8 bit sequence number.
+ *
+ * Round trip times go into a {@link LatencyHistogram} per opcode. Commands that aren't acked
+ * within the timeout are handed back by {@link #expire(long)} so the caller can retry or give
+ * up on them. If the sequence wraps round onto a command that's still outstanding, the old
+ * one is counted as lost.
+ *
+ * Times are passed in, in nanoseconds, so this can be driven without a clock.
+ */
+public class AckTracker<T> {
+
+    // One slot per sequence number
+    private static final int SLOTS = 256;
+
+    private final long mTimeoutNanos;
+
+    // Only ever holds Outstanding<T>, read through outstandingAt()
+    private final Outstanding<?>[] mOutstanding = new Outstanding<?>[SLOTS];
+    private final Map<Integer, LatencyHistogram> mRoundTrips = new HashMap<>();
+
+    private int mOutstandingCount = 0;
+
+    /**
+     * Metrics
+     */
+    private long mAckedCount = 0;
+    private long mRejectedCount = 0;
+    private long mUnmatchedCount = 0;
+    private long mExpiredCount = 0;
+    private long mLostCount = 0;
+
+    public AckTracker(long timeoutNanos) {
+        mTimeoutNanos = timeoutNanos;
+    }
+
+    /**
+     * Records a command that's just been written.
+     *
+     * @return the command still waiting on the same sequence number, which it replaces, or
+     * null. Sequence numbers wrap at 256, so an ack for the old command can no longer be told
+     * apart and the caller has to give up on it.
+     */
+    public synchronized T onSent(int sequence, int opcode, T item, long nowNanos) {
+        int slot = sequence & 0xFF;
+        Outstanding<T> displaced = outstandingAt(slot);
+
+        mOutstanding[slot] = new Outstanding<>(opcode, item, nowNanos);
+
+        if (displaced == null) {
+            mOutstandingCount++;
+            return null;
+        }
+
+        // Resending the same command isn't a loss
+        if (displaced.item == item)
+            return null;
+
+        mLostCount++;
+
+        return displaced.item;
+    }
+
+    /**
+     * Drops a command that turned out not to have been sent after all.
+     */
+    public synchronized void forget(int sequence) {
+        int slot = sequence & 0xFF;
+
+        if (mOutstanding[slot] != null) {
+            mOutstanding[slot] = null;
+            mOutstandingCount--;
+        }
+    }
+
+    /**
+     * Matches an ack to its command.
+     *
+     * @return the acked item, or null if nothing was waiting on that sequence number, e.g. a
+     * duplicate ack or one for a command that already expired
+     */
+    public synchronized T onAck(int sequence, int status, long nowNanos) {
+        int slot = sequence & 0xFF;
+        Outstanding<T> outstanding = outstandingAt(slot);
+
+        if (outstanding == null) {
+            mUnmatchedCount++;
+            return null;
+        }
+
+        mOutstanding[slot] = null;
+        mOutstandingCount--;
+
+        if (status == DisplayFrame.ACK_OK) {
+            mAckedCount++;
+        } else {
+            mRejectedCount++;
+        }
+
+        getRoundTrips(outstanding.opcode).record(nowNanos - outstanding.sentNanos);
+
+        return outstanding.item;
+    }
+
+    /**
+     * Removes and returns every command that's been waiting longer than the timeout.
+     */
+    public synchronized List<T> expire(long nowNanos) {
+        List<T> expired = new ArrayList<>(0);
+
+        if (mOutstandingCount == 0)
+            return expired;
+
+        for (int slot = 0; slot < mOutstanding.length; slot++) {
+            Outstanding<T> outstanding = outstandingAt(slot);
+
+            if (outstanding == null || nowNanos - outstanding.sentNanos < mTimeoutNanos)
+                continue;
+
+            expired.add(outstanding.item);
+
+            mOutstanding[slot] = null;
+            mOutstandingCount--;
+            mExpiredCount++;
+        }
+
+        return expired;
+    }
+
+    /**
+     * Forgets every outstanding command without counting them, e.g. when the link is torn down.
+     */
+    public synchronized List<T> clear() {
+        List<T> items = new ArrayList<>(mOutstandingCount);
+
+        for (int slot = 0; slot < mOutstanding.length; slot++) {
+            if (mOutstanding[slot] != null) {
+                items.add(outstandingAt(slot).item);
+                mOutstanding[slot] = null;
+            }
+        }
+
+        mOutstandingCount = 0;
+
+        return items;
+    }
+
+    public synchronized int getOutstandingCount() {
+        return mOutstandingCount;
+    }
+
+    public synchronized long getAckedCount() {
+        return mAckedCount;
+    }
+
+    public synchronized long getRejectedCount() {
+        return mRejectedCount;
+    }
+
+    public synchronized long getUnmatchedCount() {
+        return mUnmatchedCount;
+    }
+
+    public synchronized long getExpiredCount() {
+        return mExpiredCount;
+    }
+
+    public synchronized long getLostCount() {
+        return mLostCount;
+    }
+
+    /**
+     * Round trip times for one opcode, from the command being written to its ack arriving.
+     */
+    public synchronized LatencyHistogram getRoundTrips(int opcode) {
+        LatencyHistogram histogram = mRoundTrips.get(opcode);
+
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            mRoundTrips.put(opcode, histogram);
+        }
+
+        return histogram;
+    }
+
+    public synchronized Map<Integer, LatencyHistogram> getRoundTrips() {
+        return new HashMap<>(mRoundTrips);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Outstanding<T> outstandingAt(int slot) {
+        return (Outstanding<T>) mOutstanding[slot];
+    }
+
+    private static final class Outstanding<T> {
+        final int opcode;
+        final T item;
+        final long sentNanos;
+
+        Outstanding(int opcode, T item, long sentNanos) {
+            this.opcode = opcode;
+            this.item = item;
+            this.sentNanos = sentNanos;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.decnorton.bitecoin;
+
+/**
+ * Picks a {@link StepSource.SamplingRate} from what the user is doing: fast while steps are
+ * coming in, slow and batched once they've been idle for a while, and slowest while not
+ * tracking at all.
+ *
+ * Time is passed in rather than read from the clock, so the decisions are deterministic.
+ */
+public class AdaptiveSampler {
+
+    /**
+     * Constants
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 2 * 60000;
+
+    private final StepSource mSource;
+    private final long mIdleTimeoutMillis;
+
+    private boolean mIsTracking = false;
+    private long mLastActiveMillis = 0;
+    private long mRateChangeCount = 0;
+
+    public AdaptiveSampler(StepSource source) {
+        this(source, DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    public AdaptiveSampler(StepSource source, long idleTimeoutMillis) {
+        mSource = source;
+        mIdleTimeoutMillis = idleTimeoutMillis;
+
+        mSource.setSamplingRate(StepSource.SamplingRate.PAUSED);
+    }
+
+    public synchronized void setTracking(boolean isTracking, long nowMillis) {
+        mIsTracking = isTracking;
+
+        // Assume the user is moving when they start tracking, so the first steps show up quickly
+        if (isTracking)
+            mLastActiveMillis = nowMillis;
+
+        update(nowMillis);
+    }
+
+    /**
+     * Called with the steps credited for each reading.
+     */
+    public synchronized void onSteps(int newSteps, long nowMillis) {
+        if (newSteps > 0)
+            mLastActiveMillis = nowMillis;
+
+        update(nowMillis);
+    }
+
+    /**
+     * Called periodically, as a source that's gone quiet won't call {@link #onSteps} to let us
+     * notice the user has stopped.
+     */
+    public synchronized void checkIdle(long nowMillis) {
+        update(nowMillis);
+    }
+
+    public synchronized StepSource.SamplingRate getRate() {
+        return mSource.getSamplingRate();
+    }
+
+    public synchronized long getRateChangeCount() {
+        return mRateChangeCount;
+    }
+
+    private void update(long nowMillis) {
+        StepSource.SamplingRate rate;
+
+        if (!mIsTracking) {
+            rate = StepSource.SamplingRate.PAUSED;
+        } else if (nowMillis - mLastActiveMillis < mIdleTimeoutMillis) {
+            rate = StepSource.SamplingRate.ACTIVE;
+        } else {
+            rate = StepSource.SamplingRate.IDLE;
+        }
+
+        if (rate == mSource.getSamplingRate())
+            return;
+
+        mRateChangeCount++;
+        mSource.setSamplingRate(rate);
+    }
+}
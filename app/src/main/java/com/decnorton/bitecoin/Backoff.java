@@ -0,0 +1,44 @@
+package com.decnorton.bitecoin;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with "equal jitter": the delay for an attempt is half the capped
+ * exponential delay plus a random amount up to the other half. Retries from several
+ * clients therefore spread out instead of firing in lock step.
+ */
+public class Backoff {
+
+    private final long mBaseDelayMillis;
+    private final long mMaxDelayMillis;
+    private final Random mRandom;
+
+    public Backoff(long baseDelayMillis, long maxDelayMillis) {
+        this(baseDelayMillis, maxDelayMillis, new Random());
+    }
+
+    public Backoff(long baseDelayMillis, long maxDelayMillis, Random random) {
+        if (baseDelayMillis <= 0 || maxDelayMillis < baseDelayMillis)
+            throw new IllegalArgumentException("Invalid backoff range: " + baseDelayMillis + " - " + maxDelayMillis);
+
+        mBaseDelayMillis = baseDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+        mRandom = random;
+    }
+
+    /**
+     * Delay before the given retry, where retry 1 follows the first failure.
+     */
+    public long getDelayMillis(int retry) {
+        if (retry <= 0)
+            return 0;
+
+        // Cap the shift so the multiplication can't overflow
+        int shift = Math.min(retry - 1, 30);
+        long delay = Math.min(mMaxDelayMillis, mBaseDelayMillis << shift);
+
+        long half = delay / 2;
+
+        return half + (long) (mRandom.nextDouble() * (delay - half));
+    }
+}
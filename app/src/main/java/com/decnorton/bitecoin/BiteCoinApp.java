@@ -9,7 +9,6 @@ import android.content.Intent;
 import android.content.IntentFilter;
 
 import com.decnorton.bitecoin.events.Bluetooth;
-import com.squareup.otto.Bus;
 
 /**
  * Created by decnorton on 03/02/15.
@@ -18,7 +17,7 @@ public class BiteCoinApp extends Application {
     private static final String TAG = "BiteCoinApp";
 
     // Event Bus
-    Bus bus = BusProvider.get();
+    EventBus bus = BusProvider.get();
 
     /**
      * Broadcast Receiver
@@ -27,17 +26,40 @@ public class BiteCoinApp extends Application {
     private IntentFilter mBluetoothIntentFilter = new IntentFilter() {{
         addAction(BluetoothDevice.ACTION_ACL_DISCONNECTED);
         addAction(BluetoothDevice.ACTION_ACL_DISCONNECT_REQUESTED);
+        addAction(BluetoothDevice.ACTION_FOUND);
+        addAction(BluetoothAdapter.ACTION_DISCOVERY_STARTED);
+        addAction(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
     }};
 
     @Override
     public void onCreate() {
+        StartupTrace.start(MetricsProvider.get());
+
         super.onCreate();
 
         // Register the broadcast receiver
         registerReceiver(mBluetoothReceiver, mBluetoothIntentFilter);
 
-        // Start the background service
-        startService(new Intent(this, TrackerService.class));
+        // The background service is started by MainActivity once it's drawn, so it doesn't
+        // hold up the first frame
+
+        StartupTrace.mark(StartupTrace.APP_CREATED);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        // Images are cheap to decode again, give them up before anything else
+        if (level >= TRIM_MEMORY_BACKGROUND)
+            FoodImageLoader.trimMemory();
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+
+        FoodImageLoader.trimMemory();
     }
 
     @Override
@@ -61,6 +83,11 @@ public class BiteCoinApp extends Application {
             BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
 
             switch (intent.getAction()) {
+                case BluetoothDevice.ACTION_FOUND:
+                    bus.post(new Bluetooth.DeviceFoundEvent(
+                            device, intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, Short.MIN_VALUE)));
+                    break;
+
                 case BluetoothDevice.ACTION_ACL_DISCONNECT_REQUESTED:
                     bus.post(new Bluetooth.DeviceDisconnectRequestedEvent(device));
                     break;
@@ -4,6 +4,7 @@ import android.app.AlertDialog;
 import android.app.Dialog;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
+import android.content.Context;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -15,9 +16,8 @@ import android.widget.AdapterView;
 import android.widget.ListView;
 
 import com.decnorton.bitecoin.events.Bluetooth;
-import com.squareup.otto.Bus;
-import com.squareup.otto.Subscribe;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
@@ -38,7 +38,7 @@ public class BluetoothDevicesDialog extends DialogFragment implements AdapterVie
     /**
      * Helpers
      */
-    private Bus bus = BusProvider.get();
+    private EventBus bus = BusProvider.get();
     private BluetoothAdapter mBluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
 
     /**
@@ -46,7 +46,14 @@ public class BluetoothDevicesDialog extends DialogFragment implements AdapterVie
      */
     @InjectView(android.R.id.list) ListView mListView;
     private BluetoothDeviceAdapter mAdapter;
-    private List<BluetoothDevice> mBluetoothDevices = new UniqueList<>();
+    private List<BluetoothDevice> mBluetoothDevices = new IndexedUniqueList<>(
+            new IndexedUniqueList.KeyFunction<BluetoothDevice>() {
+                @Override
+                public Object keyOf(BluetoothDevice device) {
+                    return device.getAddress();
+                }
+            }
+    );
 
     /**
      * Listener
@@ -99,7 +106,13 @@ public class BluetoothDevicesDialog extends DialogFragment implements AdapterVie
     public void onResume() {
         super.onResume();
 
-        bus.register(this);
+        bus.subscribe(this, Bluetooth.DeviceFoundEvent.class, EventBus.Lane.MAIN,
+                new EventBus.Handler<Bluetooth.DeviceFoundEvent>() {
+                    @Override
+                    public void onEvent(Bluetooth.DeviceFoundEvent event) {
+                        onDeviceFoundEvent(event);
+                    }
+                });
 
         mBluetoothAdapter.startDiscovery();
     }
@@ -123,17 +136,33 @@ public class BluetoothDevicesDialog extends DialogFragment implements AdapterVie
         dismiss();
     }
 
+    /**
+     * Displays we've connected to before, best first, then the rest of the bonded devices.
+     */
     @DebugLog
-    private Task<Set<BluetoothDevice>> getBondedBluetoothDevices() {
-        return Task.callInBackground(new Callable<Set<BluetoothDevice>>() {
+    private Task<List<BluetoothDevice>> getBondedBluetoothDevices() {
+        final Context context = getActivity().getApplicationContext();
+
+        return Task.callInBackground(new Callable<List<BluetoothDevice>>() {
             @Override
-            public Set<BluetoothDevice> call() throws Exception {
-                return mBluetoothAdapter.getBondedDevices();
+            public List<BluetoothDevice> call() throws Exception {
+                List<BluetoothDevice> devices = new ArrayList<>();
+
+                for (KnownDevices.Entry entry : BluetoothService.getInstance(context).getKnownDevices()) {
+                    devices.add(mBluetoothAdapter.getRemoteDevice(entry.address));
+                }
+
+                Set<BluetoothDevice> bonded = mBluetoothAdapter.getBondedDevices();
+
+                if (bonded != null)
+                    devices.addAll(bonded);
+
+                return devices;
             }
-        }).continueWithTask(new Continuation<Set<BluetoothDevice>, Task<Set<BluetoothDevice>>>() {
+        }).continueWithTask(new Continuation<List<BluetoothDevice>, Task<List<BluetoothDevice>>>() {
 
             @Override
-            public Task<Set<BluetoothDevice>> then(Task<Set<BluetoothDevice>> task) throws Exception {
+            public Task<List<BluetoothDevice>> then(Task<List<BluetoothDevice>> task) throws Exception {
                 if (task.isFaulted()) {
                     Exception e = task.getError();
 
@@ -151,7 +180,7 @@ public class BluetoothDevicesDialog extends DialogFragment implements AdapterVie
                 return task;
             }
 
-        });
+        }, Task.UI_THREAD_EXECUTOR);
     }
 
     @DebugLog
@@ -180,21 +209,8 @@ public class BluetoothDevicesDialog extends DialogFragment implements AdapterVie
         public void onBluetoothDevicePicked(BluetoothDevice device);
     }
 
-    @Subscribe
     public void onDeviceFoundEvent(Bluetooth.DeviceFoundEvent event) {
         addDevice(event.device);
     }
 
-    @DebugLog
-    @Subscribe
-    public void onDiscoveryStartedEvent(Bluetooth.DiscoveryStartedEvent event) {
-
-    }
-
-    @DebugLog
-    @Subscribe
-    public void onDiscoveryFinishedEvent(Bluetooth.DiscoveryFinishedEvent event) {
-
-    }
-
 }
@@ -2,18 +2,22 @@ package com.decnorton.bitecoin;
 
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
+import android.content.Context;
 import android.util.Log;
 
 import com.decnorton.bitecoin.events.Bluetooth;
-import com.squareup.otto.Bus;
-import com.squareup.otto.Subscribe;
+import com.decnorton.bitecoin.events.Shop;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.UUID;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.Callable;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import bolts.Continuation;
 import bolts.Task;
@@ -35,36 +39,67 @@ public class BluetoothService {
     private static final int NUM_PIXELS = 16;
     private static final int STEPS_PER_PIXEL = 10;
 
-    private static final Executor sSingleThreadExecutor = Executors.newSingleThreadExecutor();
+    private static final String KNOWN_DEVICES_FILE = "known_devices";
 
-    // Well known SPP UUID
-    private static final UUID MY_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+    // Known displays tried at launch before falling back to discovery
+    private static final int MAX_RECONNECT_ATTEMPTS = 2;
 
-    // Insert your bluetooth devices MAC address
-    private BluetoothDevice mBluetoothDevice;
-    private BluetoothSocket mBluetoothSocket;
+    // One session per display, keyed by MAC address
+    private final ConcurrentHashMap<String, DeviceSession> mSessions = new ConcurrentHashMap<>();
+
+    // Shared by every session, so a fanned out frame carries the same number to each display
+    private final AtomicInteger mNextSequence = new AtomicInteger();
+
+    // What every display should be showing, sent as deltas
+    private final Framebuffer mFramebuffer = new Framebuffer(NUM_PIXELS);
+
+    private final DeviceSession.Listener mSessionListener = new DeviceSession.Listener() {
+        @Override
+        public void onResyncNeeded(DeviceSession session) {
+            // Queued under the framebuffer's lock, like deltas, so it can't overtake one
+            synchronized (mFramebuffer) {
+                sendTo(Collections.singletonList(session), mFramebuffer.keyframe());
+            }
+        }
+    };
 
     /**
      * Helpers
      */
-    private final Bus bus = BusProvider.get();
+    private final EventBus bus = BusProvider.get();
+    private final Metrics metrics = MetricsProvider.get();
+
+    // From the sensor counting steps to a display acking the pixels that show them
+    private final LatencyHistogram mSensorToPixelHistogram = metrics.histogram("e2e.sensor_to_pixel");
 
     private BluetoothAdapter mBluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
     private boolean isDestroyed = false;
 
+    private final KnownDevices mKnownDevices;
+
     private static BluetoothService sInstance;
 
-    public static BluetoothService getInstance() {
+    // Made in the background after the first frame, as it reads the known devices, see MainActivity
+    public static synchronized BluetoothService getInstance(Context context) {
         if (sInstance == null || sInstance.isDestroyed) {
-            sInstance = new BluetoothService();
+            sInstance = new BluetoothService(new File(context.getFilesDir(), KNOWN_DEVICES_FILE));
         }
 
         return sInstance;
     }
 
     @DebugLog
-    private BluetoothService() {
-        bus.register(this);
+    private BluetoothService(File knownDevicesFile) {
+        mKnownDevices = new KnownDevices(knownDevicesFile);
+
+        try {
+            mKnownDevices.load(System.currentTimeMillis());
+        } catch (IOException e) {
+            Log.w(TAG, "[BluetoothService] Forgetting known devices: " + e.getMessage());
+        }
+
+        subscribe();
+        registerMetrics();
 
         checkBluetoothState();
     }
@@ -73,105 +108,177 @@ public class BluetoothService {
     public void destroy() {
         bus.unregister(this);
 
-        if (mBluetoothSocket != null) {
-            try {
-                mBluetoothSocket.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        for (DeviceSession session : mSessions.values()) {
+            session.close();
         }
 
+        mSessions.clear();
+
         this.isDestroyed = true;
     }
 
+    /**
+     * Adds a display and connects to it. Displays that are already connected are left alone,
+     * so any number of them can be driven at once.
+     */
     @DebugLog
     public Task<Boolean> connectToDevice(final BluetoothDevice device) {
+        if (device == null || !checkBluetoothState())
+            return Task.forResult(false);
+
+        return attach(device.getAddress(), device, RfcommLink.connector(mBluetoothAdapter, device));
+    }
+
+    /**
+     * Adds a display reached through any {@link Link}, e.g. a firmware simulator, and connects
+     * to it. It's driven exactly like a Bluetooth display.
+     */
+    public Task<Boolean> attach(String address, Link.Connector connector) {
+        return attach(address, null, connector);
+    }
+
+    private Task<Boolean> attach(final String address, final BluetoothDevice device, final Link.Connector connector) {
         return Task.callInBackground(new Callable<Boolean>() {
             @Override
             public Boolean call() throws Exception {
-                if (device == null)
-                    return false;
+                DeviceSession session = mSessions.get(address);
 
-                mBluetoothDevice = device;
+                if (session == null) {
+                    session = new DeviceSession(address, device, connector, bus, metrics, mSessionListener);
+                    DeviceSession existing = mSessions.putIfAbsent(address, session);
 
-                if (!checkBluetoothState())
-                    return false;
+                    if (existing != null) {
+                        session.close();
+                        session = existing;
+                    }
+                }
 
-                BluetoothSocket socket;
+                // Goes through the session's supervisor so there's never more than one connect in flight
+                if (session.connectNow().get()) {
+                    if (device != null)
+                        rememberDevice(device, true);
 
-                // Two things are needed to make a connection:
-                //   A MAC address, which we got above.
-                //   A Service ID or UUID.  In this case we are using the
-                //     UUID for SPP.
-                try {
-                    socket = device.createRfcommSocketToServiceRecord(MY_UUID);
-                } catch (IOException e) {
-                    Log.e(TAG, "[connectToDevice] Couldn't create socket: " + e.getMessage(), e);
-                    return false;
+                    return true;
                 }
 
-                // Discovery is resource intensive.  Make sure it isn't going on
-                // when you attempt to connect and pass your message.
-                mBluetoothAdapter.cancelDiscovery();
+                if (device != null)
+                    rememberDevice(device, false);
 
-                // Establish the connection.  This will block until it connects.
-                try {
-                    socket.connect();
-                } catch (IOException e) {
-                    Log.e(TAG, "[connectToDevice] Couldn't connect to device: " + e.getMessage(), e);
+                // Don't keep retrying a display that never connected in the first place
+                if (mSessions.remove(address, session))
+                    session.close();
 
-                    try {
-                        socket.close();
-                    } catch (IOException e2) {
-                        Log.e(TAG, "[connectToDevice] Couldn't close socket during connection failure: " + e2.getMessage(), e);
-                    }
+                return false;
+            }
+        });
+    }
 
-                    return false;
-                }
+    /**
+     * Goes straight back to the best known display without scanning for it, trying the next
+     * best if that fails.
+     *
+     * @return the display connected to, or null if none worked and it's time for discovery
+     */
+    public Task<BluetoothDevice> reconnectToKnownDevice() {
+        if (!checkBluetoothState())
+            return Task.forResult(null);
+
+        List<KnownDevices.Entry> candidates = mKnownDevices.getBest(System.currentTimeMillis());
+
+        return reconnect(candidates.subList(0, Math.min(candidates.size(), MAX_RECONNECT_ATTEMPTS)), 0);
+    }
 
-                mBluetoothSocket = socket;
+    private Task<BluetoothDevice> reconnect(final List<KnownDevices.Entry> candidates, final int index) {
+        if (index >= candidates.size())
+            return Task.forResult(null);
 
-                Log.i(TAG, "[connectToDevice] Connected!");
+        final KnownDevices.Entry candidate = candidates.get(index);
+        final BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(candidate.address);
 
-                bus.post(new Bluetooth.DeviceConnectedEvent(device));
+        Log.i(TAG, "[reconnect] Trying known device " + candidate);
 
-                return true;
+        return connectToDevice(device).continueWithTask(new Continuation<Boolean, Task<BluetoothDevice>>() {
+            @Override
+            public Task<BluetoothDevice> then(Task<Boolean> task) throws Exception {
+                if (!task.isFaulted() && task.getResult())
+                    return Task.forResult(device);
+
+                return reconnect(candidates, index + 1);
             }
         });
     }
 
-    @DebugLog
-    private boolean isConnected() {
-        if (mBluetoothDevice == null) {
-            Log.e(TAG, "[isConnected] mBluetoothDevice is null");
-            return false;
-        }
+    /**
+     * Displays connected to before, best first.
+     */
+    public List<KnownDevices.Entry> getKnownDevices() {
+        return mKnownDevices.getBest(System.currentTimeMillis());
+    }
 
-        if (mBluetoothSocket == null) {
-            Log.e(TAG, "[isConnected] mBluetoothSocket is null");
-            return false;
-        }
+    private void rememberDevice(BluetoothDevice device, boolean isConnected) {
+        long now = System.currentTimeMillis();
+
+        if (isConnected)
+            mKnownDevices.recordConnected(device.getAddress(), device.getName(), now);
+        else
+            mKnownDevices.recordFailed(device.getAddress(), now);
 
-        return mBluetoothSocket.isConnected();
+        saveKnownDevices();
     }
 
-    @DebugLog
-    public boolean disconnect() {
+    private void saveKnownDevices() {
         try {
-            if (mBluetoothSocket != null)
-                mBluetoothSocket.close();
+            mKnownDevices.save();
+        } catch (IOException e) {
+            Log.e(TAG, "[saveKnownDevices] Couldn't save known devices: " + e.getMessage(), e);
+        }
+    }
 
-            bus.post(new Bluetooth.DeviceDisconnectedEvent(mBluetoothDevice));
+    /**
+     * Disconnects every display.
+     */
+    @DebugLog
+    public void disconnect() {
+        for (String address : mSessions.keySet()) {
+            disconnect(address);
+        }
+    }
 
-            mBluetoothSocket = null;
-            mBluetoothDevice = null;
+    @DebugLog
+    public boolean disconnect(BluetoothDevice device) {
+        return device != null && disconnect(device.getAddress());
+    }
 
-            Log.i(TAG, "[disconnect] Disconnected!");
-            return true;
-        } catch (IOException e) {
-            Log.e(TAG, "[disconnect] Couldn't disconnect: " + e.getMessage(), e);
+    public boolean disconnect(String address) {
+        // Drop the session first so the disconnect event doesn't trigger a reconnect
+        DeviceSession session = mSessions.remove(address);
+
+        if (session == null)
             return false;
+
+        session.close();
+
+        if (session.getDevice() != null)
+            bus.post(new Bluetooth.DeviceDisconnectedEvent(session.getDevice()));
+
+        Log.i(TAG, "[disconnect] Disconnected from " + address);
+
+        return true;
+    }
+
+    public List<DeviceSession> getSessions() {
+        return new ArrayList<>(mSessions.values());
+    }
+
+    public List<BluetoothDevice> getConnectedDevices() {
+        List<BluetoothDevice> devices = new ArrayList<>();
+
+        for (DeviceSession session : mSessions.values()) {
+            if (session.isConnected() && session.getDevice() != null)
+                devices.add(session.getDevice());
         }
+
+        return devices;
     }
 
     private boolean checkBluetoothState() {
@@ -192,99 +299,341 @@ public class BluetoothService {
     }
 
     public Task<Boolean> sendMessage(final String message) {
-        return sendMessage(message, 0);
+        return sendFrame(DisplayFrame.text(message));
     }
 
-    @DebugLog
-    public Task<Boolean> sendMessage(final String message, final int attempt) {
-        if (attempt > 0) {
-            Log.i(TAG, "[sendMessage] Attempt #" + attempt);
+    /**
+     * Queues a frame on every display.
+     *
+     * @return a task that's true once the frame was written to at least one display
+     */
+    public Task<Boolean> sendFrame(final DisplayFrame frame) {
+        return send(frame).getSent();
+    }
+
+    /**
+     * Stamps a frame with the next sequence number, encodes it once and queues it on every
+     * display. Display-state frames replace any unsent frame of the same kind, in which case
+     * the delivery completes along with the frame that replaced it.
+     */
+    public Delivery send(DisplayFrame frame) {
+        return sendTo(getSessions(), frame);
+    }
+
+    private Delivery sendTo(List<DeviceSession> sessions, DisplayFrame frame) {
+        if (sessions.isEmpty())
+            return new Delivery(Task.forResult(false), Task.forResult(false));
+
+        frame = frame.withSequence(mNextSequence.getAndIncrement());
+
+        if (TraceRecorder.ENABLED)
+            TraceRecorder.record(TraceRecorder.FRAME_QUEUED, frame.getSequence(), frame.getOpcode());
+
+        byte[] bytes = frame.encode();
+        FanOut fanOut = new FanOut(sessions.size());
+
+        for (DeviceSession session : sessions) {
+            session.offer(new DeviceSession.PendingFrame(frame, bytes, fanOut));
+        }
+
+        return fanOut.getDelivery();
+    }
+
+    public long getOfferedCount() {
+        long count = 0;
+
+        for (DeviceSession session : mSessions.values()) {
+            count += session.getOfferedCount();
+        }
+
+        return count;
+    }
+
+    public long getSentCount() {
+        long count = 0;
+
+        for (DeviceSession session : mSessions.values()) {
+            count += session.getSentCount();
+        }
+
+        return count;
+    }
+
+    public long getCoalescedCount() {
+        long count = 0;
+
+        for (DeviceSession session : mSessions.values()) {
+            count += session.getCoalescedCount();
         }
 
-        if (!isConnected()) {
-            if (attempt > 3)
-                return Task.forError(new Exception("Maximum reconnection attempts exceeded"));
+        return count;
+    }
+
+    /**
+     * Draws the steps gauge for the steps available to spend and sends whichever pixels changed.
+     */
+    public Task<Boolean> sendPixelMessage(final int availableSteps) {
+        return sendPixelMessage(availableSteps, 0);
+    }
+
+    /**
+     * @param readingTimestamp when the sensor counted the steps, to time the whole trip to the
+     *                         display, or 0 if unknown
+     */
+    public Task<Boolean> sendPixelMessage(final int availableSteps, final long readingTimestamp) {
+        int pixel = Math.max(0, Math.min(availableSteps / STEPS_PER_PIXEL, NUM_PIXELS));
+
+        if (TraceRecorder.ENABLED)
+            TraceRecorder.record(TraceRecorder.PIXELS_RENDERED, availableSteps, pixel);
+
+        Delivery delivery;
+
+        // Renders come from more than one thread. The delta is numbered and queued under the
+        // same lock it was worked out in, so deltas always reach a display in the order they
+        // were flushed and a merge never applies a stale one last.
+        synchronized (mFramebuffer) {
+            PixelGauge.render(mFramebuffer, pixel);
+
+            List<DeviceSession> sessions = getSessions();
 
-            Log.e(TAG, "[sendMessage] Not connected. Message: " + message);
+            // Leave the pixels dirty rather than marking them as sent to nobody
+            if (sessions.isEmpty())
+                return Task.forResult(false);
 
-            return connectToDevice(mBluetoothDevice)
-                    .continueWithTask(new Continuation<Boolean, Task<Boolean>>() {
-                        @Override
-                        public Task<Boolean> then(Task<Boolean> task) throws Exception {
-                            if (task.getResult()) {
-                                return sendMessage(message, attempt + 1);
-                            }
+            DisplayFrame frame = mFramebuffer.flush();
 
-                            Log.e(TAG, "[sendMessage] Couldn't retry connection");
+            // Already showing
+            if (frame == null)
+                return Task.forResult(true);
 
-                            return Task.forResult(false);
-                        }
-                    });
+            delivery = sendTo(sessions, frame);
         }
 
-        return Task.call(new Callable<Boolean>() {
+        if (readingTimestamp > 0) {
+            delivery.getDisplayed().continueWith(new Continuation<Boolean, Void>() {
+                @Override
+                public Void then(Task<Boolean> task) throws Exception {
+                    if (Boolean.TRUE.equals(task.getResult())) {
+                        mSensorToPixelHistogram.record(
+                                TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - readingTimestamp));
+                    }
+
+                    return null;
+                }
+            });
+        }
+
+        return delivery.getSent();
+    }
 
-            @DebugLog
+    public Framebuffer getFramebuffer() {
+        return mFramebuffer;
+    }
+
+    /**
+     * Display totals as "display.*", alongside the per-stage metrics each session records.
+     */
+    private void registerMetrics() {
+        metrics.gauge("display.sessions", new Metrics.Gauge() {
             @Override
-            public Boolean call() throws Exception {
+            public long getValue() {
+                return mSessions.size();
+            }
+        });
 
-                byte[] bytes = message.getBytes();
+        metrics.gauge("display.connected", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                long count = 0;
 
-                try {
-                    mBluetoothSocket.getOutputStream().write(bytes);
-                    return true;
-                } catch (IOException e) {
-                    Log.e(TAG, "[sendMessage] Couldn't send data: " + e.getMessage(), e);
-                    return false;
+                for (DeviceSession session : mSessions.values()) {
+                    if (session.isConnected())
+                        count++;
                 }
+
+                return count;
             }
+        });
 
-        }, sSingleThreadExecutor);
-    }
+        metrics.gauge("display.queued", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                long count = 0;
 
-    @DebugLog
-    public Task<Boolean> sendPixelMessage(final int totalSteps) {
-        String message = "pixel ";
+                for (DeviceSession session : mSessions.values()) {
+                    count += session.getQueuedCount();
+                }
 
-        int pixel = Math.min(totalSteps / STEPS_PER_PIXEL, NUM_PIXELS);
+                return count;
+            }
+        });
 
-        message += pixel;
+        metrics.gauge("display.offered", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getOfferedCount();
+            }
+        });
 
-        Log.i(TAG, "[sendPixelMessage] Steps: " + totalSteps);
-        Log.i(TAG, "[sendPixelMessage] Pixel: " + pixel);
+        metrics.gauge("display.sent", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getSentCount();
+            }
+        });
 
-        return sendMessage(message);
+        metrics.gauge("display.coalesced", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getCoalescedCount();
+            }
+        });
     }
 
     /**
      * Events
      */
 
-    @Subscribe
-    public void onDeviceConnectedEvent(Bluetooth.DeviceConnectedEvent event) {
+    private void subscribe() {
+        // Everything here touches the socket or storage, keep it off the posting thread
+        bus.subscribe(this, Bluetooth.DeviceFoundEvent.class, EventBus.Lane.BACKGROUND,
+                new EventBus.Handler<Bluetooth.DeviceFoundEvent>() {
+                    @Override
+                    public void onEvent(Bluetooth.DeviceFoundEvent event) {
+                        onDeviceFoundEvent(event);
+                    }
+                });
+
+        bus.subscribe(this, Bluetooth.DeviceDisconnectedEvent.class, EventBus.Lane.BACKGROUND,
+                new EventBus.Handler<Bluetooth.DeviceDisconnectedEvent>() {
+                    @Override
+                    public void onEvent(Bluetooth.DeviceDisconnectedEvent event) {
+                        onDeviceDisconnectedEvent(event);
+                    }
+                });
+
+        bus.subscribe(this, Bluetooth.DeviceDisconnectRequestedEvent.class, EventBus.Lane.BACKGROUND,
+                new EventBus.Handler<Bluetooth.DeviceDisconnectRequestedEvent>() {
+                    @Override
+                    public void onEvent(Bluetooth.DeviceDisconnectRequestedEvent event) {
+                        onDeviceDisconnectRequestedEvent(event);
+                    }
+                });
+
+        bus.subscribe(this, TrackerService.StepsEvent.class, EventBus.Lane.BACKGROUND,
+                new EventBus.Handler<TrackerService.StepsEvent>() {
+                    @Override
+                    public void onEvent(TrackerService.StepsEvent event) {
+                        onStepsEvent(event);
+                    }
+                });
 
+        bus.subscribe(this, Shop.PurchaseEvent.class, EventBus.Lane.BACKGROUND,
+                new EventBus.Handler<Shop.PurchaseEvent>() {
+                    @Override
+                    public void onEvent(Shop.PurchaseEvent event) {
+                        onPurchaseEvent(event);
+                    }
+                });
+    }
+
+    /**
+     * Keeps the signal strength of known displays up to date, for picking which to reconnect to.
+     */
+    public void onDeviceFoundEvent(Bluetooth.DeviceFoundEvent event) {
+        if (event.device == null)
+            return;
+
+        if (mKnownDevices.recordSeen(event.device.getAddress(), event.device.getName(), event.rssi,
+                System.currentTimeMillis()))
+            saveKnownDevices();
     }
 
     @DebugLog
-    @Subscribe
     public void onDeviceDisconnectedEvent(Bluetooth.DeviceDisconnectedEvent event) {
-        if (event.device.equals(mBluetoothDevice)) {
-            mBluetoothSocket = null;
-            mBluetoothDevice = null;
-        }
+        DeviceSession session = event.device != null ? mSessions.get(event.device.getAddress()) : null;
+
+        if (session != null)
+            session.onLinkLost();
     }
 
     @DebugLog
-    @Subscribe
     public void onDeviceDisconnectRequestedEvent(Bluetooth.DeviceDisconnectRequestedEvent event) {
-        if (event.device.equals(mBluetoothDevice))
-            disconnect();
+        disconnect(event.device);
     }
 
-    @Subscribe
+    /**
+     * One pixel update per checkout, however many items were bought.
+     */
+    public void onPurchaseEvent(Shop.PurchaseEvent event) {
+        sendPixelMessage(event.receipt.availableSteps);
+    }
+
+    /**
+     * The gauge always shows what's left to spend, the same as after a purchase.
+     */
     public void onStepsEvent(TrackerService.StepsEvent event) {
-        Log.i(TAG, "[onStepsEvent] Total steps: " + event.totalSteps);
-        sendPixelMessage(event.totalSteps);
+        sendPixelMessage(event.availableSteps, event.readingTimestamp);
+    }
+
+    /**
+     * How far a frame got: written to at least one display, and shown by at least one display.
+     */
+    public static final class Delivery {
+        private final Task<Boolean> mSent;
+        private final Task<Boolean> mDisplayed;
+
+        Delivery(Task<Boolean> sent, Task<Boolean> displayed) {
+            mSent = sent;
+            mDisplayed = displayed;
+        }
+
+        public Task<Boolean> getSent() {
+            return mSent;
+        }
+
+        public Task<Boolean> getDisplayed() {
+            return mDisplayed;
+        }
     }
 
+    /**
+     * Completes one caller's delivery once every display it was sent to has finished with it.
+     */
+    private static final class FanOut implements DeviceSession.Completion {
+        private final Task<Boolean>.TaskCompletionSource mSent = Task.create();
+        private final Task<Boolean>.TaskCompletionSource mDisplayed = Task.create();
+
+        private final AtomicInteger mAwaitingSend;
+        private final AtomicInteger mAwaitingAck;
+        private final AtomicBoolean mAnySent = new AtomicBoolean();
+        private final AtomicBoolean mAnyDisplayed = new AtomicBoolean();
+
+        FanOut(int sessions) {
+            mAwaitingSend = new AtomicInteger(sessions);
+            mAwaitingAck = new AtomicInteger(sessions);
+        }
+
+        Delivery getDelivery() {
+            return new Delivery(mSent.getTask(), mDisplayed.getTask());
+        }
+
+        @Override
+        public void complete(boolean sent) {
+            if (sent)
+                mAnySent.set(true);
+
+            if (mAwaitingSend.decrementAndGet() == 0)
+                mSent.setResult(mAnySent.get());
+        }
+
+        @Override
+        public void acknowledge(boolean displayed) {
+            if (displayed)
+                mAnyDisplayed.set(true);
+
+            if (mAwaitingAck.decrementAndGet() == 0)
+                mDisplayed.setResult(mAnyDisplayed.get());
+        }
+    }
 }
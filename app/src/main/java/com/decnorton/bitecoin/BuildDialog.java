@@ -0,0 +1,104 @@
+package com.decnorton.bitecoin;
+
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.content.DialogInterface;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.v4.app.DialogFragment;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.EditText;
+import android.widget.Toast;
+
+import butterknife.ButterKnife;
+import butterknife.InjectView;
+
+/**
+ * Asks for the user's weight and height, which is what the shop's prices are worked out from.
+ * Their stride is estimated from their height, see {@link PricingModel#strideForHeight(float)}.
+ */
+public class BuildDialog extends DialogFragment {
+    /**
+     * Views
+     */
+    @InjectView(R.id.build_weight) EditText mWeightView;
+    @InjectView(R.id.build_height) EditText mHeightView;
+
+    /**
+     * Listener
+     */
+    private BuildChangedListener mListener;
+
+    private PricingModel mModel = PricingModel.DEFAULT;
+
+
+    /**
+     * @param model the build the user has now, to start from
+     */
+    public static BuildDialog getInstance(PricingModel model, BuildChangedListener listener) {
+        BuildDialog instance = new BuildDialog();
+        instance.mModel = model;
+        instance.setBuildChangedListener(listener);
+        return instance;
+    }
+
+
+    @NonNull
+    @Override
+    public Dialog onCreateDialog(Bundle savedInstanceState) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
+
+        View view = LayoutInflater.from(getActivity()).inflate(R.layout.dialog_build, null);
+
+        builder.setTitle(getString(R.string.dialog_build_title));
+        builder.setView(view);
+        builder.setPositiveButton(R.string.dialog_build_save, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                save();
+            }
+        });
+        builder.setNegativeButton(android.R.string.cancel, null);
+
+        AlertDialog dialog = builder.create();
+
+        ButterKnife.inject(this, view);
+
+        float heightCm = mModel.getStrideMeters() / PricingModel.STRIDE_PER_HEIGHT * 100;
+
+        mWeightView.setText(String.valueOf(Math.round(mModel.getWeightKg())));
+        mHeightView.setText(String.valueOf(Math.round(heightCm)));
+
+        return dialog;
+    }
+
+    private void save() {
+        float weightKg;
+        float heightCm;
+
+        try {
+            weightKg = Float.parseFloat(mWeightView.getText().toString());
+            heightCm = Float.parseFloat(mHeightView.getText().toString());
+        } catch (NumberFormatException e) {
+            weightKg = heightCm = 0;
+        }
+
+        if (weightKg <= 0 || heightCm <= 0) {
+            Toast.makeText(getActivity(), "That doesn't look like a weight and height", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        if (mListener != null)
+            mListener.onBuildChanged(weightKg, PricingModel.strideForHeight(heightCm / 100));
+    }
+
+    public void setBuildChangedListener(BuildChangedListener listener) {
+        mListener = listener;
+    }
+
+    public interface BuildChangedListener {
+        public void onBuildChanged(float weightKg, float strideMeters);
+    }
+
+}
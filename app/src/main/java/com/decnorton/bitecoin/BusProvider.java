@@ -1,17 +1,81 @@
 package com.decnorton.bitecoin;
 
-import com.squareup.otto.Bus;
-import com.squareup.otto.ThreadEnforcer;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Created by decnorton on 03/02/15.
  */
 public class BusProvider {
+    private static final String TAG = "EventBus";
+
+    private static final int BACKGROUND_THREADS = 2;
+
+    private static final Executor sMainExecutor = new Executor() {
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(Runnable command) {
+            mHandler.post(command);
+        }
+    };
+
+    private static final ExecutorService sBackgroundExecutor = Executors.newFixedThreadPool(BACKGROUND_THREADS);
+
+    private static final EventBus instance = new EventBus(sMainExecutor, sBackgroundExecutor);
+
+    static {
+        instance.setErrorListener(new EventBus.ErrorListener() {
+            @Override
+            public void onHandlerError(Object event, RuntimeException e) {
+                Log.e(TAG, "Handler for " + event.getClass().getSimpleName() + " threw", e);
+            }
+        });
 
-    private static final Bus instance = new Bus(ThreadEnforcer.ANY);
+        registerMetrics(MetricsProvider.get());
+    }
 
-    public static Bus get() {
+    public static EventBus get() {
         return instance;
     }
 
+    /**
+     * Dispatch latency and health per lane, as "bus.<lane>.*".
+     */
+    private static void registerMetrics(Metrics metrics) {
+        for (EventBus.Lane lane : EventBus.Lane.values()) {
+            final EventBus.LaneStats stats = instance.getStats(lane);
+            String prefix = "bus." + lane.name().toLowerCase(Locale.US);
+
+            metrics.register(prefix + ".latency", stats.getLatency());
+
+            metrics.gauge(prefix + ".delivered", new Metrics.Gauge() {
+                @Override
+                public long getValue() {
+                    return stats.getDeliveredCount();
+                }
+            });
+
+            metrics.gauge(prefix + ".dropped", new Metrics.Gauge() {
+                @Override
+                public long getValue() {
+                    return stats.getDroppedCount();
+                }
+            });
+
+            metrics.gauge(prefix + ".errors", new Metrics.Gauge() {
+                @Override
+                public long getValue() {
+                    return stats.getErrorCount();
+                }
+            });
+        }
+    }
+
 }
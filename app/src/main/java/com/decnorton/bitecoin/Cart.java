@@ -0,0 +1,129 @@
+package com.decnorton.bitecoin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Foods the user is about to buy, checked out all at once by a {@link PurchaseEngine}.
+ *
+ * Every version of the cart has its own idempotency key: it stays the same however many times
+ * the same cart is checked out, e.g. from a double tap, and changes as soon as the contents
+ * do. Not thread-safe, it belongs to the UI.
+ */
+public class Cart {
+
+    private final Map<Long, Line> mLines = new LinkedHashMap<>();
+    private String mKey = newKey();
+
+    public void add(FoodItem item) {
+        Line line = mLines.get(item.getId());
+        mLines.put(item.getId(), new Line(item, line == null ? 1 : line.quantity + 1));
+
+        mKey = newKey();
+    }
+
+    /**
+     * Takes one of the given food out of the cart.
+     */
+    public void remove(FoodItem item) {
+        Line line = mLines.get(item.getId());
+
+        if (line == null)
+            return;
+
+        if (line.quantity > 1) {
+            mLines.put(item.getId(), new Line(line.item, line.quantity - 1));
+        } else {
+            mLines.remove(item.getId());
+        }
+
+        mKey = newKey();
+    }
+
+    /**
+     * Swaps every line's food for the same food at its new price, after the user's build has
+     * changed. The key changes too, as the basket now costs something else.
+     */
+    public void reprice(FoodPricing pricing) {
+        FoodCatalog catalog = pricing.getCatalog();
+
+        for (Map.Entry<Long, Line> entry : mLines.entrySet()) {
+            int index = catalog.indexOf(entry.getKey());
+
+            if (index >= 0)
+                entry.setValue(new Line(pricing.get(index), entry.getValue().quantity));
+        }
+
+        mKey = newKey();
+    }
+
+    public void clear() {
+        mLines.clear();
+        mKey = newKey();
+    }
+
+    public boolean isEmpty() {
+        return mLines.isEmpty();
+    }
+
+    public int getItemCount() {
+        int count = 0;
+
+        for (Line line : mLines.values()) {
+            count += line.quantity;
+        }
+
+        return count;
+    }
+
+    public long getTotalSteps() {
+        long total = 0;
+
+        for (Line line : mLines.values()) {
+            total += line.getSteps();
+        }
+
+        return total;
+    }
+
+    /**
+     * Identifies this version of the cart, see {@link PurchaseEngine#checkout(String, List, long)}.
+     */
+    public String getKey() {
+        return mKey;
+    }
+
+    /**
+     * A copy of the lines, safe to hand to another thread.
+     */
+    public List<Line> getLines() {
+        return Collections.unmodifiableList(new ArrayList<>(mLines.values()));
+    }
+
+    private static String newKey() {
+        return UUID.randomUUID().toString();
+    }
+
+    public static final class Line {
+        public final FoodItem item;
+        public final int quantity;
+
+        public Line(FoodItem item, int quantity) {
+            this.item = item;
+            this.quantity = quantity;
+        }
+
+        public long getSteps() {
+            return (long) item.getSteps() * quantity;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("{ id: %d, name: %s, quantity: %d }", item.getId(), item.getName(), quantity);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.decnorton.bitecoin;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owns reconnection for a single link.
+ *
+ * Any number of callers can ask for a reconnect, but only one connect attempt is ever
+ * scheduled or in flight. Failed attempts are retried with {@link Backoff} until the link
+ * comes up or the attempt limit is reached.
+ */
+public class ConnectionSupervisor {
+
+    /**
+     * Constants
+     */
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 500;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 30000;
+    public static final int DEFAULT_MAX_ATTEMPTS = 8;
+
+    private final Connector mConnector;
+    private final Listener mListener;
+    private final Backoff mBackoff;
+    private final int mMaxAttempts;
+
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    // The attempt that's scheduled or running, if any
+    private Attempt mPendingAttempt;
+    private int mConsecutiveFailures = 0;
+    private int mGeneration = 0;
+    private long mOutageStartedNanos = 0;
+    private boolean mIsShutdown = false;
+
+    /**
+     * Metrics
+     */
+    private long mAttemptCount = 0;
+    private long mSuccessCount = 0;
+    private long mFailureCount = 0;
+    private long mGiveUpCount = 0;
+    private long mLastReconnectMillis = -1;
+    private long mMaxReconnectMillis = -1;
+
+    public ConnectionSupervisor(Connector connector, Listener listener) {
+        this(connector, listener, new Backoff(DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS), DEFAULT_MAX_ATTEMPTS);
+    }
+
+    public ConnectionSupervisor(Connector connector, Listener listener, Backoff backoff, int maxAttempts) {
+        mConnector = connector;
+        mListener = listener;
+        mBackoff = backoff;
+        mMaxAttempts = maxAttempts;
+    }
+
+    /**
+     * Asks for the link to be brought back up. Does nothing if an attempt is already scheduled
+     * or running, so it's safe to call from every writer that finds the link down.
+     */
+    public synchronized void requestConnect() {
+        if (mIsShutdown || mPendingAttempt != null)
+            return;
+
+        markOutageStarted();
+
+        mPendingAttempt = schedule(mBackoff.getDelayMillis(mConsecutiveFailures));
+    }
+
+    /**
+     * Attempts to connect straight away, skipping any backoff delay. If an attempt is already
+     * running its future is returned instead of starting another one, a scheduled one that
+     * hasn't started yet is brought forward.
+     */
+    public synchronized Future<Boolean> connectNow() {
+        if (mIsShutdown)
+            throw new IllegalStateException("ConnectionSupervisor has been shut down");
+
+        // FutureTask.cancel() can't tell us this, it succeeds on a task that's already running
+        if (mPendingAttempt != null && mPendingAttempt.started)
+            return mPendingAttempt.future;
+
+        if (mPendingAttempt != null)
+            mPendingAttempt.cancel();
+
+        markOutageStarted();
+
+        mConsecutiveFailures = 0;
+        mPendingAttempt = schedule(0);
+
+        return mPendingAttempt.future;
+    }
+
+    /**
+     * Stops any scheduled reconnect, e.g. after the user disconnects on purpose.
+     */
+    public synchronized void cancel() {
+        if (mPendingAttempt != null) {
+            mPendingAttempt.cancel();
+            mPendingAttempt = null;
+        }
+
+        mConsecutiveFailures = 0;
+        mOutageStartedNanos = 0;
+
+        // Stops a running attempt from scheduling a retry when it fails
+        mGeneration++;
+    }
+
+    public synchronized void shutdown() {
+        cancel();
+
+        mIsShutdown = true;
+        mExecutor.shutdownNow();
+    }
+
+    private void markOutageStarted() {
+        if (mOutageStartedNanos == 0)
+            mOutageStartedNanos = System.nanoTime();
+    }
+
+    /**
+     * Always called with the lock held, so the attempt's future is set before it can run.
+     */
+    private Attempt schedule(long delayMillis) {
+        Attempt attempt = new Attempt();
+        attempt.future = mExecutor.schedule(attempt, delayMillis, TimeUnit.MILLISECONDS);
+
+        return attempt;
+    }
+
+    private boolean attempt(Attempt attempt) {
+        int generation;
+
+        synchronized (this) {
+            // Cancelled after the executor picked it up but before it got the lock
+            if (attempt.cancelled)
+                return false;
+
+            attempt.started = true;
+            mAttemptCount++;
+            generation = mGeneration;
+        }
+
+        boolean connected;
+
+        try {
+            connected = mConnector.connect();
+        } catch (RuntimeException e) {
+            connected = false;
+        }
+
+        boolean gaveUp = false;
+
+        synchronized (this) {
+            // A newer attempt may have been scheduled since, e.g. after a cancel()
+            if (mPendingAttempt == attempt)
+                mPendingAttempt = null;
+
+            if (connected) {
+                mSuccessCount++;
+                mConsecutiveFailures = 0;
+
+                if (mOutageStartedNanos != 0) {
+                    mLastReconnectMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mOutageStartedNanos);
+                    mMaxReconnectMillis = Math.max(mMaxReconnectMillis, mLastReconnectMillis);
+                    mOutageStartedNanos = 0;
+                }
+            } else {
+                mFailureCount++;
+                mConsecutiveFailures++;
+
+                if (mConsecutiveFailures >= mMaxAttempts) {
+                    mGiveUpCount++;
+                    mConsecutiveFailures = 0;
+                    mOutageStartedNanos = 0;
+                    gaveUp = true;
+                } else if (!mIsShutdown && generation == mGeneration) {
+                    mPendingAttempt = schedule(mBackoff.getDelayMillis(mConsecutiveFailures));
+                }
+            }
+        }
+
+        // Call out without holding the lock
+        if (connected) {
+            mListener.onConnected();
+        } else if (gaveUp) {
+            mListener.onGaveUp();
+        }
+
+        return connected;
+    }
+
+    public synchronized boolean isReconnecting() {
+        return mPendingAttempt != null;
+    }
+
+    public synchronized long getAttemptCount() {
+        return mAttemptCount;
+    }
+
+    public synchronized long getSuccessCount() {
+        return mSuccessCount;
+    }
+
+    public synchronized long getFailureCount() {
+        return mFailureCount;
+    }
+
+    public synchronized long getGiveUpCount() {
+        return mGiveUpCount;
+    }
+
+    /**
+     * Time from the link first being reported down to the last successful connect, or -1.
+     */
+    public synchronized long getLastReconnectMillis() {
+        return mLastReconnectMillis;
+    }
+
+    public synchronized long getMaxReconnectMillis() {
+        return mMaxReconnectMillis;
+    }
+
+    /**
+     * One scheduled connect. Guarded by the supervisor's lock.
+     */
+    private final class Attempt implements Callable<Boolean> {
+        ScheduledFuture<Boolean> future;
+        boolean started = false;
+        boolean cancelled = false;
+
+        @Override
+        public Boolean call() throws Exception {
+            return attempt(this);
+        }
+
+        void cancel() {
+            cancelled = true;
+            future.cancel(false);
+        }
+    }
+
+    public interface Connector {
+        /**
+         * Blocking connect attempt, called on the supervisor's own thread.
+         */
+        public boolean connect();
+    }
+
+    public interface Listener {
+        public void onConnected();
+
+        public void onGaveUp();
+    }
+}
@@ -0,0 +1,662 @@
+package com.decnorton.bitecoin;
+
+import android.bluetooth.BluetoothDevice;
+import android.util.Log;
+
+import com.decnorton.bitecoin.events.Bluetooth;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The link to one display: its {@link Link}, outbound queue, writer and reader threads, and
+ * reconnect state.
+ *
+ * Each session writes on its own thread and reconnects on its own schedule, so a slow or dead
+ * display only ever holds up its own queue.
+ *
+ * A reader thread decodes whatever the display sends back. Acks are matched to the commands
+ * they answer, which is the difference between a frame being sent and it being displayed.
+ * Display-state frames that aren't acked in time are sent again, as long as nothing newer for
+ * the same state has gone out since.
+ */
+public class DeviceSession {
+    private static final String TAG = "DeviceSession";
+
+    private static final long ACK_TIMEOUT_MILLIS = 2000;
+    private static final long ACK_CHECK_INTERVAL_MILLIS = 500;
+    private static final int MAX_RETRIES = 2;
+    private static final int READ_BUFFER_SIZE = 64;
+
+    private final String mAddress;
+    private final BluetoothDevice mDevice;
+    private final Link.Connector mConnector;
+    private final EventBus bus;
+
+    private final ScheduledExecutorService mWriter = Executors.newSingleThreadScheduledExecutor();
+
+    private final OutboundQueue<PendingFrame> mOutboundQueue = new OutboundQueue<>(
+            new OutboundQueue.Merger<PendingFrame>() {
+                @Override
+                public PendingFrame merge(PendingFrame pending, PendingFrame newer) {
+                    // Pixel deltas can't just replace each other, the older one's pixels would be lost
+                    if (Framebuffer.isPixelFrame(pending.frame) && Framebuffer.isPixelFrame(newer.frame)) {
+                        DisplayFrame merged = Framebuffer.merge(pending.frame, newer.frame);
+
+                        if (merged != newer.frame)
+                            newer = newer.withFrame(merged, merged.encode());
+                    }
+
+                    return newer.inherit(pending);
+                }
+            }
+    );
+
+    private final ConnectionSupervisor mSupervisor;
+    private final Listener mListener;
+
+    private final AckTracker<PendingFrame> mAckTracker =
+            new AckTracker<>(TimeUnit.MILLISECONDS.toNanos(ACK_TIMEOUT_MILLIS));
+
+    // Only touched on the writer thread
+    private final Map<Object, PendingFrame> mLastSentByKey = new HashMap<>();
+
+    private volatile Link mLink;
+    private volatile boolean mIsClosed = false;
+
+    /**
+     * Metrics
+     */
+    private final AtomicLong mBytesSent = new AtomicLong();
+    private final AtomicLong mWriteFailureCount = new AtomicLong();
+    private final AtomicLong mRetryCount = new AtomicLong();
+    private final AtomicLong mUnacknowledgedCount = new AtomicLong();
+    private final AtomicLong mReadBytes = new AtomicLong();
+
+    // Shared by every session, see Metrics
+    private final LatencyHistogram mQueueWaitHistogram;
+    private final LatencyHistogram mWriteHistogram;
+    private final LatencyHistogram mRoundTripHistogram;
+    private final LatencyHistogram mConnectHistogram;
+    private final Metrics.Counter mConnectFailureCounter;
+    private final Metrics.Counter mReconnectCounter;
+    private final Metrics.Counter mWriteFailureCounter;
+    private final Metrics.Counter mRetryCounter;
+    private final Metrics.Counter mUnacknowledgedCounter;
+
+    private boolean mHasConnected = false;
+
+    /**
+     * @param device the Bluetooth device behind the link, if there is one, for events
+     */
+    DeviceSession(String address, BluetoothDevice device, Link.Connector connector, EventBus bus, Metrics metrics,
+                  Listener listener) {
+        mAddress = address;
+        mDevice = device;
+        mConnector = connector;
+        this.bus = bus;
+        mListener = listener;
+
+        mQueueWaitHistogram = metrics.histogram("display.queue_wait");
+        mWriteHistogram = metrics.histogram("display.write");
+        mRoundTripHistogram = metrics.histogram("display.rtt");
+        mConnectHistogram = metrics.histogram("display.connect");
+        mConnectFailureCounter = metrics.counter("display.connect.failures");
+        mReconnectCounter = metrics.counter("display.reconnects");
+        mWriteFailureCounter = metrics.counter("display.write.failures");
+        mRetryCounter = metrics.counter("display.retries");
+        mUnacknowledgedCounter = metrics.counter("display.unacknowledged");
+
+        mSupervisor = new ConnectionSupervisor(
+                new ConnectionSupervisor.Connector() {
+                    @Override
+                    public boolean connect() {
+                        return DeviceSession.this.connect();
+                    }
+                },
+                new ConnectionSupervisor.Listener() {
+                    @Override
+                    public void onConnected() {
+                        // The display may have been reset or missed deltas while we were away
+                        if (mListener != null)
+                            mListener.onResyncNeeded(DeviceSession.this);
+
+                        // Flush everything that was parked while the link was down
+                        execute(mDrainRunnable);
+                    }
+
+                    @Override
+                    public void onGaveUp() {
+                        Log.e(TAG, "[onGaveUp] Maximum reconnection attempts exceeded for " + mAddress);
+                        execute(mFailPendingRunnable);
+                    }
+                }
+        );
+
+        mWriter.scheduleWithFixedDelay(mCheckAcksRunnable,
+                ACK_CHECK_INTERVAL_MILLIS, ACK_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public String getAddress() {
+        return mAddress;
+    }
+
+    /**
+     * The Bluetooth device behind the link, or null if it isn't one, e.g. a simulator.
+     */
+    public BluetoothDevice getDevice() {
+        return mDevice;
+    }
+
+    public boolean isConnected() {
+        Link link = mLink;
+        return link != null && link.isConnected();
+    }
+
+    /**
+     * Connects straight away, see {@link ConnectionSupervisor#connectNow()}.
+     */
+    Future<Boolean> connectNow() {
+        return mSupervisor.connectNow();
+    }
+
+    /**
+     * Queues a frame for this display without blocking.
+     */
+    void offer(PendingFrame pending) {
+        if (mIsClosed) {
+            pending.complete(false);
+            pending.acknowledge(false);
+            return;
+        }
+
+        if (!mOutboundQueue.offer(pending.frame.getCoalesceKey(), pending))
+            execute(mDrainRunnable);
+    }
+
+    /**
+     * The link dropped underneath us, keep the session and let the supervisor bring it back.
+     */
+    void onLinkLost() {
+        if (TraceRecorder.ENABLED)
+            TraceRecorder.record(TraceRecorder.LINK_LOST, 0, 0);
+
+        closeLink();
+        mSupervisor.requestConnect();
+    }
+
+    /**
+     * Tears the session down for good, failing anything still queued.
+     */
+    void close() {
+        mIsClosed = true;
+
+        mSupervisor.shutdown();
+        closeLink();
+
+        execute(mFailPendingRunnable);
+        mWriter.shutdown();
+    }
+
+    /**
+     * Blocking connect, only called from the {@link ConnectionSupervisor} thread.
+     */
+    private boolean connect() {
+        if (mIsClosed)
+            return false;
+
+        Link link;
+        long startNanos = System.nanoTime();
+
+        try {
+            link = mConnector.connect();
+        } catch (IOException e) {
+            Log.e(TAG, "[connect] Couldn't connect to " + mAddress + ": " + e.getMessage(), e);
+            mConnectFailureCounter.increment();
+
+            if (TraceRecorder.ENABLED)
+                TraceRecorder.record(TraceRecorder.LINK_FAILED, System.nanoTime() - startNanos, 0);
+
+            return false;
+        }
+
+        mConnectHistogram.record(System.nanoTime() - startNanos);
+
+        if (TraceRecorder.ENABLED)
+            TraceRecorder.record(TraceRecorder.LINK_CONNECTED, System.nanoTime() - startNanos, 0);
+
+        if (mHasConnected)
+            mReconnectCounter.increment();
+
+        mHasConnected = true;
+        mLink = link;
+
+        startReader(link);
+
+        Log.i(TAG, "[connect] Connected to " + mAddress);
+
+        if (mDevice != null)
+            bus.post(new Bluetooth.DeviceConnectedEvent(mDevice));
+
+        return true;
+    }
+
+    private void closeLink() {
+        Link link = mLink;
+        mLink = null;
+
+        if (link == null)
+            return;
+
+        try {
+            link.close();
+        } catch (IOException e) {
+            Log.e(TAG, "[closeLink] Couldn't close link: " + e.getMessage(), e);
+        }
+    }
+
+    private void execute(Runnable runnable) {
+        if (!mWriter.isShutdown())
+            mWriter.execute(runnable);
+    }
+
+    /**
+     * Writes queued frames until the queue is empty or the link goes down. While the link is
+     * down frames stay parked in the queue (and keep coalescing) until the supervisor has
+     * reconnected.
+     */
+    private final Runnable mDrainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                if (mIsClosed) {
+                    failPending();
+                    return;
+                }
+
+                if (!isConnected()) {
+                    mSupervisor.requestConnect();
+                    return;
+                }
+
+                PendingFrame pending = mOutboundQueue.poll();
+
+                if (pending == null)
+                    return;
+
+                Object key = pending.frame.getCoalesceKey();
+
+                long sentAt = System.nanoTime();
+
+                // Only the first attempt, retries would count the ack timeout as queueing
+                if (pending.attempts == 0)
+                    mQueueWaitHistogram.record(sentAt - pending.queuedAt);
+
+                // Registered before writing, as the ack can beat the write call back
+                pending.sentAt = sentAt;
+                PendingFrame displaced = mAckTracker.onSent(
+                        pending.frame.getSequence(), pending.frame.getOpcode(), pending, sentAt);
+
+                // The sequence has wrapped round onto a frame that's still waiting for its ack
+                if (displaced != null)
+                    giveUp(displaced);
+
+                if (!write(pending.bytes)) {
+                    // Assume the link is dead, park the frame again and reconnect
+                    mAckTracker.forget(pending.frame.getSequence());
+                    mOutboundQueue.requeue(key, pending);
+                    closeLink();
+                    mSupervisor.requestConnect();
+                    return;
+                }
+
+                if (TraceRecorder.ENABLED)
+                    TraceRecorder.record(TraceRecorder.FRAME_WRITTEN, pending.frame.getSequence(), pending.bytes.length);
+
+                if (key != null)
+                    mLastSentByKey.put(key, pending);
+
+                pending.complete(true);
+            }
+        }
+    };
+
+    private final Runnable mFailPendingRunnable = new Runnable() {
+        @Override
+        public void run() {
+            failPending();
+        }
+    };
+
+    private void failPending() {
+        for (PendingFrame pending : mOutboundQueue.drain()) {
+            pending.complete(false);
+            pending.acknowledge(false);
+        }
+
+        if (mIsClosed) {
+            for (PendingFrame pending : mAckTracker.clear()) {
+                pending.acknowledge(false);
+            }
+        }
+    }
+
+    /**
+     * Retries or gives up on commands the display hasn't acked in time.
+     */
+    private final Runnable mCheckAcksRunnable = new Runnable() {
+        @Override
+        public void run() {
+            boolean retried = false;
+
+            for (PendingFrame pending : mAckTracker.expire(System.nanoTime())) {
+                Object key = pending.frame.getCoalesceKey();
+
+                // Display state is idempotent, so resend it unless something newer has gone out
+                if (!mIsClosed && key != null && pending.attempts < MAX_RETRIES && mLastSentByKey.get(key) == pending) {
+                    pending.attempts++;
+                    mRetryCount.incrementAndGet();
+                    mRetryCounter.increment();
+                    mOutboundQueue.requeue(key, pending);
+                    retried = true;
+                    continue;
+                }
+
+                giveUp(pending);
+            }
+
+            if (retried)
+                mDrainRunnable.run();
+        }
+    };
+
+    /**
+     * Fails a frame that will never be acked, whether it timed out or lost its sequence number.
+     */
+    private void giveUp(PendingFrame pending) {
+        Log.w(TAG, "[giveUp] No ack from " + mAddress + " for " + pending.frame);
+
+        mUnacknowledgedCount.incrementAndGet();
+        mUnacknowledgedCounter.increment();
+
+        if (TraceRecorder.ENABLED)
+            TraceRecorder.record(TraceRecorder.FRAME_UNACKED, pending.frame.getSequence(), pending.attempts);
+
+        pending.acknowledge(false);
+
+        // A lost delta leaves the display out of step until it gets a keyframe
+        if (!mIsClosed && Framebuffer.isPixelFrame(pending.frame) && mListener != null)
+            mListener.onResyncNeeded(DeviceSession.this);
+
+        if (mDevice != null)
+            bus.post(new Bluetooth.CommandUnacknowledgedEvent(mDevice, pending.frame.getOpcode(), pending.frame.getSequence()));
+    }
+
+    private void startReader(final Link link) {
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                read(link);
+            }
+        }, "DeviceSession-" + mAddress);
+
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Blocking read loop for one link, runs until the link is closed.
+     */
+    private void read(Link link) {
+        FrameDecoder decoder = new FrameDecoder(new FrameDecoder.Listener() {
+            @Override
+            public void onFrame(DisplayFrame frame) {
+                onInboundFrame(frame);
+            }
+        });
+
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+
+        try {
+            InputStream in = link.getInputStream();
+            int count;
+
+            while ((count = in.read(buffer)) >= 0) {
+                mReadBytes.addAndGet(count);
+                decoder.feed(buffer, 0, count);
+            }
+        } catch (IOException e) {
+            // Expected when the link is closed
+        }
+
+        // The display went away without us closing the link
+        if (!mIsClosed && mLink == link)
+            onLinkLost();
+    }
+
+    private void onInboundFrame(DisplayFrame frame) {
+        switch (frame.getOpcode()) {
+            case DisplayFrame.OP_ACK:
+                long now = System.nanoTime();
+                PendingFrame pending = mAckTracker.onAck(frame.getSequence(), frame.getPayloadByte(0), now);
+
+                if (TraceRecorder.ENABLED)
+                    TraceRecorder.record(TraceRecorder.FRAME_ACKED, frame.getSequence(), frame.getPayloadByte(0));
+
+                if (pending != null) {
+                    mRoundTripHistogram.record(now - pending.sentAt);
+                    pending.acknowledge(frame.getPayloadByte(0) == DisplayFrame.ACK_OK);
+                }
+
+                break;
+
+            case DisplayFrame.OP_LOG:
+                Log.d(TAG, "[" + mAddress + "] " + frame.getText());
+                break;
+        }
+    }
+
+    private boolean write(byte[] bytes) {
+        Link link = mLink;
+
+        if (link == null)
+            return false;
+
+        long startNanos = System.nanoTime();
+
+        try {
+            link.getOutputStream().write(bytes);
+            mWriteHistogram.record(System.nanoTime() - startNanos);
+            mOutboundQueue.recordSent();
+            mBytesSent.addAndGet(bytes.length);
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "[write] Couldn't send data to " + mAddress + ": " + e.getMessage(), e);
+            mWriteFailureCount.incrementAndGet();
+            mWriteFailureCounter.increment();
+            return false;
+        }
+    }
+
+    public long getOfferedCount() {
+        return mOutboundQueue.getOfferedCount();
+    }
+
+    public long getSentCount() {
+        return mOutboundQueue.getSentCount();
+    }
+
+    public long getCoalescedCount() {
+        return mOutboundQueue.getCoalescedCount();
+    }
+
+    public int getQueuedCount() {
+        return mOutboundQueue.size();
+    }
+
+    public long getBytesSent() {
+        return mBytesSent.get();
+    }
+
+    public long getWriteFailureCount() {
+        return mWriteFailureCount.get();
+    }
+
+    public long getRetryCount() {
+        return mRetryCount.get();
+    }
+
+    /**
+     * Commands that were given up on without an ack.
+     */
+    public long getUnacknowledgedCount() {
+        return mUnacknowledgedCount.get();
+    }
+
+    /**
+     * Commands sent and still waiting for an ack.
+     */
+    public int getAwaitingAckCount() {
+        return mAckTracker.getOutstandingCount();
+    }
+
+    public long getReadBytes() {
+        return mReadBytes.get();
+    }
+
+    /**
+     * Acks received and round trip times per opcode.
+     */
+    public AckTracker<PendingFrame> getAckTracker() {
+        return mAckTracker;
+    }
+
+    public ConnectionSupervisor getSupervisor() {
+        return mSupervisor;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "{ address: %s, connected: %b, queued: %d, offered: %d, sent: %d, coalesced: %d, bytes: %d, "
+                        + "writeFailures: %d, acked: %d, awaitingAck: %d, retries: %d, unacknowledged: %d }",
+                mAddress, isConnected(), getQueuedCount(), getOfferedCount(), getSentCount(), getCoalescedCount(),
+                getBytesSent(), getWriteFailureCount(), mAckTracker.getAckedCount(), getAwaitingAckCount(),
+                getRetryCount(), getUnacknowledgedCount()
+        );
+    }
+
+    public interface Listener {
+        /**
+         * The display's pixels can't be trusted to match ours any more, e.g. after a reconnect,
+         * so it needs a full keyframe.
+         */
+        public void onResyncNeeded(DeviceSession session);
+    }
+
+    /**
+     * Whoever is waiting on a frame.
+     */
+    interface Completion {
+        /**
+         * Called once, when the frame has been written or has failed to be.
+         */
+        public void complete(boolean sent);
+
+        /**
+         * Called once, when the display has acked the frame or it's been given up on.
+         */
+        public void acknowledge(boolean displayed);
+    }
+
+    /**
+     * A queued frame, encoded once and shared by every session it's fanned out to, plus
+     * everyone waiting on it in this session, including callers whose frames it replaced.
+     */
+    static final class PendingFrame {
+        final DisplayFrame frame;
+        final byte[] bytes;
+
+        // When it was queued, kept by a merged copy
+        final long queuedAt;
+
+        int attempts = 0;
+        volatile long sentAt;
+
+        private List<Completion> mAwaitingSend = new ArrayList<>(1);
+        private List<Completion> mAwaitingAck = new ArrayList<>(1);
+
+        PendingFrame(DisplayFrame frame, byte[] bytes, Completion completion) {
+            this(frame, bytes);
+
+            mAwaitingSend.add(completion);
+            mAwaitingAck.add(completion);
+        }
+
+        private PendingFrame(DisplayFrame frame, byte[] bytes) {
+            this(frame, bytes, System.nanoTime());
+        }
+
+        private PendingFrame(DisplayFrame frame, byte[] bytes, long queuedAt) {
+            this.frame = frame;
+            this.bytes = bytes;
+            this.queuedAt = queuedAt;
+        }
+
+        /**
+         * A copy carrying a different frame, which takes over everyone waiting on this one.
+         */
+        PendingFrame withFrame(DisplayFrame frame, byte[] bytes) {
+            PendingFrame copy = new PendingFrame(frame, bytes, queuedAt);
+            copy.attempts = attempts;
+            return copy.inherit(this);
+        }
+
+        synchronized PendingFrame inherit(PendingFrame replaced) {
+            synchronized (replaced) {
+                mAwaitingSend.addAll(replaced.mAwaitingSend);
+                mAwaitingAck.addAll(replaced.mAwaitingAck);
+
+                replaced.mAwaitingSend = new ArrayList<>(0);
+                replaced.mAwaitingAck = new ArrayList<>(0);
+            }
+
+            return this;
+        }
+
+        void complete(boolean sent) {
+            for (Completion completion : take(true)) {
+                completion.complete(sent);
+            }
+        }
+
+        void acknowledge(boolean displayed) {
+            for (Completion completion : take(false)) {
+                completion.acknowledge(displayed);
+            }
+        }
+
+        private synchronized List<Completion> take(boolean send) {
+            List<Completion> taken;
+
+            if (send) {
+                taken = mAwaitingSend;
+                mAwaitingSend = new ArrayList<>(0);
+            } else {
+                taken = mAwaitingAck;
+                mAwaitingAck = new ArrayList<>(0);
+            }
+
+            return taken;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.decnorton.bitecoin;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A single command for the display, in the binary wire format understood by the sketch.
+ *
+ * Frame layout (version 2):
+ *
+ *   [header][sequence][length][payload ...][crc]
+ *
+ *   header   - high nibble is the protocol version, low nibble is the opcode
+ *   sequence - wrapping 8 bit number the display echoes back in its {@link #OP_ACK}
+ *   length   - number of payload bytes (0 - {@link #MAX_PAYLOAD})
+ *   crc      - CRC-8 (poly 0x07) over everything before it
+ *
+ * A pixel count update ({@link #OP_PIXEL}) is 5 bytes on the wire. The text command it
+ * replaced was "pixel N" with no terminator, 7 bytes for N < 10 and 8 bytes above that. The
+ * old sketch ended each command on readStringUntil's 1s timeout rather than a delimiter, so a
+ * frame is also acted on as soon as its last byte arrives.
+ *
+ * That's 29 - 38% fewer bytes, not half: the sequence byte acks rely on costs the rest, and
+ * the header has no spare bits to fold it into. The gauge itself now goes out as
+ * {@link Framebuffer} deltas, which are bigger again, e.g. 9 bytes for a delta that changes
+ * one pixel.
+ *
+ * The display answers each command with an ack once it has been shown, and sends any
+ * diagnostics as {@link #OP_LOG} frames so they can't be confused with acks.
+ */
+public final class DisplayFrame {
+
+    /**
+     * Constants
+     */
+    public static final int VERSION = 2;
+
+    public static final int OP_PIXEL = 0x1;
+    public static final int OP_LED = 0x2;
+    public static final int OP_TEXT = 0x3;
+    public static final int OP_PIXELS_DELTA = 0x6;
+    public static final int OP_PIXELS_KEYFRAME = 0x7;
+
+    // Display to app
+    public static final int OP_ACK = 0x4;
+    public static final int OP_LOG = 0x5;
+
+    public static final int ACK_OK = 0;
+    public static final int ACK_REJECTED = 1;
+
+    public static final int HEADER_SIZE = 3;
+    public static final int CHECKSUM_SIZE = 1;
+    public static final int OVERHEAD = HEADER_SIZE + CHECKSUM_SIZE;
+    // The sketch's frame buffer, anything longer is thrown away on the display
+    public static final int MAX_PAYLOAD = 64;
+    public static final int MAX_FRAME_SIZE = OVERHEAD + MAX_PAYLOAD;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final byte[] CRC8_TABLE = new byte[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x80) != 0 ? (crc << 1) ^ 0x07 : crc << 1;
+            }
+
+            CRC8_TABLE[i] = (byte) crc;
+        }
+    }
+
+    private final int opcode;
+    private final int sequence;
+    private final byte[] payload;
+
+    public DisplayFrame(int opcode, byte[] payload) {
+        this(opcode, 0, payload);
+    }
+
+    public DisplayFrame(int opcode, int sequence, byte[] payload) {
+        if (opcode < 0 || opcode > 0xF)
+            throw new IllegalArgumentException("Opcode out of range: " + opcode);
+
+        if (payload == null)
+            payload = EMPTY;
+
+        if (payload.length > MAX_PAYLOAD)
+            throw new IllegalArgumentException("Payload too large: " + payload.length);
+
+        this.opcode = opcode;
+        this.sequence = sequence & 0xFF;
+        this.payload = payload;
+    }
+
+    public static DisplayFrame pixel(int count) {
+        if (count < 0 || count > 0xFF)
+            throw new IllegalArgumentException("Pixel count out of range: " + count);
+
+        return new DisplayFrame(OP_PIXEL, new byte[] { (byte) count });
+    }
+
+    public static DisplayFrame led(boolean on) {
+        return new DisplayFrame(OP_LED, new byte[] { (byte) (on ? 1 : 0) });
+    }
+
+    public static DisplayFrame text(String text) {
+        byte[] bytes = text.getBytes(ASCII);
+
+        if (bytes.length > MAX_PAYLOAD)
+            bytes = Arrays.copyOf(bytes, MAX_PAYLOAD);
+
+        return new DisplayFrame(OP_TEXT, bytes);
+    }
+
+    public static DisplayFrame ack(int sequence, int status) {
+        return new DisplayFrame(OP_ACK, sequence, new byte[] { (byte) status });
+    }
+
+    public static DisplayFrame log(String message) {
+        DisplayFrame text = text(message);
+        return new DisplayFrame(OP_LOG, text.payload);
+    }
+
+    /**
+     * A copy of this frame stamped with the given sequence number.
+     */
+    public DisplayFrame withSequence(int sequence) {
+        return new DisplayFrame(opcode, sequence, payload);
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+
+    public int getOpcode() {
+        return opcode;
+    }
+
+    public int getPayloadLength() {
+        return payload.length;
+    }
+
+    public int getPayloadByte(int index) {
+        return payload[index] & 0xFF;
+    }
+
+    public byte[] getPayload() {
+        return payload.clone();
+    }
+
+    public String getText() {
+        return new String(payload, ASCII);
+    }
+
+    /**
+     * Display-state commands (pixel count, LED) only matter in their latest form, so they share
+     * a key per opcode. Pixel deltas and keyframes share one key, as they can be merged. Text
+     * commands return null and are never coalesced.
+     */
+    public Object getCoalesceKey() {
+        switch (opcode) {
+            case OP_PIXEL:
+            case OP_LED:
+                return opcode;
+
+            case OP_PIXELS_DELTA:
+            case OP_PIXELS_KEYFRAME:
+                return OP_PIXELS_KEYFRAME;
+
+            default:
+                return null;
+        }
+    }
+
+    public int size() {
+        return OVERHEAD + payload.length;
+    }
+
+    public byte[] encode() {
+        byte[] out = new byte[size()];
+        encode(out, 0);
+        return out;
+    }
+
+    /**
+     * Writes the frame into {@code dest} at {@code offset} and returns the number of bytes written.
+     */
+    public int encode(byte[] dest, int offset) {
+        return encode(opcode, sequence, payload, 0, payload.length, dest, offset);
+    }
+
+    /**
+     * Allocation-free encoder for callers that keep their own buffers.
+     */
+    public static int encode(int opcode, int sequence, byte[] payload, int payloadOffset, int length, byte[] dest, int offset) {
+        int pos = offset;
+
+        dest[pos++] = (byte) ((VERSION << 4) | (opcode & 0xF));
+        dest[pos++] = (byte) sequence;
+        dest[pos++] = (byte) length;
+
+        System.arraycopy(payload, payloadOffset, dest, pos, length);
+        pos += length;
+
+        dest[pos] = crc8(dest, offset, pos - offset);
+
+        return pos + 1 - offset;
+    }
+
+    /**
+     * Cheap sanity check on a header, used by decoders to resynchronise quickly after line noise.
+     */
+    public static boolean isPlausibleHeader(int opcode, int length) {
+        if (length > MAX_PAYLOAD)
+            return false;
+
+        switch (opcode) {
+            case 0:
+                return false;
+
+            case OP_PIXEL:
+            case OP_LED:
+            case OP_ACK:
+                return length == 1;
+
+            case OP_PIXELS_DELTA:
+                return length >= 5;
+
+            case OP_PIXELS_KEYFRAME:
+                return length > 0 && length % 3 == 0;
+
+            default:
+                return true;
+        }
+    }
+
+    public static byte crc8(byte[] data, int offset, int length) {
+        int crc = 0;
+
+        for (int i = offset; i < offset + length; i++) {
+            crc = CRC8_TABLE[(crc ^ data[i]) & 0xFF];
+        }
+
+        return (byte) crc;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+
+        if (!(o instanceof DisplayFrame))
+            return false;
+
+        DisplayFrame other = (DisplayFrame) o;
+
+        return opcode == other.opcode && sequence == other.sequence && Arrays.equals(payload, other.payload);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * opcode + sequence) + Arrays.hashCode(payload);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("{ opcode: %d, sequence: %d, length: %d }", opcode, sequence, payload.length);
+    }
+}
@@ -0,0 +1,416 @@
+package com.decnorton.bitecoin;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Typed event bus without reflection.
+ *
+ * Subscribers register a {@link Handler} for an exact event class and pick the {@link Lane} it
+ * runs on. Registration precomputes an array of subscribers per event class, so posting is a
+ * map lookup and a loop. Events are only delivered to handlers registered for their exact
+ * class, not for superclasses.
+ *
+ * Background subscribers each get their own bounded mailbox, drained in order on a shared
+ * executor. When a mailbox is full the oldest event is dropped, so a slow subscriber can
+ * never block whoever is posting.
+ *
+ * A handler that throws on the MAIN or BACKGROUND lane is counted in {@link LaneStats} and
+ * handed to the {@link ErrorListener}, if there is one, rather than taking down the thread.
+ */
+public class EventBus {
+
+    public enum Lane {
+        /** Runs on the posting thread before post() returns. */
+        INLINE,
+        /** Runs on the UI thread. */
+        MAIN,
+        /** Runs on a background thread, in order per subscriber, dropping the oldest when full. */
+        BACKGROUND
+    }
+
+    /**
+     * Constants
+     */
+    public static final int DEFAULT_MAILBOX_CAPACITY = 64;
+
+    private final Executor mMainExecutor;
+    private final Executor mBackgroundExecutor;
+    private final int mMailboxCapacity;
+
+    private final Object mLock = new Object();
+
+    private volatile Map<Class<?>, Subscriber<?>[]> mSubscribers = new HashMap<>();
+    private final Map<Class<?>, Producer<?>> mProducers = new HashMap<>();
+    private final Map<Object, List<Object>> mRegistrationsByOwner = new IdentityHashMap<>();
+
+    private final LaneStats[] mStats = new LaneStats[Lane.values().length];
+
+    private volatile ErrorListener mErrorListener;
+
+    public EventBus(Executor mainExecutor, Executor backgroundExecutor) {
+        this(mainExecutor, backgroundExecutor, DEFAULT_MAILBOX_CAPACITY);
+    }
+
+    public EventBus(Executor mainExecutor, Executor backgroundExecutor, int mailboxCapacity) {
+        mMainExecutor = mainExecutor;
+        mBackgroundExecutor = backgroundExecutor;
+        mMailboxCapacity = mailboxCapacity;
+
+        for (Lane lane : Lane.values()) {
+            mStats[lane.ordinal()] = new LaneStats(lane);
+        }
+    }
+
+    /**
+     * Subscribes a handler on behalf of {@code owner}. If a producer is registered for the type
+     * its current value is delivered to the new handler straight away.
+     */
+    public <E> void subscribe(Object owner, Class<E> type, Lane lane, Handler<? super E> handler) {
+        Subscriber<E> subscriber = new Subscriber<>(type, lane, handler);
+        Producer<?> producer;
+
+        synchronized (mLock) {
+            Subscriber<?>[] current = mSubscribers.get(type);
+            int length = current != null ? current.length : 0;
+
+            Subscriber<?>[] updated = new Subscriber<?>[length + 1];
+
+            if (current != null)
+                System.arraycopy(current, 0, updated, 0, length);
+
+            updated[length] = subscriber;
+
+            Map<Class<?>, Subscriber<?>[]> copy = new HashMap<>(mSubscribers);
+            copy.put(type, updated);
+            mSubscribers = copy;
+
+            registrationsOf(owner).add(subscriber);
+
+            producer = mProducers.get(type);
+        }
+
+        if (producer != null) {
+            Object event = producer.produce();
+
+            if (event != null)
+                subscriber.dispatch(event, System.nanoTime());
+        }
+    }
+
+    /**
+     * Registers the producer of the latest value of {@code type}, replacing Otto's @Produce.
+     */
+    public <E> void produce(Object owner, Class<E> type, Producer<E> producer) {
+        Subscriber<?>[] subscribers;
+
+        synchronized (mLock) {
+            if (mProducers.containsKey(type))
+                throw new IllegalArgumentException("Producer already registered for " + type.getName());
+
+            mProducers.put(type, producer);
+            registrationsOf(owner).add(new ProducerRegistration(type));
+
+            subscribers = mSubscribers.get(type);
+        }
+
+        if (subscribers == null)
+            return;
+
+        E event = producer.produce();
+
+        if (event == null)
+            return;
+
+        long postedAt = System.nanoTime();
+
+        for (Subscriber<?> subscriber : subscribers) {
+            subscriber.dispatch(event, postedAt);
+        }
+    }
+
+    /**
+     * Removes every subscription and producer registered by {@code owner}.
+     */
+    public void unregister(Object owner) {
+        synchronized (mLock) {
+            List<Object> registrations = mRegistrationsByOwner.remove(owner);
+
+            if (registrations == null)
+                return;
+
+            Map<Class<?>, Subscriber<?>[]> copy = new HashMap<>(mSubscribers);
+
+            for (Object registration : registrations) {
+                if (registration instanceof ProducerRegistration) {
+                    mProducers.remove(((ProducerRegistration) registration).type);
+                    continue;
+                }
+
+                Subscriber<?> subscriber = (Subscriber<?>) registration;
+                subscriber.active = false;
+
+                Subscriber<?>[] current = copy.get(subscriber.type);
+                List<Subscriber<?>> remaining = new ArrayList<>(current.length);
+
+                for (Subscriber<?> s : current) {
+                    if (s != subscriber)
+                        remaining.add(s);
+                }
+
+                if (remaining.isEmpty()) {
+                    copy.remove(subscriber.type);
+                } else {
+                    copy.put(subscriber.type, remaining.toArray(new Subscriber<?>[remaining.size()]));
+                }
+            }
+
+            mSubscribers = copy;
+        }
+    }
+
+    public void post(Object event) {
+        Subscriber<?>[] subscribers = mSubscribers.get(event.getClass());
+
+        if (subscribers == null)
+            return;
+
+        long postedAt = System.nanoTime();
+
+        for (Subscriber<?> subscriber : subscribers) {
+            subscriber.dispatch(event, postedAt);
+        }
+    }
+
+    public void setErrorListener(ErrorListener listener) {
+        mErrorListener = listener;
+    }
+
+    public LaneStats getStats(Lane lane) {
+        return mStats[lane.ordinal()];
+    }
+
+    private List<Object> registrationsOf(Object owner) {
+        List<Object> registrations = mRegistrationsByOwner.get(owner);
+
+        if (registrations == null) {
+            registrations = new ArrayList<>();
+            mRegistrationsByOwner.put(owner, registrations);
+        }
+
+        return registrations;
+    }
+
+    private final class Subscriber<E> implements Runnable {
+        final Class<E> type;
+        final Lane lane;
+        final Handler<? super E> handler;
+        final LaneStats stats;
+
+        volatile boolean active = true;
+
+        // Background mailbox, guarded by this
+        private ArrayDeque<Object> mailbox;
+        private ArrayDeque<Long> mailboxTimes;
+        private boolean scheduled = false;
+
+        Subscriber(Class<E> type, Lane lane, Handler<? super E> handler) {
+            this.type = type;
+            this.lane = lane;
+            this.handler = handler;
+            this.stats = mStats[lane.ordinal()];
+
+            if (lane == Lane.BACKGROUND) {
+                mailbox = new ArrayDeque<>(mMailboxCapacity);
+                mailboxTimes = new ArrayDeque<>(mMailboxCapacity);
+            }
+        }
+
+        void dispatch(final Object event, final long postedAt) {
+            switch (lane) {
+                case INLINE:
+                    deliver(event, postedAt);
+                    break;
+
+                case MAIN:
+                    mMainExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            deliver(event, postedAt);
+                        }
+                    });
+                    break;
+
+                case BACKGROUND:
+                    enqueue(event, postedAt);
+                    break;
+            }
+        }
+
+        private void enqueue(Object event, long postedAt) {
+            boolean schedule;
+
+            synchronized (this) {
+                if (mailbox.size() >= mMailboxCapacity) {
+                    mailbox.pollFirst();
+                    mailboxTimes.pollFirst();
+                    stats.dropped.incrementAndGet();
+                }
+
+                mailbox.addLast(event);
+                mailboxTimes.addLast(postedAt);
+
+                schedule = !scheduled;
+                scheduled = true;
+            }
+
+            if (schedule)
+                mBackgroundExecutor.execute(this);
+        }
+
+        /**
+         * Drains the background mailbox. Only ever scheduled once at a time, so events for a
+         * subscriber are handled in order.
+         */
+        @Override
+        public void run() {
+            while (true) {
+                Object event;
+                long postedAt;
+
+                synchronized (this) {
+                    event = mailbox.pollFirst();
+
+                    if (event == null) {
+                        scheduled = false;
+                        return;
+                    }
+
+                    postedAt = mailboxTimes.pollFirst();
+                }
+
+                deliver(event, postedAt);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void deliver(Object event, long postedAt) {
+            if (!active)
+                return;
+
+            if (stats.shouldSample())
+                stats.record(System.nanoTime() - postedAt);
+
+            if (lane == Lane.INLINE) {
+                handler.onEvent((E) event);
+                return;
+            }
+
+            try {
+                handler.onEvent((E) event);
+            } catch (RuntimeException e) {
+                stats.errors.incrementAndGet();
+
+                ErrorListener listener = mErrorListener;
+
+                if (listener != null)
+                    listener.onHandlerError(event, e);
+            }
+        }
+    }
+
+    private static final class ProducerRegistration {
+        final Class<?> type;
+
+        ProducerRegistration(Class<?> type) {
+            this.type = type;
+        }
+    }
+
+    /**
+     * Post-to-handler latency and health counters for one lane. Every delivery is counted, but
+     * only one in {@link #SAMPLE_INTERVAL} has its latency measured, to keep dispatch cheap.
+     */
+    public static final class LaneStats {
+        public static final int SAMPLE_INTERVAL = 16;
+
+        public final Lane lane;
+
+        final AtomicLong delivered = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        LaneStats(Lane lane) {
+            this.lane = lane;
+        }
+
+        boolean shouldSample() {
+            return delivered.getAndIncrement() % SAMPLE_INTERVAL == 0;
+        }
+
+        void record(long latencyNanos) {
+            latency.record(latencyNanos);
+        }
+
+        public long getDeliveredCount() {
+            return delivered.get();
+        }
+
+        public long getDroppedCount() {
+            return dropped.get();
+        }
+
+        public long getErrorCount() {
+            return errors.get();
+        }
+
+        public long getMeanLatencyNanos() {
+            return latency.getMeanNanos();
+        }
+
+        public long getMaxLatencyNanos() {
+            return latency.getMaxNanos();
+        }
+
+        /**
+         * Post-to-handler latency of the sampled deliveries.
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "{ lane: %s, delivered: %d, dropped: %d, errors: %d, meanLatencyNanos: %d, maxLatencyNanos: %d }",
+                    lane, getDeliveredCount(), getDroppedCount(), getErrorCount(),
+                    getMeanLatencyNanos(), getMaxLatencyNanos()
+            );
+        }
+    }
+
+    public interface Handler<E> {
+        public void onEvent(E event);
+    }
+
+    public interface Producer<E> {
+        /**
+         * Returns the latest value to hand to new subscribers, or null for none.
+         */
+        public E produce();
+    }
+
+    public interface ErrorListener {
+        /**
+         * Called on the thread the handler threw on.
+         */
+        public void onHandlerError(Object event, RuntimeException e);
+    }
+}
@@ -0,0 +1,564 @@
+package com.decnorton.bitecoin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs the sketch in arduino/Bitecoin/Bitecoin.ino against an in-memory serial line, so the
+ * link can be tested and measured without an Arduino.
+ *
+ * What's modelled, in real time:
+ *
+ *   - the UART at the sketch's baud rate (8N1, so 10 bits a byte) in both directions
+ *   - the 64 byte receive buffer, with bytes dropped while it's full
+ *   - the frame parser, including its resync and payload limit
+ *   - the prevPixel dedup of the legacy pixel command, and its show() per lit pixel
+ *   - a NeoPixel show() costing 30us per pixel plus the 50us latch
+ *   - acks and log frames written back, blocking once the 64 byte transmit buffer is full
+ *
+ * Attach it like any display with {@link BluetoothService#attach(String, Link.Connector)}.
+ */
+public class FirmwareSimulator {
+
+    /**
+     * Constants
+     */
+    public static final int DEFAULT_NUM_PIXELS = 16;
+    public static final int DEFAULT_BAUD = 9600;
+
+    static final int BITS_PER_BYTE = 10;
+    static final int RX_BUFFER_SIZE = 64;
+    static final int TX_BUFFER_SIZE = 64;
+    static final int MAX_PAYLOAD = DisplayFrame.MAX_PAYLOAD;
+
+    static final long SHOW_LATCH_NANOS = 50000;
+    static final long SHOW_NANOS_PER_PIXEL = 30000;
+
+    private static final long IDLE_PARK_NANOS = 1000000;
+
+    private final int mNumPixels;
+    private final long mByteNanos;
+
+    private final int[] mPixels;
+    private final int[] mShown;
+    private boolean mLedOn = false;
+    private int mPrevPixel = -1;
+
+    // The sketch's frame buffer
+    private final byte[] mFrame = new byte[DisplayFrame.OVERHEAD + MAX_PAYLOAD];
+    private int mFrameLength = 0;
+
+    // The serial line: bytes in flight from the app, the UART buffers, bytes back to the app
+    private final ArrayDeque<Byte> mRxBuffer = new ArrayDeque<>();
+    private final ArrayDeque<Byte> mTxBuffer = new ArrayDeque<>();
+    private long mNextRxNanos;
+    private long mNextTxNanos;
+
+    private volatile SimulatedLink mLink;
+    private Thread mThread;
+    private volatile boolean mIsRunning = false;
+
+    /**
+     * Metrics
+     */
+    private volatile long mFramesHandled = 0;
+    private volatile long mRedrawsSkipped = 0;
+    private volatile long mShowCount = 0;
+    private volatile long mRxOverflowBytes = 0;
+    private volatile long mResyncBytes = 0;
+    private volatile long mAcksSent = 0;
+
+    public FirmwareSimulator() {
+        this(DEFAULT_NUM_PIXELS, DEFAULT_BAUD);
+    }
+
+    public FirmwareSimulator(int numPixels, int baud) {
+        mNumPixels = numPixels;
+        mByteNanos = 1000000000L * BITS_PER_BYTE / baud;
+        mPixels = new int[numPixels];
+        mShown = new int[numPixels];
+    }
+
+    /**
+     * Each connect drops any previous link, as the serial module only takes one connection.
+     */
+    public Link.Connector getConnector() {
+        return new Link.Connector() {
+            @Override
+            public Link connect() throws IOException {
+                return open();
+            }
+        };
+    }
+
+    public synchronized void stop() {
+        mIsRunning = false;
+
+        if (mLink != null)
+            mLink.close();
+
+        if (mThread != null) {
+            LockSupport.unpark(mThread);
+            mThread = null;
+        }
+    }
+
+    /**
+     * What the pixels showed after the last show().
+     */
+    public synchronized int[] getPixels() {
+        return mShown.clone();
+    }
+
+    public synchronized boolean isLedOn() {
+        return mLedOn;
+    }
+
+    public long getFramesHandled() {
+        return mFramesHandled;
+    }
+
+    /**
+     * Legacy pixel commands skipped because the count hadn't changed.
+     */
+    public long getRedrawsSkipped() {
+        return mRedrawsSkipped;
+    }
+
+    public long getShowCount() {
+        return mShowCount;
+    }
+
+    /**
+     * Bytes lost because the receive buffer was full.
+     */
+    public long getRxOverflowBytes() {
+        return mRxOverflowBytes;
+    }
+
+    /**
+     * Bytes the parser skipped while looking for a valid frame.
+     */
+    public long getResyncBytes() {
+        return mResyncBytes;
+    }
+
+    public long getAcksSent() {
+        return mAcksSent;
+    }
+
+    private synchronized Link open() {
+        if (mLink != null)
+            mLink.close();
+
+        mLink = new SimulatedLink();
+
+        if (!mIsRunning) {
+            mIsRunning = true;
+
+            mThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    loop();
+                }
+            }, "FirmwareSimulator");
+
+            mThread.setDaemon(true);
+            mThread.start();
+        }
+
+        return mLink;
+    }
+
+    /**
+     * The sketch's loop(), plus the serial hardware running alongside it.
+     */
+    private void loop() {
+        mNextRxNanos = mNextTxNanos = System.nanoTime();
+
+        while (mIsRunning) {
+            pump();
+
+            Byte b = mRxBuffer.pollFirst();
+
+            if (b != null) {
+                mFrame[mFrameLength++] = b;
+                drainFrames();
+                continue;
+            }
+
+            SimulatedLink link = mLink;
+            long wait = IDLE_PARK_NANOS;
+
+            if (!mTxBuffer.isEmpty())
+                wait = Math.min(wait, mNextTxNanos + mByteNanos - System.nanoTime());
+
+            if (link != null && link.hasInbound())
+                wait = Math.min(wait, mNextRxNanos + mByteNanos - System.nanoTime());
+
+            if (wait > 0)
+                LockSupport.parkNanos(wait);
+        }
+    }
+
+    /**
+     * Moves whatever the line has carried by now: bytes from the app into the receive buffer,
+     * and bytes from the transmit buffer back to the app.
+     */
+    private void pump() {
+        long now = System.nanoTime();
+        SimulatedLink link = mLink;
+
+        if (link == null)
+            return;
+
+        while (mNextRxNanos + mByteNanos <= now) {
+            int b = link.takeInbound();
+
+            if (b < 0)
+                break;
+
+            if (mRxBuffer.size() < RX_BUFFER_SIZE) {
+                mRxBuffer.addLast((byte) b);
+            } else {
+                mRxOverflowBytes++;
+            }
+
+            mNextRxNanos += mByteNanos;
+        }
+
+        // The line sat idle, the next byte starts now
+        if (mNextRxNanos < now && !link.hasInbound())
+            mNextRxNanos = now;
+
+        while (!mTxBuffer.isEmpty() && mNextTxNanos + mByteNanos <= now) {
+            link.putOutbound(mTxBuffer.pollFirst());
+            mNextTxNanos += mByteNanos;
+        }
+
+        if (mNextTxNanos < now && mTxBuffer.isEmpty())
+            mNextTxNanos = now;
+    }
+
+    /**
+     * Spends time as the sketch would, with the serial line still running.
+     */
+    private void busy(long nanos) {
+        long end = System.nanoTime() + nanos;
+        long now;
+
+        while ((now = System.nanoTime()) < end && mIsRunning) {
+            pump();
+            LockSupport.parkNanos(Math.min(end - now, mByteNanos));
+        }
+
+        pump();
+    }
+
+    private void consumeFrameBytes(int count) {
+        mFrameLength -= count;
+        System.arraycopy(mFrame, count, mFrame, 0, mFrameLength);
+    }
+
+    private void drainFrames() {
+        while (mFrameLength > 0) {
+            // Resync on anything that doesn't look like a header
+            if (((mFrame[0] & 0xFF) >> 4) != DisplayFrame.VERSION) {
+                mResyncBytes++;
+                consumeFrameBytes(1);
+                continue;
+            }
+
+            if (mFrameLength < DisplayFrame.HEADER_SIZE)
+                return;
+
+            int payloadLength = mFrame[2] & 0xFF;
+            int opcode = mFrame[0] & 0x0F;
+
+            if (payloadLength > MAX_PAYLOAD || !DisplayFrame.isPlausibleHeader(opcode, payloadLength)) {
+                mResyncBytes++;
+                consumeFrameBytes(1);
+                continue;
+            }
+
+            if (mFrameLength < DisplayFrame.OVERHEAD + payloadLength)
+                return;
+
+            int crcIndex = DisplayFrame.HEADER_SIZE + payloadLength;
+
+            if (DisplayFrame.crc8(mFrame, 0, crcIndex) != mFrame[crcIndex]) {
+                mResyncBytes++;
+                consumeFrameBytes(1);
+                continue;
+            }
+
+            byte[] payload = new byte[payloadLength];
+            System.arraycopy(mFrame, DisplayFrame.HEADER_SIZE, payload, 0, payloadLength);
+
+            boolean handled = handleFrame(new DisplayFrame(opcode, mFrame[1] & 0xFF, payload));
+            mFramesHandled++;
+
+            // Acked once it's on the display
+            write(DisplayFrame.ack(mFrame[1] & 0xFF, handled ? DisplayFrame.ACK_OK : DisplayFrame.ACK_REJECTED));
+            mAcksSent++;
+
+            consumeFrameBytes(DisplayFrame.OVERHEAD + payloadLength);
+        }
+    }
+
+    private boolean handleFrame(DisplayFrame frame) {
+        switch (frame.getOpcode()) {
+            case DisplayFrame.OP_PIXEL:
+                // Skip redraws for an unchanged pixel count, it's already showing
+                if (frame.getPayloadByte(0) == mPrevPixel) {
+                    mRedrawsSkipped++;
+                    return true;
+                }
+
+                mPrevPixel = frame.getPayloadByte(0);
+                setPixelColour(mPrevPixel);
+                return true;
+
+            case DisplayFrame.OP_LED:
+                setLed(frame.getPayloadByte(0) != 0);
+                return true;
+
+            case DisplayFrame.OP_PIXELS_KEYFRAME:
+            case DisplayFrame.OP_PIXELS_DELTA:
+                int[] pixels;
+
+                synchronized (this) {
+                    pixels = mPixels.clone();
+                }
+
+                if (!Framebuffer.apply(frame, pixels))
+                    return false;
+
+                synchronized (this) {
+                    System.arraycopy(pixels, 0, mPixels, 0, mNumPixels);
+                }
+
+                mPrevPixel = -1;
+                show();
+                return true;
+
+            case DisplayFrame.OP_TEXT:
+                handleCommand(frame.getText());
+                return true;
+        }
+
+        return false;
+    }
+
+    private void handleCommand(String command) {
+        if (command.equals("led on"))
+            setLed(true);
+
+        if (command.equals("led off"))
+            setLed(false);
+
+        if (command.startsWith("pixel")) {
+            int index = toInt(command.substring(5));
+            mPrevPixel = index;
+            setPixelColour(index);
+        }
+    }
+
+    private void setLed(boolean on) {
+        synchronized (this) {
+            mLedOn = on;
+        }
+
+        log(on ? "LED on" : "LED off");
+    }
+
+    /**
+     * The legacy renderer: wipes everything, then calls show() once per lit pixel.
+     */
+    private void setPixelColour(int index) {
+        log("[setPixelColour] index: " + index);
+
+        synchronized (this) {
+            for (int i = 0; i < mNumPixels; i++) {
+                mPixels[i] = 0;
+            }
+        }
+
+        for (int i = 0; i < index; i++) {
+            int colour = getColourForIndex(i);
+
+            synchronized (this) {
+                if (i < mNumPixels)
+                    mPixels[i] = colour;
+            }
+
+            show();
+        }
+    }
+
+    private int getColourForIndex(int index) {
+        if (index > mNumPixels)
+            index = mNumPixels;
+
+        if (index >= 1 && index <= DEFAULT_NUM_PIXELS)
+            return PixelGauge.colourForIndex(index - 1, DEFAULT_NUM_PIXELS);
+
+        int red = (255 / mNumPixels) * index;
+
+        log(String.valueOf(red));
+
+        return red << 16;
+    }
+
+    private void show() {
+        busy(SHOW_LATCH_NANOS + SHOW_NANOS_PER_PIXEL * mNumPixels);
+
+        synchronized (this) {
+            System.arraycopy(mPixels, 0, mShown, 0, mNumPixels);
+        }
+
+        mShowCount++;
+    }
+
+    private void log(String message) {
+        write(DisplayFrame.log(message.length() > MAX_PAYLOAD ? message.substring(0, MAX_PAYLOAD) : message));
+    }
+
+    /**
+     * Serial.write(), which blocks while the transmit buffer is full.
+     */
+    private void write(DisplayFrame frame) {
+        for (byte b : frame.encode()) {
+            while (mTxBuffer.size() >= TX_BUFFER_SIZE && mIsRunning) {
+                busy(mByteNanos);
+            }
+
+            mTxBuffer.addLast(b);
+        }
+    }
+
+    /**
+     * String.toInt(): leading digits, 0 if there aren't any.
+     */
+    private static int toInt(String s) {
+        s = s.trim();
+
+        int end = 0;
+
+        if (end < s.length() && s.charAt(end) == '-')
+            end++;
+
+        while (end < s.length() && Character.isDigit(s.charAt(end))) {
+            end++;
+        }
+
+        try {
+            return Integer.parseInt(s.substring(0, end));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * The app's end of the serial line.
+     */
+    private static final class SimulatedLink implements Link {
+
+        private final ArrayDeque<Byte> mInbound = new ArrayDeque<>();
+        private final ArrayDeque<Byte> mOutbound = new ArrayDeque<>();
+
+        private boolean mIsClosed = false;
+
+        private final InputStream mInputStream = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                synchronized (SimulatedLink.this) {
+                    while (mOutbound.isEmpty() && !mIsClosed) {
+                        try {
+                            SimulatedLink.this.wait();
+                        } catch (InterruptedException e) {
+                            throw new IOException("Interrupted");
+                        }
+                    }
+
+                    if (mOutbound.isEmpty())
+                        return -1;
+
+                    int count = 0;
+
+                    while (count < len && !mOutbound.isEmpty()) {
+                        b[off + count++] = mOutbound.pollFirst();
+                    }
+
+                    return count;
+                }
+            }
+        };
+
+        private final OutputStream mOutputStream = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                synchronized (SimulatedLink.this) {
+                    if (mIsClosed)
+                        throw new IOException("Link is closed");
+
+                    for (int i = off; i < off + len; i++) {
+                        mInbound.addLast(b[i]);
+                    }
+                }
+            }
+        };
+
+        @Override
+        public InputStream getInputStream() {
+            return mInputStream;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return mOutputStream;
+        }
+
+        @Override
+        public synchronized boolean isConnected() {
+            return !mIsClosed;
+        }
+
+        @Override
+        public synchronized void close() {
+            mIsClosed = true;
+            notifyAll();
+        }
+
+        synchronized boolean hasInbound() {
+            return !mInbound.isEmpty();
+        }
+
+        /**
+         * Next byte written by the app, or -1 if there isn't one.
+         */
+        synchronized int takeInbound() {
+            Byte b = mInbound.pollFirst();
+            return b == null ? -1 : b & 0xFF;
+        }
+
+        synchronized void putOutbound(byte b) {
+            mOutbound.addLast(b);
+            notifyAll();
+        }
+    }
+}
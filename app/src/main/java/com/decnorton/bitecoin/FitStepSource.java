@@ -0,0 +1,190 @@
+package com.decnorton.bitecoin;
+
+import android.util.Log;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.common.api.Status;
+import com.google.android.gms.fitness.Fitness;
+import com.google.android.gms.fitness.data.DataPoint;
+import com.google.android.gms.fitness.data.DataSource;
+import com.google.android.gms.fitness.data.DataType;
+import com.google.android.gms.fitness.data.Field;
+import com.google.android.gms.fitness.data.Value;
+import com.google.android.gms.fitness.request.DataSourcesRequest;
+import com.google.android.gms.fitness.request.OnDataPointListener;
+import com.google.android.gms.fitness.request.SensorRequest;
+import com.google.android.gms.fitness.result.DataSourcesResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link StepSource} backed by the raw cumulative step sensors in Google Fit.
+ *
+ * Changing the rate re-registers the listener, as a sensor request can't be changed in place.
+ * Batched rates set a max delivery latency, so the sensor hub can hold readings back instead of
+ * waking us for each one.
+ */
+public class FitStepSource implements StepSource {
+    private static final String TAG = "FitStepSource";
+
+    private final GoogleApiClient mClient;
+
+    private final List<DataSource> mDataSources = new ArrayList<>();
+
+    private volatile Listener mListener;
+    private SamplingRate mRate = SamplingRate.ACTIVE;
+    private boolean mIsStarted = false;
+
+    private FailureListener mFailureListener;
+
+    private final OnDataPointListener mDataPointListener = new OnDataPointListener() {
+        @Override
+        public void onDataPoint(DataPoint dataPoint) {
+            Listener listener = mListener;
+
+            if (listener == null)
+                return;
+
+            long timestamp = dataPoint.getTimestamp(TimeUnit.MILLISECONDS);
+
+            if (timestamp <= 0)
+                timestamp = System.currentTimeMillis();
+
+            DataSource dataSource = dataPoint.getDataSource();
+            String sourceId = dataSource != null ? dataSource.getStreamIdentifier() : null;
+
+            for (Field field : dataPoint.getDataType().getFields()) {
+                Value val = dataPoint.getValue(field);
+
+                listener.onCumulativeSteps(sourceId, val.asInt(), timestamp);
+            }
+        }
+    };
+
+    public FitStepSource(GoogleApiClient client) {
+        mClient = client;
+    }
+
+    public void setFailureListener(FailureListener listener) {
+        mFailureListener = listener;
+    }
+
+    @Override
+    public synchronized void start(Listener listener) {
+        mListener = listener;
+
+        if (mIsStarted)
+            return;
+
+        mIsStarted = true;
+
+        findDataSources();
+    }
+
+    @Override
+    public synchronized void stop() {
+        mListener = null;
+
+        if (!mIsStarted)
+            return;
+
+        mIsStarted = false;
+        mDataSources.clear();
+
+        if (mClient.isConnected())
+            Fitness.SensorsApi.remove(mClient, mDataPointListener);
+    }
+
+    @Override
+    public synchronized void setSamplingRate(SamplingRate rate) {
+        if (rate == mRate)
+            return;
+
+        Log.i(TAG, "[setSamplingRate] " + mRate.name + " -> " + rate.name);
+
+        mRate = rate;
+
+        if (!mIsStarted || mDataSources.isEmpty() || !mClient.isConnected())
+            return;
+
+        Fitness.SensorsApi.remove(mClient, mDataPointListener);
+
+        for (DataSource dataSource : mDataSources) {
+            addDataSource(dataSource, rate);
+        }
+    }
+
+    @Override
+    public synchronized SamplingRate getSamplingRate() {
+        return mRate;
+    }
+
+    private void findDataSources() {
+        Fitness.SensorsApi.findDataSources(
+                mClient,
+                new DataSourcesRequest.Builder()
+                        // At least one datatype must be specified.
+                        .setDataTypes(DataType.TYPE_STEP_COUNT_CUMULATIVE)
+                                // Can specify whether data type is raw or derived.
+                        .setDataSourceTypes(DataSource.TYPE_RAW)
+                        .build()
+        )
+                .setResultCallback(new ResultCallback<DataSourcesResult>() {
+                    @Override
+                    public void onResult(DataSourcesResult dataSourcesResult) {
+                        Log.i(TAG, "[findDataSources:onResult] Result: " + dataSourcesResult.getStatus().toString());
+
+                        if (dataSourcesResult.getStatus().hasResolution()) {
+                            if (mFailureListener != null)
+                                mFailureListener.onDataSourcesFailed(dataSourcesResult.getStatus());
+
+                            return;
+                        }
+
+                        onDataSourcesFound(dataSourcesResult.getDataSources());
+                    }
+                });
+    }
+
+    private synchronized void onDataSourcesFound(List<DataSource> dataSources) {
+        if (!mIsStarted)
+            return;
+
+        for (DataSource dataSource : dataSources) {
+            Log.i(TAG, "Data source found: " + dataSource.toString());
+
+            mDataSources.add(dataSource);
+            addDataSource(dataSource, mRate);
+        }
+    }
+
+    private void addDataSource(DataSource dataSource, SamplingRate rate) {
+        Fitness.SensorsApi.add(
+                mClient,
+                new SensorRequest.Builder()
+                        .setDataType(dataSource.getDataType())
+                        .setDataSource(dataSource)
+                        .setSamplingRate(rate.periodMillis, TimeUnit.MILLISECONDS)
+                        .setMaxDeliveryLatency(rate.maxLatencyMillis, TimeUnit.MILLISECONDS)
+                        .build(),
+                mDataPointListener
+        )
+                .setResultCallback(new ResultCallback<Status>() {
+                    @Override
+                    public void onResult(Status status) {
+                        if (status.isSuccess()) {
+                            Log.i(TAG, "Listener registered!");
+                        } else {
+                            Log.i(TAG, "Listener not registered.");
+                        }
+                    }
+                });
+    }
+
+    public interface FailureListener {
+        public void onDataSourcesFailed(Status status);
+    }
+}
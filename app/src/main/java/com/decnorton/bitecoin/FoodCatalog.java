@@ -0,0 +1,308 @@
+package com.decnorton.bitecoin;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+/**
+ * Every food the shop sells, held column by column in primitive arrays so a catalog of tens
+ * of thousands of foods stays compact and cheap to load.
+ *
+ * Foods are looked up by id through an open-addressed hash index, and by calories through a
+ * sorted index. Neither holds {@link FoodItem}s: they're made on demand for whichever rows are
+ * on screen, see {@link Window}.
+ *
+ * Immutable once built, so one instance can be shared by every activity.
+ */
+public class FoodCatalog {
+
+    private final long[] mIds;
+    private final String[] mNames;
+    private final int[] mCalories;
+    private final int[] mImages;
+
+    // Open-addressed id -> index + 1, 0 for an empty slot
+    private final long[] mIdSlots;
+    private final int[] mIndexSlots;
+    private final int mSlotMask;
+
+    // Indexes ordered by calories, then id
+    private final int[] mByCalories;
+
+    private FoodCatalog(long[] ids, String[] names, int[] calories, int[] images) {
+        mIds = ids;
+        mNames = names;
+        mCalories = calories;
+        mImages = images;
+
+        int size = ids.length;
+
+        // At most half full, so probes stay short
+        int capacity = Integer.highestOneBit(Math.max(2, size) * 2 - 1) << 1;
+        mIdSlots = new long[capacity];
+        mIndexSlots = new int[capacity];
+        mSlotMask = capacity - 1;
+
+        for (int i = 0; i < size; i++) {
+            int slot = slotOf(ids[i]);
+
+            while (mIndexSlots[slot] != 0) {
+                if (mIdSlots[slot] == ids[i])
+                    throw new IllegalArgumentException("Duplicate food id " + ids[i]);
+
+                slot = (slot + 1) & mSlotMask;
+            }
+
+            mIdSlots[slot] = ids[i];
+            mIndexSlots[slot] = i + 1;
+        }
+
+        // Sorting packed keys keeps it to primitives, calories are never negative
+        long[] keys = new long[size];
+
+        for (int i = 0; i < size; i++) {
+            keys[i] = ((long) calories[i] << 32) | i;
+        }
+
+        Arrays.sort(keys);
+
+        mByCalories = new int[size];
+
+        for (int i = 0; i < size; i++) {
+            mByCalories[i] = (int) keys[i];
+        }
+    }
+
+    public int size() {
+        return mIds.length;
+    }
+
+    /**
+     * The food at the given index, in the order the catalog was built, at the default price.
+     * See {@link FoodPricing} for prices under another model.
+     */
+    public FoodItem get(int index) {
+        return get(index, PricingModel.DEFAULT.stepsFor(mCalories[index]));
+    }
+
+    FoodItem get(int index, int steps) {
+        return new FoodItem(mIds[index], mNames[index], mCalories[index], steps, mImages[index]);
+    }
+
+    /**
+     * Every food's calories, by index. Not a copy, don't write to it.
+     */
+    int[] calories() {
+        return mCalories;
+    }
+
+    /**
+     * @return the food with the given id, or null if there isn't one
+     */
+    public FoodItem getById(long id) {
+        int index = indexOf(id);
+        return index < 0 ? null : get(index);
+    }
+
+    /**
+     * @return the index of the food with the given id, or -1 if there isn't one
+     */
+    public int indexOf(long id) {
+        int slot = slotOf(id);
+
+        while (mIndexSlots[slot] != 0) {
+            if (mIdSlots[slot] == id)
+                return mIndexSlots[slot] - 1;
+
+            slot = (slot + 1) & mSlotMask;
+        }
+
+        return -1;
+    }
+
+    public long getId(int index) {
+        return mIds[index];
+    }
+
+    public String getName(int index) {
+        return mNames[index];
+    }
+
+    public int getCalories(int index) {
+        return mCalories[index];
+    }
+
+    public int getImage(int index) {
+        return mImages[index];
+    }
+
+    /**
+     * Every food, cheapest first.
+     */
+    public Window all() {
+        return new Window(0, mByCalories.length);
+    }
+
+    /**
+     * Foods with between min and max calories, inclusive, cheapest first.
+     */
+    public Window byCalories(int min, int max) {
+        if (min > max)
+            return new Window(0, 0);
+
+        return new Window(firstWithCaloriesAtLeast(min), firstWithCaloriesAtLeast(max + 1L));
+    }
+
+    /**
+     * Position in the calorie index of the first food with at least the given calories.
+     */
+    private int firstWithCaloriesAtLeast(long calories) {
+        int low = 0;
+        int high = mByCalories.length;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (mCalories[mByCalories[mid]] < calories) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    private int slotOf(long id) {
+        long hash = id * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mSlotMask;
+    }
+
+    /**
+     * Reads a catalog with a food per line: id, name, calories and image name, separated by
+     * commas. Names may contain commas. Blank lines and lines starting with # are skipped.
+     *
+     * @throws IllegalArgumentException for a malformed line or a duplicate id
+     */
+    public static FoodCatalog read(InputStream in, ImageResolver resolver) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        Builder builder = new Builder();
+
+        String line;
+        int lineNumber = 0;
+
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            int nameStart = line.indexOf(',');
+            int imageStart = line.lastIndexOf(',');
+            int caloriesStart = imageStart > 0 ? line.lastIndexOf(',', imageStart - 1) : -1;
+
+            if (nameStart < 0 || caloriesStart <= nameStart)
+                throw new IllegalArgumentException("Malformed food on line " + lineNumber + ": " + line);
+
+            try {
+                builder.add(
+                        Long.parseLong(line.substring(0, nameStart).trim()),
+                        line.substring(nameStart + 1, caloriesStart).trim(),
+                        Integer.parseInt(line.substring(caloriesStart + 1, imageStart).trim()),
+                        resolver.resolve(line.substring(imageStart + 1).trim())
+                );
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed food on line " + lineNumber + ": " + line);
+            }
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * A run of the calorie index, e.g. for an adapter to page through. Rows are only turned
+     * into {@link FoodItem}s when they're asked for.
+     */
+    public final class Window {
+        private final int mStart;
+        private final int mEnd;
+
+        private Window(int start, int end) {
+            mStart = start;
+            mEnd = end;
+        }
+
+        public int size() {
+            return mEnd - mStart;
+        }
+
+        public FoodItem get(int position) {
+            return FoodCatalog.this.get(indexAt(position));
+        }
+
+        public long getId(int position) {
+            return mIds[indexAt(position)];
+        }
+
+        /**
+         * The catalog index of the food at the given position.
+         */
+        public int indexAt(int position) {
+            if (position < 0 || position >= size())
+                throw new IndexOutOfBoundsException("Position " + position + " of " + size());
+
+            return mByCalories[mStart + position];
+        }
+    }
+
+    public static final class Builder {
+        private long[] mIds = new long[16];
+        private String[] mNames = new String[16];
+        private int[] mCalories = new int[16];
+        private int[] mImages = new int[16];
+        private int mSize = 0;
+
+        public Builder add(long id, String name, int calories, int image) {
+            if (calories < 0)
+                throw new IllegalArgumentException("Negative calories for food " + id);
+
+            if (mSize == mIds.length) {
+                int capacity = mSize * 2;
+                mIds = Arrays.copyOf(mIds, capacity);
+                mNames = Arrays.copyOf(mNames, capacity);
+                mCalories = Arrays.copyOf(mCalories, capacity);
+                mImages = Arrays.copyOf(mImages, capacity);
+            }
+
+            mIds[mSize] = id;
+            mNames[mSize] = name;
+            mCalories[mSize] = calories;
+            mImages[mSize] = image;
+            mSize++;
+
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException if two foods share an id
+         */
+        public FoodCatalog build() {
+            return new FoodCatalog(
+                    Arrays.copyOf(mIds, mSize),
+                    Arrays.copyOf(mNames, mSize),
+                    Arrays.copyOf(mCalories, mSize),
+                    Arrays.copyOf(mImages, mSize)
+            );
+        }
+    }
+
+    public interface ImageResolver {
+        /**
+         * @return the drawable for the given image name, or 0 for none
+         */
+        public int resolve(String name);
+    }
+}
@@ -0,0 +1,131 @@
+package com.decnorton.bitecoin;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.util.Log;
+
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+
+import bolts.Continuation;
+import bolts.Task;
+
+/**
+ * Loads the food catalog from assets/foods.csv once, in the background, and hands the same
+ * instance to everyone after that.
+ *
+ * Also prices it for the user, with a {@link PricingModel} built from the weight and stride
+ * they've saved.
+ */
+public class FoodCatalogProvider {
+    private static final String TAG = "FoodCatalogProvider";
+
+    private static final String CATALOG_ASSET = "foods.csv";
+
+    private static final String PREFS_NAME = "pricing";
+    private static final String PREF_WEIGHT_KG = "weight_kg";
+    private static final String PREF_STRIDE_METERS = "stride_meters";
+
+    private static Task<FoodCatalog> sLoadTask;
+    private static Task<FoodPricing> sPricingTask;
+
+    /**
+     * @return a task for the catalog, which is already complete once it's been loaded
+     */
+    public static synchronized Task<FoodCatalog> get(Context context) {
+        // Retry a failed load next time rather than caching the failure
+        if (sLoadTask == null || sLoadTask.isFaulted())
+            sLoadTask = load(context.getApplicationContext());
+
+        return sLoadTask;
+    }
+
+    /**
+     * @return a task for the catalog priced for the user, complete once it's been loaded
+     */
+    public static synchronized Task<FoodPricing> getPricing(Context context) {
+        if (sPricingTask == null || sPricingTask.isFaulted()) {
+            final SharedPreferences prefs = getPreferences(context);
+
+            sPricingTask = get(context).onSuccess(new Continuation<FoodCatalog, FoodPricing>() {
+                @Override
+                public FoodPricing then(Task<FoodCatalog> task) throws Exception {
+                    return new FoodPricing(task.getResult(), loadModel(prefs));
+                }
+            }, Task.BACKGROUND_EXECUTOR);
+        }
+
+        return sPricingTask;
+    }
+
+    /**
+     * Saves the user's build and re-prices the catalog for it in the background.
+     *
+     * @return a task for the re-priced catalog
+     */
+    public static synchronized Task<FoodPricing> setBuild(Context context, float weightKg, float strideMeters) {
+        final PricingModel model = PricingModel.DEFAULT.withBuild(weightKg, strideMeters);
+
+        getPreferences(context).edit()
+                .putFloat(PREF_WEIGHT_KG, weightKg)
+                .putFloat(PREF_STRIDE_METERS, strideMeters)
+                .apply();
+
+        // Anyone still waiting on the first load gets the new build from the prefs
+        return getPricing(context).onSuccess(new Continuation<FoodPricing, FoodPricing>() {
+            @Override
+            public FoodPricing then(Task<FoodPricing> task) throws Exception {
+                FoodPricing pricing = task.getResult();
+                pricing.setModel(model);
+                return pricing;
+            }
+        }, Task.BACKGROUND_EXECUTOR);
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    private static PricingModel loadModel(SharedPreferences prefs) {
+        float weightKg = prefs.getFloat(PREF_WEIGHT_KG, PricingModel.DEFAULT_WEIGHT_KG);
+        float strideMeters = prefs.getFloat(PREF_STRIDE_METERS, PricingModel.DEFAULT_STRIDE_METERS);
+
+        try {
+            return PricingModel.DEFAULT.withBuild(weightKg, strideMeters);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "[loadModel] Ignoring a bad saved build: " + e.getMessage());
+            return PricingModel.DEFAULT;
+        }
+    }
+
+    private static Task<FoodCatalog> load(final Context context) {
+        return Task.callInBackground(new Callable<FoodCatalog>() {
+            @Override
+            public FoodCatalog call() throws Exception {
+                final Resources resources = context.getResources();
+                final String packageName = context.getPackageName();
+
+                long start = System.currentTimeMillis();
+                InputStream in = context.getAssets().open(CATALOG_ASSET);
+
+                try {
+                    FoodCatalog catalog = FoodCatalog.read(in, new FoodCatalog.ImageResolver() {
+                        @Override
+                        public int resolve(String name) {
+                            return name.isEmpty() ? 0 : resources.getIdentifier(name, "drawable", packageName);
+                        }
+                    });
+
+                    Log.i(TAG, "[load] Loaded " + catalog.size() + " foods in "
+                            + (System.currentTimeMillis() - start) + "ms");
+
+                    return catalog;
+                } finally {
+                    in.close();
+                }
+            }
+        });
+    }
+
+}
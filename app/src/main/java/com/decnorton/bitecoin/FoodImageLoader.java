@@ -0,0 +1,212 @@
+package com.decnorton.bitecoin;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads drawables into image views off the main thread, so scrolling never waits on a decode.
+ *
+ * Images are decoded at the smallest power-of-two scale that still covers the requested size,
+ * and kept in an LRU cache capped at an eighth of the app's memory class. Loads are tied to
+ * their view: starting another load on a recycled view cancels the one it was waiting on, and
+ * a result only lands on the view that still wants it.
+ *
+ * Everything apart from the decode happens on the main thread.
+ */
+public class FoodImageLoader {
+    private static final String TAG = "FoodImageLoader";
+
+    private static final int DECODE_THREADS = 2;
+    private static final int MEMORY_CLASS_FRACTION = 8;
+
+    private static FoodImageLoader sInstance;
+
+    private final Resources mResources;
+    private final LruCache<Long, Bitmap> mCache;
+
+    private final ExecutorService mDecodeExecutor = Executors.newFixedThreadPool(DECODE_THREADS);
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    public static synchronized FoodImageLoader get(Context context) {
+        if (sInstance == null)
+            sInstance = new FoodImageLoader(context.getApplicationContext());
+
+        return sInstance;
+    }
+
+    /**
+     * Drops every cached image, e.g. when the system is short of memory.
+     */
+    public static synchronized void trimMemory() {
+        if (sInstance != null)
+            sInstance.mCache.evictAll();
+    }
+
+    private FoodImageLoader(Context context) {
+        mResources = context.getResources();
+
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int budget = activityManager.getMemoryClass() * 1024 * 1024 / MEMORY_CLASS_FRACTION;
+
+        mCache = new LruCache<Long, Bitmap>(budget) {
+            @Override
+            protected int sizeOf(Long key, Bitmap bitmap) {
+                return bitmap.getAllocationByteCount();
+            }
+        };
+    }
+
+    /**
+     * Shows the given drawable in the view, decoded to cover width x height. Shows nothing
+     * until it's loaded, unless it's already cached.
+     */
+    public void load(ImageView view, int image, int width, int height) {
+        cancel(view);
+
+        if (image == 0) {
+            view.setImageDrawable(null);
+            return;
+        }
+
+        long key = keyOf(image, width, height);
+        Bitmap cached = mCache.get(key);
+
+        if (cached != null) {
+            view.setImageBitmap(cached);
+            return;
+        }
+
+        // Don't leave the recycled view showing its previous item
+        view.setImageDrawable(null);
+
+        Request request = new Request(view, key, image, width, height);
+        view.setTag(R.id.food_image_task, request);
+        request.future = mDecodeExecutor.submit(request);
+    }
+
+    /**
+     * Stops whatever the view was waiting on, e.g. once it's been recycled.
+     */
+    public void cancel(ImageView view) {
+        Request request = (Request) view.getTag(R.id.food_image_task);
+
+        if (request == null)
+            return;
+
+        view.setTag(R.id.food_image_task, null);
+
+        request.isCancelled = true;
+        request.future.cancel(false);
+    }
+
+    public int getCacheSize() {
+        return mCache.size();
+    }
+
+    public int getCacheHitCount() {
+        return mCache.hitCount();
+    }
+
+    public int getCacheMissCount() {
+        return mCache.missCount();
+    }
+
+    private static long keyOf(int image, int width, int height) {
+        return ((long) image << 32) | ((long) (width & 0xFFFF) << 16) | (height & 0xFFFF);
+    }
+
+    /**
+     * The largest power of two the image can be shrunk by and still cover the requested size.
+     */
+    static int sampleSizeFor(int imageWidth, int imageHeight, int width, int height) {
+        int sampleSize = 1;
+
+        if (width <= 0 || height <= 0)
+            return sampleSize;
+
+        while (imageWidth / (sampleSize * 2) >= width && imageHeight / (sampleSize * 2) >= height) {
+            sampleSize *= 2;
+        }
+
+        return sampleSize;
+    }
+
+    private Bitmap decode(int image, int width, int height) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+
+        // Sample from the file's own size, scaling to screen density would decode it bigger first
+        options.inScaled = false;
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(mResources, image, options);
+
+        options.inSampleSize = sampleSizeFor(options.outWidth, options.outHeight, width, height);
+        options.inJustDecodeBounds = false;
+
+        return BitmapFactory.decodeResource(mResources, image, options);
+    }
+
+    private final class Request implements Runnable {
+        final ImageView view;
+        final long key;
+        final int image;
+        final int width;
+        final int height;
+
+        Future<?> future;
+        volatile boolean isCancelled = false;
+
+        Request(ImageView view, long key, int image, int width, int height) {
+            this.view = view;
+            this.key = key;
+            this.image = image;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public void run() {
+            if (isCancelled)
+                return;
+
+            final Bitmap bitmap;
+
+            try {
+                bitmap = decode(image, width, height);
+            } catch (OutOfMemoryError e) {
+                Log.e(TAG, "[decode] Out of memory decoding " + image + ", clearing cache");
+                mCache.evictAll();
+                return;
+            }
+
+            if (bitmap == null) {
+                Log.e(TAG, "[decode] Couldn't decode " + image);
+                return;
+            }
+
+            mCache.put(key, bitmap);
+
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (isCancelled || view.getTag(R.id.food_image_task) != Request.this)
+                        return;
+
+                    view.setTag(R.id.food_image_task, null);
+                    view.setImageBitmap(bitmap);
+                }
+            });
+        }
+    }
+}
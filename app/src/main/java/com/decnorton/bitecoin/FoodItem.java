@@ -12,12 +12,21 @@ public class FoodItem {
     private long id;
     private String name;
     private long calories;
+    private int steps;
     @DrawableRes private int image;
 
+    /**
+     * Priced with {@link PricingModel#DEFAULT}.
+     */
     public FoodItem(long id, String name, int calories, int image) {
+        this(id, name, calories, PricingModel.DEFAULT.stepsFor(calories), image);
+    }
+
+    public FoodItem(long id, String name, int calories, int steps, int image) {
         this.id = id;
         this.name = name;
         this.calories = calories;
+        this.steps = steps;
         this.image = image;
     }
 
@@ -33,8 +42,11 @@ public class FoodItem {
         return calories;
     }
 
+    /**
+     * What it costs, see {@link PricingModel}.
+     */
     public int getSteps() {
-        return (int) calories;
+        return steps;
     }
 
     public int getImage() {
@@ -0,0 +1,51 @@
+package com.decnorton.bitecoin;
+
+/**
+ * Step prices for a whole {@link FoodCatalog}, worked out up front by a {@link PricingModel}
+ * into one array, so showing a price is a lookup rather than a calculation.
+ *
+ * Changing the model re-prices everything in one go and swaps the array in, so readers
+ * always see prices from a single model.
+ */
+public class FoodPricing {
+
+    private final FoodCatalog mCatalog;
+
+    private volatile PricingModel mModel;
+    private volatile int[] mSteps;
+
+    public FoodPricing(FoodCatalog catalog, PricingModel model) {
+        mCatalog = catalog;
+        setModel(model);
+    }
+
+    public synchronized void setModel(PricingModel model) {
+        int[] steps = new int[mCatalog.size()];
+        model.price(mCatalog.calories(), steps);
+
+        mModel = model;
+        mSteps = steps;
+    }
+
+    public PricingModel getModel() {
+        return mModel;
+    }
+
+    public FoodCatalog getCatalog() {
+        return mCatalog;
+    }
+
+    /**
+     * The price of the food at the given catalog index.
+     */
+    public int getSteps(int index) {
+        return mSteps[index];
+    }
+
+    /**
+     * The food at the given catalog index, priced.
+     */
+    public FoodItem get(int index) {
+        return mCatalog.get(index, mSteps[index]);
+    }
+}
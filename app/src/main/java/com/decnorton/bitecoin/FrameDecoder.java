@@ -0,0 +1,94 @@
+package com.decnorton.bitecoin;
+
+/**
+ * Incremental decoder for {@link DisplayFrame}s.
+ *
+ * Bytes can be fed in arbitrary chunks. Anything that isn't a valid frame (wrong version,
+ * bad checksum) is skipped one byte at a time so the decoder resynchronises on the next
+ * good header.
+ */
+public class FrameDecoder {
+
+    private final byte[] mBuffer = new byte[DisplayFrame.MAX_FRAME_SIZE];
+    private final Listener mListener;
+
+    private int mLength = 0;
+    private long mDroppedBytes = 0;
+
+    public FrameDecoder(Listener listener) {
+        mListener = listener;
+    }
+
+    public void feed(byte[] data, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            mBuffer[mLength++] = data[i];
+            drain();
+        }
+    }
+
+    public void feed(byte[] data) {
+        feed(data, 0, data.length);
+    }
+
+    public long getDroppedBytes() {
+        return mDroppedBytes;
+    }
+
+    public void reset() {
+        mLength = 0;
+    }
+
+    private void drain() {
+        while (mLength > 0) {
+            int version = (mBuffer[0] & 0xF0) >>> 4;
+
+            if (version != DisplayFrame.VERSION) {
+                skip(1);
+                continue;
+            }
+
+            if (mLength < DisplayFrame.HEADER_SIZE)
+                return;
+
+            int payloadLength = mBuffer[2] & 0xFF;
+
+            if (!DisplayFrame.isPlausibleHeader(mBuffer[0] & 0x0F, payloadLength)) {
+                skip(1);
+                continue;
+            }
+
+            int frameSize = DisplayFrame.OVERHEAD + payloadLength;
+
+            if (mLength < frameSize)
+                return;
+
+            int crcIndex = DisplayFrame.HEADER_SIZE + payloadLength;
+
+            if (DisplayFrame.crc8(mBuffer, 0, crcIndex) != mBuffer[crcIndex]) {
+                skip(1);
+                continue;
+            }
+
+            byte[] payload = new byte[payloadLength];
+            System.arraycopy(mBuffer, DisplayFrame.HEADER_SIZE, payload, 0, payloadLength);
+
+            mListener.onFrame(new DisplayFrame(mBuffer[0] & 0x0F, mBuffer[1] & 0xFF, payload));
+
+            consume(frameSize);
+        }
+    }
+
+    private void skip(int count) {
+        mDroppedBytes += count;
+        consume(count);
+    }
+
+    private void consume(int count) {
+        mLength -= count;
+        System.arraycopy(mBuffer, count, mBuffer, 0, mLength);
+    }
+
+    public interface Listener {
+        public void onFrame(DisplayFrame frame);
+    }
+}
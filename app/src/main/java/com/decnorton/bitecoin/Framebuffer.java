@@ -0,0 +1,347 @@
+package com.decnorton.bitecoin;
+
+/**
+ * The app's copy of what the display should show, one 0xRRGGBB colour per pixel.
+ *
+ * Changes are tracked against what was last flushed, so each flush only carries the pixels
+ * that changed, as runs of consecutive pixels:
+ *
+ *   delta payload    - repeated [start][count][r g b ...] runs
+ *   keyframe payload - [r g b] for every pixel, starting at 0
+ *
+ * A full keyframe goes out every {@link #KEYFRAME_INTERVAL} flushes, or whenever it would be no
+ * bigger than the delta, so a display that missed a delta is put right again before long.
+ */
+public class Framebuffer {
+
+    /**
+     * Constants
+     */
+    public static final int KEYFRAME_INTERVAL = 20;
+
+    static final int RUN_HEADER_SIZE = 2;
+    static final int BYTES_PER_PIXEL = 3;
+
+    private final int[] mPixels;
+    private final int[] mFlushed;
+    private final boolean[] mDirty;
+
+    private boolean mIsDirty = false;
+    private int mFlushesSinceKeyframe = KEYFRAME_INTERVAL;
+
+    /**
+     * Metrics
+     */
+    private long mDeltaCount = 0;
+    private long mKeyframeCount = 0;
+    private long mPayloadBytes = 0;
+
+    public Framebuffer(int size) {
+        if (size <= 0 || size > 0xFF)
+            throw new IllegalArgumentException("Framebuffer size out of range: " + size);
+
+        mPixels = new int[size];
+        mFlushed = new int[size];
+        mDirty = new boolean[size];
+    }
+
+    public int size() {
+        return mPixels.length;
+    }
+
+    public synchronized int get(int index) {
+        return mPixels[index];
+    }
+
+    public synchronized void set(int index, int rgb) {
+        rgb &= 0xFFFFFF;
+
+        if (mPixels[index] == rgb)
+            return;
+
+        mPixels[index] = rgb;
+        mDirty[index] = rgb != mFlushed[index];
+
+        if (mDirty[index])
+            mIsDirty = true;
+    }
+
+    public synchronized void fill(int rgb) {
+        for (int i = 0; i < mPixels.length; i++) {
+            set(i, rgb);
+        }
+    }
+
+    public synchronized boolean isDirty() {
+        return mIsDirty;
+    }
+
+    /**
+     * Takes the changes since the last flush.
+     *
+     * @return a delta or keyframe, or null if nothing has changed
+     */
+    public synchronized DisplayFrame flush() {
+        if (!mIsDirty)
+            return null;
+
+        int deltaSize = getDeltaSize();
+        int keyframeSize = mPixels.length * BYTES_PER_PIXEL;
+
+        DisplayFrame frame;
+
+        if (mFlushesSinceKeyframe >= KEYFRAME_INTERVAL || deltaSize >= keyframeSize) {
+            frame = keyframe();
+            mFlushesSinceKeyframe = 0;
+            mKeyframeCount++;
+        } else {
+            frame = delta(deltaSize);
+            mFlushesSinceKeyframe++;
+            mDeltaCount++;
+        }
+
+        System.arraycopy(mPixels, 0, mFlushed, 0, mPixels.length);
+
+        for (int i = 0; i < mDirty.length; i++) {
+            mDirty[i] = false;
+        }
+
+        mIsDirty = false;
+        mPayloadBytes += frame.getPayloadLength();
+
+        return frame;
+    }
+
+    /**
+     * A full snapshot of the current pixels, e.g. for a display that's just connected. Doesn't
+     * affect change tracking.
+     */
+    public synchronized DisplayFrame keyframe() {
+        byte[] payload = new byte[mPixels.length * BYTES_PER_PIXEL];
+
+        for (int i = 0; i < mPixels.length; i++) {
+            putPixel(payload, i * BYTES_PER_PIXEL, mPixels[i]);
+        }
+
+        return new DisplayFrame(DisplayFrame.OP_PIXELS_KEYFRAME, payload);
+    }
+
+    public synchronized long getDeltaCount() {
+        return mDeltaCount;
+    }
+
+    public synchronized long getKeyframeCount() {
+        return mKeyframeCount;
+    }
+
+    /**
+     * Payload bytes flushed so far, to compare against sending keyframes every time.
+     */
+    public synchronized long getPayloadBytes() {
+        return mPayloadBytes;
+    }
+
+    private int getDeltaSize() {
+        int size = 0;
+
+        for (int i = 0; i < mDirty.length; i++) {
+            if (!mDirty[i])
+                continue;
+
+            if (i == 0 || !mDirty[i - 1])
+                size += RUN_HEADER_SIZE;
+
+            size += BYTES_PER_PIXEL;
+        }
+
+        return size;
+    }
+
+    private DisplayFrame delta(int size) {
+        byte[] payload = new byte[size];
+        int pos = 0;
+        int i = 0;
+
+        while (i < mDirty.length) {
+            if (!mDirty[i]) {
+                i++;
+                continue;
+            }
+
+            int start = i;
+
+            while (i < mDirty.length && mDirty[i]) {
+                i++;
+            }
+
+            payload[pos++] = (byte) start;
+            payload[pos++] = (byte) (i - start);
+
+            for (int p = start; p < i; p++) {
+                putPixel(payload, pos, mPixels[p]);
+                pos += BYTES_PER_PIXEL;
+            }
+        }
+
+        return new DisplayFrame(DisplayFrame.OP_PIXELS_DELTA, payload);
+    }
+
+    /**
+     * Applies a delta or keyframe to a set of pixels, as the display does.
+     *
+     * @return false if the frame isn't a well formed pixel frame, in which case nothing is changed
+     */
+    public static boolean apply(DisplayFrame frame, int[] pixels) {
+        byte[] payload = frame.getPayload();
+
+        if (!isWellFormed(frame.getOpcode(), payload, pixels.length))
+            return false;
+
+        if (frame.getOpcode() == DisplayFrame.OP_PIXELS_KEYFRAME) {
+            for (int i = 0; i < payload.length / BYTES_PER_PIXEL; i++) {
+                pixels[i] = getPixel(payload, i * BYTES_PER_PIXEL);
+            }
+
+            return true;
+        }
+
+        int pos = 0;
+
+        while (pos < payload.length) {
+            int start = payload[pos++] & 0xFF;
+            int count = payload[pos++] & 0xFF;
+
+            for (int p = start; p < start + count; p++) {
+                pixels[p] = getPixel(payload, pos);
+                pos += BYTES_PER_PIXEL;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Combines two queued pixel frames into one that leaves the display in the same state as
+     * sending both. Used when an unsent pixel frame is replaced by a newer one.
+     */
+    public static DisplayFrame merge(DisplayFrame older, DisplayFrame newer) {
+        if (newer.getOpcode() == DisplayFrame.OP_PIXELS_KEYFRAME)
+            return newer;
+
+        int size = Math.max(extentOf(older), extentOf(newer));
+
+        if (size <= 0 || size > 0xFF)
+            return newer;
+
+        int[] pixels = new int[size];
+        boolean[] touched = new boolean[size];
+
+        if (!apply(older, pixels) || !mark(older, touched) || !apply(newer, pixels) || !mark(newer, touched))
+            return newer;
+
+        Framebuffer merged = new Framebuffer(size);
+
+        if (older.getOpcode() == DisplayFrame.OP_PIXELS_KEYFRAME) {
+            System.arraycopy(pixels, 0, merged.mPixels, 0, size);
+            return merged.keyframe().withSequence(newer.getSequence());
+        }
+
+        // Only the pixels either delta touched, against a baseline they can't match
+        for (int i = 0; i < size; i++) {
+            merged.mPixels[i] = pixels[i];
+            merged.mDirty[i] = touched[i];
+        }
+
+        return merged.delta(merged.getDeltaSize()).withSequence(newer.getSequence());
+    }
+
+    public static boolean isPixelFrame(DisplayFrame frame) {
+        return frame.getOpcode() == DisplayFrame.OP_PIXELS_DELTA
+                || frame.getOpcode() == DisplayFrame.OP_PIXELS_KEYFRAME;
+    }
+
+    /**
+     * Number of pixels a frame reaches, i.e. one past the last pixel it sets.
+     */
+    private static int extentOf(DisplayFrame frame) {
+        byte[] payload = frame.getPayload();
+
+        if (frame.getOpcode() == DisplayFrame.OP_PIXELS_KEYFRAME)
+            return payload.length / BYTES_PER_PIXEL;
+
+        int extent = 0;
+        int pos = 0;
+
+        while (pos + RUN_HEADER_SIZE <= payload.length) {
+            int start = payload[pos++] & 0xFF;
+            int count = payload[pos++] & 0xFF;
+
+            extent = Math.max(extent, start + count);
+            pos += count * BYTES_PER_PIXEL;
+        }
+
+        return extent;
+    }
+
+    private static boolean mark(DisplayFrame frame, boolean[] touched) {
+        byte[] payload = frame.getPayload();
+
+        if (frame.getOpcode() == DisplayFrame.OP_PIXELS_KEYFRAME) {
+            for (int i = 0; i < payload.length / BYTES_PER_PIXEL; i++) {
+                touched[i] = true;
+            }
+
+            return true;
+        }
+
+        int pos = 0;
+
+        while (pos < payload.length) {
+            int start = payload[pos++] & 0xFF;
+            int count = payload[pos++] & 0xFF;
+
+            for (int p = start; p < start + count; p++) {
+                touched[p] = true;
+            }
+
+            pos += count * BYTES_PER_PIXEL;
+        }
+
+        return true;
+    }
+
+    private static boolean isWellFormed(int opcode, byte[] payload, int size) {
+        if (opcode == DisplayFrame.OP_PIXELS_KEYFRAME)
+            return payload.length % BYTES_PER_PIXEL == 0 && payload.length / BYTES_PER_PIXEL <= size;
+
+        if (opcode != DisplayFrame.OP_PIXELS_DELTA)
+            return false;
+
+        int pos = 0;
+
+        while (pos < payload.length) {
+            if (pos + RUN_HEADER_SIZE > payload.length)
+                return false;
+
+            int start = payload[pos++] & 0xFF;
+            int count = payload[pos++] & 0xFF;
+
+            if (start + count > size || pos + count * BYTES_PER_PIXEL > payload.length)
+                return false;
+
+            pos += count * BYTES_PER_PIXEL;
+        }
+
+        return true;
+    }
+
+    private static void putPixel(byte[] dest, int offset, int rgb) {
+        dest[offset] = (byte) (rgb >> 16);
+        dest[offset + 1] = (byte) (rgb >> 8);
+        dest[offset + 2] = (byte) rgb;
+    }
+
+    private static int getPixel(byte[] src, int offset) {
+        return (src[offset] & 0xFF) << 16 | (src[offset + 1] & 0xFF) << 8 | (src[offset + 2] & 0xFF);
+    }
+}
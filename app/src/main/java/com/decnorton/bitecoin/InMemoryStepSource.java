@@ -0,0 +1,131 @@
+package com.decnorton.bitecoin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link StepSource} fed by hand, for driving the step logic deterministically on a JVM.
+ *
+ * Readings pushed while the rate is batched are held back until the oldest one has waited
+ * {@link StepSource.SamplingRate#maxLatencyMillis}, going by the readings' own timestamps,
+ * or until {@link #flush()} is called. This mirrors how the sensor hub batches, without any
+ * real clock involved.
+ */
+public class InMemoryStepSource implements StepSource {
+
+    private final String mSourceId;
+    private final List<long[]> mPending = new ArrayList<>();
+
+    private Listener mListener;
+    private SamplingRate mRate = SamplingRate.ACTIVE;
+
+    private long mDeliveredCount = 0;
+    private long mBatchCount = 0;
+    private int mRateChangeCount = 0;
+
+    public InMemoryStepSource() {
+        this("memory");
+    }
+
+    public InMemoryStepSource(String sourceId) {
+        mSourceId = sourceId;
+    }
+
+    @Override
+    public synchronized void start(Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public synchronized void stop() {
+        mListener = null;
+        mPending.clear();
+    }
+
+    @Override
+    public void setSamplingRate(SamplingRate rate) {
+        synchronized (this) {
+            if (rate == mRate)
+                return;
+
+            mRate = rate;
+            mRateChangeCount++;
+
+            if (rate.isBatched())
+                return;
+        }
+
+        // Anything held back under the old rate goes out now, like re-registering a sensor
+        flush();
+    }
+
+    @Override
+    public synchronized SamplingRate getSamplingRate() {
+        return mRate;
+    }
+
+    /**
+     * Pushes a reading. Delivered straight away unless the current rate is batched.
+     *
+     * @return false if the source isn't started, in which case the reading is dropped
+     */
+    public boolean push(int cumulativeSteps, long timestampMillis) {
+        synchronized (this) {
+            if (mListener == null)
+                return false;
+
+            mPending.add(new long[]{cumulativeSteps, timestampMillis});
+
+            long oldest = mPending.get(0)[1];
+
+            if (mRate.isBatched() && timestampMillis - oldest < mRate.maxLatencyMillis)
+                return true;
+        }
+
+        flush();
+
+        return true;
+    }
+
+    /**
+     * Delivers any readings that are being held back.
+     *
+     * The listener is called outside the lock, as it's free to change the sampling rate.
+     */
+    public void flush() {
+        Listener listener;
+        List<long[]> batch;
+
+        synchronized (this) {
+            if (mPending.isEmpty() || mListener == null)
+                return;
+
+            listener = mListener;
+            batch = new ArrayList<>(mPending);
+
+            mPending.clear();
+            mBatchCount++;
+            mDeliveredCount += batch.size();
+        }
+
+        for (long[] reading : batch) {
+            listener.onCumulativeSteps(mSourceId, (int) reading[0], reading[1]);
+        }
+    }
+
+    public synchronized int getPendingCount() {
+        return mPending.size();
+    }
+
+    public synchronized long getDeliveredCount() {
+        return mDeliveredCount;
+    }
+
+    public synchronized long getBatchCount() {
+        return mBatchCount;
+    }
+
+    public synchronized int getRateChangeCount() {
+        return mRateChangeCount;
+    }
+}
@@ -0,0 +1,196 @@
+package com.decnorton.bitecoin;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.RandomAccess;
+
+/**
+ * Insertion-ordered list that rejects duplicates, backed by an array and a hash index.
+ *
+ * Unlike {@link UniqueList}, {@link #add}, {@link #contains}, {@link #indexOf} and
+ * {@link #get} are all O(1), and {@link #addAll} is linear in the size of its argument.
+ * Inserting or removing anywhere but the end is O(n) as the index has to be shifted.
+ *
+ * Uniqueness is decided by a {@link KeyFunction}, e.g. a device's MAC address, or by the
+ * elements themselves if none is given.
+ *
+ * {@link #add(Object)} and {@link #addAll} skip elements that are already present, like a set.
+ * Inserting at an index with {@link #add(int, Object)} or {@link #set} can't be skipped without
+ * leaving the list a different size than asked for, so those throw instead.
+ */
+public class IndexedUniqueList<E> extends AbstractList<E> implements RandomAccess {
+
+    private final ArrayList<E> mItems = new ArrayList<>();
+    private final HashMap<Object, Integer> mIndex = new HashMap<>();
+    private final KeyFunction<? super E> mKeyFunction;
+
+    public IndexedUniqueList() {
+        this(null);
+    }
+
+    public IndexedUniqueList(KeyFunction<? super E> keyFunction) {
+        mKeyFunction = keyFunction;
+    }
+
+    @Override
+    public E get(int index) {
+        return mItems.get(index);
+    }
+
+    @Override
+    public int size() {
+        return mItems.size();
+    }
+
+    @Override
+    public boolean add(E e) {
+        Object key = keyOf(e);
+
+        if (mIndex.containsKey(key))
+            return false;
+
+        mIndex.put(key, mItems.size());
+        mItems.add(e);
+        modCount++;
+
+        return true;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the element is already in the list
+     */
+    @Override
+    public void add(int index, E element) {
+        Object key = keyOf(element);
+        Integer existing = mIndex.get(key);
+
+        if (existing != null)
+            throw new IllegalArgumentException("Element already present at index " + existing);
+
+        if (index == mItems.size()) {
+            add(element);
+            return;
+        }
+
+        mItems.add(index, element);
+        mIndex.put(key, index);
+        modCount++;
+
+        reindexFrom(index + 1);
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends E> collection) {
+        boolean changed = false;
+
+        mItems.ensureCapacity(mItems.size() + collection.size());
+
+        for (E e : collection) {
+            changed |= add(e);
+        }
+
+        return changed;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the element is already in the list at another index
+     */
+    @Override
+    public E set(int index, E element) {
+        Object key = keyOf(element);
+        Integer existing = mIndex.get(key);
+
+        if (existing != null && existing != index)
+            throw new IllegalArgumentException("Element already present at index " + existing);
+
+        E previous = mItems.set(index, element);
+
+        mIndex.remove(keyOf(previous));
+        mIndex.put(key, index);
+
+        return previous;
+    }
+
+    @Override
+    public E remove(int index) {
+        E removed = mItems.remove(index);
+
+        mIndex.remove(keyOf(removed));
+        modCount++;
+
+        reindexFrom(index);
+
+        return removed;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        int index = indexOf(o);
+
+        if (index < 0)
+            return false;
+
+        remove(index);
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        mItems.clear();
+        mIndex.clear();
+        modCount++;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        Integer index;
+
+        try {
+            @SuppressWarnings("unchecked")
+            E e = (E) o;
+            index = mIndex.get(keyOf(e));
+        } catch (ClassCastException ex) {
+            return -1;
+        }
+
+        return index != null ? index : -1;
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        return indexOf(o);
+    }
+
+    /**
+     * Looks an element up by its key rather than by an instance.
+     */
+    public E getByKey(Object key) {
+        Integer index = mIndex.get(key);
+        return index != null ? mItems.get(index) : null;
+    }
+
+    public boolean containsKey(Object key) {
+        return mIndex.containsKey(key);
+    }
+
+    private Object keyOf(E e) {
+        return mKeyFunction != null && e != null ? mKeyFunction.keyOf(e) : e;
+    }
+
+    private void reindexFrom(int start) {
+        for (int i = start; i < mItems.size(); i++) {
+            mIndex.put(keyOf(mItems.get(i)), i);
+        }
+    }
+
+    public interface KeyFunction<E> {
+        public Object keyOf(E e);
+    }
+}
@@ -0,0 +1,348 @@
+package com.decnorton.bitecoin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Displays we've connected to before, so the app can go straight back to one rather than
+ * scanning for it.
+ *
+ * Each device keeps when it last connected and was last seen, how often connecting to it works
+ * and its last signal strength. Devices that haven't connected or been seen for the TTL are
+ * evicted. {@link #getBest(long)} ranks the rest by how likely a connect is to work.
+ *
+ * Persisted to a small file with a CRC, written to a temporary file then renamed. Thread safe.
+ */
+public class KnownDevices {
+
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.DAYS.toMillis(30);
+
+    public static final short RSSI_UNKNOWN = Short.MIN_VALUE;
+
+    private static final int MAGIC = 0x42544B31; // "BTK1"
+    private static final short VERSION = 1;
+
+    // Plenty for the displays one person owns, and keeps the file tiny
+    private static final int MAX_DEVICES = 16;
+    private static final int MAX_PAYLOAD_SIZE = 64 * 1024;
+
+    // How fast an old connection stops counting in a device's favour
+    private static final long RECENCY_HALF_LIFE_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+    // Below this the link is likely to drop, so prefer a device that was nearer
+    private static final short WEAK_RSSI = -85;
+
+    private final File mFile;
+    private final long mTtlMillis;
+
+    private final Map<String, Entry> mEntries = new HashMap<>();
+    private boolean mIsDirty = false;
+
+    public KnownDevices(File file) {
+        this(file, DEFAULT_TTL_MILLIS);
+    }
+
+    public KnownDevices(File file, long ttlMillis) {
+        mFile = file;
+        mTtlMillis = ttlMillis;
+    }
+
+    public synchronized void recordConnected(String address, String name, long nowMillis) {
+        Entry entry = mEntries.get(address);
+
+        if (entry == null) {
+            makeRoom(nowMillis);
+            entry = new Entry(address, name, 0, 0, 0, 0, RSSI_UNKNOWN);
+        }
+
+        put(new Entry(address, name != null ? name : entry.name, nowMillis, Math.max(entry.lastSeenMillis, nowMillis),
+                entry.successes + 1, entry.failures, entry.lastRssi));
+    }
+
+    /**
+     * Counts a failed connect against a known device. Unknown devices aren't added.
+     */
+    public synchronized void recordFailed(String address, long nowMillis) {
+        Entry entry = mEntries.get(address);
+
+        if (entry != null)
+            put(new Entry(address, entry.name, entry.lastConnectedMillis, entry.lastSeenMillis,
+                    entry.successes, entry.failures + 1, entry.lastRssi));
+    }
+
+    /**
+     * Notes a known device turning up in discovery. Unknown devices aren't added, as a scan
+     * finds every phone and headset nearby.
+     */
+    public synchronized boolean recordSeen(String address, String name, short rssi, long nowMillis) {
+        Entry entry = mEntries.get(address);
+
+        if (entry == null)
+            return false;
+
+        put(new Entry(address, name != null ? name : entry.name, entry.lastConnectedMillis, nowMillis,
+                entry.successes, entry.failures, rssi));
+
+        return true;
+    }
+
+    public synchronized void forget(String address) {
+        if (mEntries.remove(address) != null)
+            mIsDirty = true;
+    }
+
+    public synchronized Entry get(String address) {
+        return mEntries.get(address);
+    }
+
+    /**
+     * Every device that hasn't expired, the one most worth trying first at the front.
+     */
+    public synchronized List<Entry> getBest(final long nowMillis) {
+        evictExpired(nowMillis);
+
+        List<Entry> entries = new ArrayList<>(mEntries.values());
+
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry lhs, Entry rhs) {
+                int result = Double.compare(rhs.getScore(nowMillis), lhs.getScore(nowMillis));
+                return result != 0 ? result : Long.compare(rhs.lastConnectedMillis, lhs.lastConnectedMillis);
+            }
+        });
+
+        return entries;
+    }
+
+    /**
+     * @return how many devices were evicted
+     */
+    public synchronized int evictExpired(long nowMillis) {
+        int evicted = 0;
+
+        for (Iterator<Entry> it = mEntries.values().iterator(); it.hasNext(); ) {
+            if (it.next().isExpired(nowMillis, mTtlMillis)) {
+                it.remove();
+                evicted++;
+            }
+        }
+
+        if (evicted > 0)
+            mIsDirty = true;
+
+        return evicted;
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Reads the devices from storage, dropping any that expired in the meantime. A missing file
+     * is just no devices.
+     */
+    public synchronized void load(long nowMillis) throws IOException {
+        mEntries.clear();
+        mIsDirty = false;
+
+        if (!mFile.exists())
+            return;
+
+        DataInputStream in = new DataInputStream(new FileInputStream(mFile));
+
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a known devices file");
+
+            short version = in.readShort();
+
+            if (version != VERSION)
+                throw new IOException("Unsupported known devices version " + version);
+
+            in.readShort();
+
+            int length = in.readInt();
+            int crc = in.readInt();
+
+            if (length < 0 || length > MAX_PAYLOAD_SIZE)
+                throw new IOException("Bad known devices length " + length);
+
+            byte[] data = new byte[length];
+            in.readFully(data);
+
+            if (checksum(data) != crc)
+                throw new IOException("Known devices failed their checksum");
+
+            DataInputStream payload = new DataInputStream(new ByteArrayInputStream(data));
+            int count = payload.readInt();
+
+            for (int i = 0; i < count; i++) {
+                Entry entry = new Entry(
+                        payload.readUTF(),
+                        payload.readBoolean() ? payload.readUTF() : null,
+                        payload.readLong(),
+                        payload.readLong(),
+                        payload.readInt(),
+                        payload.readInt(),
+                        payload.readShort()
+                );
+
+                mEntries.put(entry.address, entry);
+            }
+        } catch (EOFException e) {
+            throw new IOException("Known devices file is truncated", e);
+        } finally {
+            in.close();
+        }
+
+        evictExpired(nowMillis);
+    }
+
+    /**
+     * Writes the devices to storage if they've changed since they were last loaded or saved.
+     */
+    public synchronized void save() throws IOException {
+        if (!mIsDirty)
+            return;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        DataOutputStream payload = new DataOutputStream(bytes);
+
+        payload.writeInt(mEntries.size());
+
+        for (Entry entry : mEntries.values()) {
+            payload.writeUTF(entry.address);
+            payload.writeBoolean(entry.name != null);
+
+            if (entry.name != null)
+                payload.writeUTF(entry.name);
+
+            payload.writeLong(entry.lastConnectedMillis);
+            payload.writeLong(entry.lastSeenMillis);
+            payload.writeInt(entry.successes);
+            payload.writeInt(entry.failures);
+            payload.writeShort(entry.lastRssi);
+        }
+
+        payload.flush();
+
+        byte[] data = bytes.toByteArray();
+
+        File temp = new File(mFile.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+
+        try {
+            DataOutputStream header = new DataOutputStream(out);
+            header.writeInt(MAGIC);
+            header.writeShort(VERSION);
+            header.writeShort(0);
+            header.writeInt(data.length);
+            header.writeInt(checksum(data));
+            header.write(data);
+            header.flush();
+
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(mFile))
+            throw new IOException("Couldn't replace " + mFile);
+
+        mIsDirty = false;
+    }
+
+    private void put(Entry entry) {
+        mEntries.put(entry.address, entry);
+        mIsDirty = true;
+    }
+
+    /**
+     * Drops expired devices, then the worst one if that's not enough to fit another.
+     */
+    private void makeRoom(long nowMillis) {
+        evictExpired(nowMillis);
+
+        if (mEntries.size() < MAX_DEVICES)
+            return;
+
+        List<Entry> best = getBest(nowMillis);
+        mEntries.remove(best.get(best.size() - 1).address);
+        mIsDirty = true;
+    }
+
+    private static int checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return (int) crc.getValue();
+    }
+
+    public static final class Entry {
+        public final String address;
+        public final String name;
+        public final long lastConnectedMillis;
+        public final long lastSeenMillis;
+        public final int successes;
+        public final int failures;
+        public final short lastRssi;
+
+        Entry(String address, String name, long lastConnectedMillis, long lastSeenMillis,
+              int successes, int failures, short lastRssi) {
+            this.address = address;
+            this.name = name;
+            this.lastConnectedMillis = lastConnectedMillis;
+            this.lastSeenMillis = lastSeenMillis;
+            this.successes = successes;
+            this.failures = failures;
+            this.lastRssi = lastRssi;
+        }
+
+        /**
+         * Share of connects that worked, starting from an even chance so one failure doesn't
+         * write a device off.
+         */
+        public double getSuccessRate() {
+            return (successes + 1.0) / (successes + failures + 2.0);
+        }
+
+        /**
+         * The success rate, fading as the last time it was connected or in range gets older, and
+         * knocked down for a weak signal last time it was seen.
+         */
+        double getScore(long nowMillis) {
+            double age = Math.max(0, nowMillis - Math.max(lastConnectedMillis, lastSeenMillis));
+            double score = getSuccessRate() * Math.pow(0.5, age / RECENCY_HALF_LIFE_MILLIS);
+
+            if (lastRssi != RSSI_UNKNOWN && lastRssi < WEAK_RSSI)
+                score *= 0.5;
+
+            return score;
+        }
+
+        boolean isExpired(long nowMillis, long ttlMillis) {
+            return nowMillis - Math.max(lastConnectedMillis, lastSeenMillis) > ttlMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("{ address: %s, name: %s, successes: %d, failures: %d, lastRssi: %d }",
+                    address, name, successes, failures, lastRssi);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.decnorton.bitecoin;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency distribution in the style of an HDR histogram: each power of two is split into
+ * {@link #SUB_BUCKETS} linear buckets, so percentiles are upper bounds within 12.5% of the true
+ * value across the whole range of a long.
+ *
+ * Fixed size, lock-free and allocation-free when recording, so it can sit on hot paths and be
+ * read from any thread. Reads taken while others record may be off by the samples in flight.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // Values below this get a bucket each
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+    private static final int LINEAR_MAGNITUDE = SUB_BUCKET_BITS + 1;
+
+    private static final int BUCKET_COUNT = LINEAR_LIMIT + (63 - LINEAR_MAGNITUDE) * SUB_BUCKETS;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mTotalNanos = new AtomicLong();
+    private final AtomicLong mMaxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+
+        mBuckets.incrementAndGet(bucketOf(nanos));
+        mTotalNanos.addAndGet(nanos);
+        mCount.incrementAndGet();
+
+        long max;
+
+        do {
+            max = mMaxNanos.get();
+        } while (nanos > max && !mMaxNanos.compareAndSet(max, nanos));
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getMeanNanos() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mTotalNanos.get() / count;
+    }
+
+    public long getMaxNanos() {
+        return mMaxNanos.get();
+    }
+
+    /**
+     * Upper bound of the value that the given fraction (0 - 1) of samples came in under.
+     */
+    public long getPercentileNanos(double percentile) {
+        long count = mCount.get();
+
+        if (count == 0)
+            return 0;
+
+        long max = mMaxNanos.get();
+        long target = Math.max(1, (long) Math.ceil(count * percentile));
+        long seen = 0;
+
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mBuckets.get(i);
+
+            if (seen >= target)
+                return Math.min(upperBoundOf(i), max);
+        }
+
+        return max;
+    }
+
+    public void clear() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mBuckets.set(i, 0);
+        }
+
+        mCount.set(0);
+        mTotalNanos.set(0);
+        mMaxNanos.set(0);
+    }
+
+    static int bucketOf(long value) {
+        if (value < LINEAR_LIMIT)
+            return (int) value;
+
+        // The top bit picks the power of two, the next SUB_BUCKET_BITS pick the bucket within it
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+
+        return LINEAR_LIMIT + (magnitude - LINEAR_MAGNITUDE) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBoundOf(int bucket) {
+        if (bucket < LINEAR_LIMIT)
+            return bucket;
+
+        int magnitude = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + LINEAR_MAGNITUDE;
+        int subBucket = (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+
+        // Overflows to MIN_VALUE for the very last bucket, which makes this MAX_VALUE
+        return ((long) (SUB_BUCKETS + subBucket + 1) << (magnitude - SUB_BUCKET_BITS)) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "{ count: %d, meanUs: %d, p50Us: %d, p99Us: %d, maxUs: %d }",
+                getCount(), getMeanNanos() / 1000, getPercentileNanos(0.5) / 1000,
+                getPercentileNanos(0.99) / 1000, getMaxNanos() / 1000
+        );
+    }
+}
@@ -0,0 +1,26 @@
+package com.decnorton.bitecoin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A connected byte stream to a display, e.g. an RFCOMM socket or a simulated serial line.
+ */
+public interface Link {
+
+    public InputStream getInputStream() throws IOException;
+
+    public OutputStream getOutputStream() throws IOException;
+
+    public boolean isConnected();
+
+    public void close() throws IOException;
+
+    /**
+     * Opens a new link each time it's called. Blocks until connected.
+     */
+    public interface Connector {
+        public Link connect() throws IOException;
+    }
+}
@@ -13,11 +13,12 @@ import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.FrameLayout;
 import android.widget.ImageButton;
-import android.widget.LinearLayout;
+import android.widget.ListView;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -25,8 +26,10 @@ import android.widget.Toast;
 import com.decnorton.bitecoin.events.Bluetooth;
 import com.decnorton.bitecoin.events.Shop;
 import com.google.android.gms.common.GooglePlayServicesUtil;
-import com.squareup.otto.Bus;
-import com.squareup.otto.Subscribe;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 import bolts.Continuation;
 import bolts.Task;
@@ -43,15 +46,19 @@ public class MainActivity extends ActionBarActivity implements View.OnClickListe
      */
     private static final int REQUEST_OAUTH = 1;
 
+    private static final String METRICS_FILE = "metrics.txt";
+    private static final String TRACE_FILE = "trace.bin";
+
     /**
      * Helpers
      */
-    private final Bus bus = BusProvider.get();
+    private final EventBus bus = BusProvider.get();
 
     /**
      * Views
      */
-    @InjectView(R.id.main_steps_container) LinearLayout mStepsContainer;
+    @InjectView(R.id.main_summary) TextView mSummaryView;
+    @InjectView(R.id.main_steps_list) ListView mStepsList;
     @InjectView(R.id.main_tracking_progress) ProgressBar mTrackingProgress;
     @InjectView(R.id.main_start_stop_container) FrameLayout mStartStopContainer;
     @InjectView(R.id.main_start_button) Button mStartButton;
@@ -62,24 +69,32 @@ public class MainActivity extends ActionBarActivity implements View.OnClickListe
     @InjectView(R.id.main_bluetooth_send) ImageButton mBluetoothSendView;
 
 
-    // Dialogs
-    private BluetoothDevicesDialog mBluetoothDevicesDialog = BluetoothDevicesDialog.getInstance(this);
+    // Dialogs, made when first shown
+    private BluetoothDevicesDialog mBluetoothDevicesDialog;
 
     // Menu item
     private MenuItem mBluetoothConnectMenuItem;
     private MenuItem mBluetoothDisconnectMenuItem;
 
     /**
-     * Services
+     * Services, set up after the first frame, see {@link #onFirstFrame()}
      */
-    private BluetoothService mBluetoothService = BluetoothService.getInstance();
+    private BluetoothService mBluetoothService;
     private TrackerService mTrackerService;
+    private boolean mIsTrackerServiceBound = false;
 
     ServiceConnection mTrackerServiceConnection = new ServiceConnection() {
 
         @Override
         public void onServiceConnected(ComponentName name, IBinder service) {
             mTrackerService = ((TrackerService.TrackerBinder) service).getService();
+
+            populateSummary();
+
+            if (mReconnectPending) {
+                mReconnectPending = false;
+                mTrackerService.connectClient();
+            }
         }
 
         @Override
@@ -94,9 +109,15 @@ public class MainActivity extends ActionBarActivity implements View.OnClickListe
      */
     private BluetoothDevice mBluetoothDevice;
     private boolean mAuthInProgress = false;
+    private boolean mReconnectPending = false;
     private boolean mIsConnecting = false;
+    private boolean mHasDrawn = false;
+    private boolean mIsResumed = false;
     private int mCurrentTotalSteps = 0;
 
+    private final StepHistory mStepHistory = new StepHistory();
+    private StepHistoryAdapter mStepHistoryAdapter;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -109,29 +130,171 @@ public class MainActivity extends ActionBarActivity implements View.OnClickListe
         mStopButton.setOnClickListener(this);
         mBluetoothSendView.setOnClickListener(this);
 
-        showBluetoothDevicesDialog();
+        mStepHistoryAdapter = new StepHistoryAdapter(this, mStepHistory);
+        mStepsList.setAdapter(mStepHistoryAdapter);
 
         populateViews();
+
+        waitForFirstFrame();
+
+        StartupTrace.mark(StartupTrace.ACTIVITY_CREATED);
+    }
+
+    /**
+     * Calls {@link #onFirstFrame()} once the first frame has been drawn.
+     */
+    private void waitForFirstFrame() {
+        final View decorView = getWindow().getDecorView();
+
+        decorView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+
+                // Runs once the frame that's about to be drawn is done
+                decorView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onFirstFrame();
+                    }
+                });
+
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Everything that isn't needed to draw the screen starts here, rather than in onCreate:
+     * the tracker service with its journal and Fit client, the Bluetooth service, and
+     * reconnecting to the display, with the device dialog and its discovery only if that fails.
+     */
+    private void onFirstFrame() {
+        if (StartupTrace.mark(StartupTrace.FIRST_FRAME)) {
+            long millis = StartupTrace.getMillis(StartupTrace.FIRST_FRAME);
+
+            if (millis > StartupTrace.FIRST_FRAME_BUDGET_MILLIS)
+                Log.w(TAG, "[onFirstFrame] First frame took " + millis + "ms, over the "
+                        + StartupTrace.FIRST_FRAME_BUDGET_MILLIS + "ms budget");
+            else
+                Log.i(TAG, "[onFirstFrame] First frame took " + millis + "ms");
+        }
+
+        mHasDrawn = true;
+
+        if (isFinishing())
+            return;
+
+        startService(new Intent(this, TrackerService.class));
+
+        if (!mIsTrackerServiceBound && mIsResumed)
+            bindTrackerService();
+
+        loadBluetoothService();
+    }
+
+    /**
+     * Gets the Bluetooth service in the background, as making it reads the known devices,
+     * subscribes to the bus and asks the adapter for its state. Then reconnects to a display.
+     */
+    private void loadBluetoothService() {
+        if (mBluetoothService != null)
+            return;
+
+        final Context context = getApplicationContext();
+
+        Task.callInBackground(new Callable<BluetoothService>() {
+            @Override
+            public BluetoothService call() throws Exception {
+                return BluetoothService.getInstance(context);
+            }
+        }).continueWith(new Continuation<BluetoothService, Object>() {
+            @Override
+            public Object then(Task<BluetoothService> task) throws Exception {
+                if (task.isFaulted()) {
+                    Log.e(TAG, "[loadBluetoothService] Couldn't start the Bluetooth service", task.getError());
+                    return null;
+                }
+
+                mBluetoothService = task.getResult();
+                populateViews();
+
+                if (mBluetoothDevice == null)
+                    reconnectToKnownDevice();
+
+                return null;
+            }
+        }, Task.UI_THREAD_EXECUTOR);
+    }
+
+    /**
+     * Goes straight back to a display we've used before, only showing the device dialog, which
+     * scans for displays, if there isn't one or none of them connect.
+     */
+    private void reconnectToKnownDevice() {
+        mIsConnecting = true;
+        populateViews();
+
+        mBluetoothService.reconnectToKnownDevice().continueWith(new Continuation<BluetoothDevice, Object>() {
+            @Override
+            public Object then(Task<BluetoothDevice> task) throws Exception {
+                mIsConnecting = false;
+
+                BluetoothDevice device = task.isFaulted() ? null : task.getResult();
+
+                if (device != null) {
+                    mBluetoothDevice = device;
+                    toast("Reconnected to " + device.getName());
+                } else if (task.isFaulted()) {
+                    Log.e(TAG, "[reconnectToKnownDevice] Couldn't reconnect", task.getError());
+                }
+
+                populateViews();
+
+                // The dialog can't be shown once we've been paused, it's in the menu instead
+                if (mBluetoothDevice == null && mIsResumed)
+                    showBluetoothDevicesDialog();
+
+                return null;
+            }
+        }, Task.UI_THREAD_EXECUTOR);
     }
 
     private void showBluetoothDevicesDialog() {
+        if (mBluetoothDevicesDialog == null)
+            mBluetoothDevicesDialog = BluetoothDevicesDialog.getInstance(this);
+
         mBluetoothDevicesDialog.show(getSupportFragmentManager(), "deviceListDialog");
     }
 
+    private void bindTrackerService() {
+        bindService(new Intent(this, TrackerService.class), mTrackerServiceConnection, Context.BIND_AUTO_CREATE);
+        mIsTrackerServiceBound = true;
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
 
-        bus.register(this);
+        mIsResumed = true;
 
-        bindService(new Intent(this, TrackerService.class), mTrackerServiceConnection, Context.BIND_AUTO_CREATE);
+        subscribe();
+
+        // The first time round this waits for the first frame
+        if (mHasDrawn)
+            bindTrackerService();
     }
 
     @Override
     protected void onPause() {
         super.onPause();
 
-        unbindService(mTrackerServiceConnection);
+        mIsResumed = false;
+
+        if (mIsTrackerServiceBound) {
+            unbindService(mTrackerServiceConnection);
+            mIsTrackerServiceBound = false;
+        }
 
         bus.unregister(this);
     }
@@ -142,7 +305,11 @@ public class MainActivity extends ActionBarActivity implements View.OnClickListe
             mAuthInProgress = false;
 
             if (resultCode == RESULT_OK) {
-                mTrackerService.connectClient();
+                // The service may not be bound yet, e.g. if we were recreated while signing in
+                if (mTrackerService != null)
+                    mTrackerService.connectClient();
+                else
+                    mReconnectPending = true;
             }
         }
     }
@@ -158,7 +325,7 @@ public class MainActivity extends ActionBarActivity implements View.OnClickListe
                         ? "Connecting..."
                         : mBluetoothDevice == null
                         ? "Not connected"
-                        : "Connected: " + mBluetoothDevice.getName()
+                        : "Connected: " + mBluetoothDevice.getName() + getOtherDevicesLabel()
         );
 
         // Set the hint on the message EditText
@@ -175,8 +342,43 @@ public class MainActivity extends ActionBarActivity implements View.OnClickListe
         if (mBluetoothDisconnectMenuItem != null)
             mBluetoothDisconnectMenuItem.setVisible(mBluetoothDevice != null);
 
+        // More displays can be added while connected
         if (mBluetoothConnectMenuItem != null)
-            mBluetoothConnectMenuItem.setVisible(mBluetoothDevice == null);
+            mBluetoothConnectMenuItem.setVisible(true);
+
+        populateSummary();
+    }
+
+    /**
+     * Today's and the last hour's steps from the service's rollup, what's left to spend, and
+     * how often steps are being sampled.
+     */
+    private void populateSummary() {
+        if (mTrackerService == null) {
+            mSummaryView.setVisibility(View.GONE);
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        StepRollup rollup = mTrackerService.getStepRollup();
+        Wallet.Snapshot wallet = mTrackerService.getWalletSnapshot();
+
+        mSummaryView.setText(getString(
+                R.string.main_summary_format,
+                rollup.getStepsToday(now),
+                rollup.getStepsInLastHours(now, 1),
+                wallet.getAvailableSteps(),
+                mTrackerService.getSamplingRate().name
+        ));
+        mSummaryView.setVisibility(View.VISIBLE);
+    }
+
+    private String getOtherDevicesLabel() {
+        if (mBluetoothService == null)
+            return "";
+
+        int others = mBluetoothService.getConnectedDevices().size() - 1;
+        return others > 0 ? " (+" + others + " more)" : "";
     }
 
     @Override
@@ -256,6 +458,42 @@ public class MainActivity extends ActionBarActivity implements View.OnClickListe
         Toast.makeText(this, message, Toast.LENGTH_SHORT).show();
     }
 
+    /**
+     * Writes every metric and the trace rings to files that can be pulled off the phone, to
+     * see which stage a lagging display is waiting on.
+     */
+    private void dumpDiagnostics() {
+        Task.callInBackground(new Callable<File>() {
+            @Override
+            public File call() throws Exception {
+                File dir = getExternalFilesDir(null);
+
+                if (dir == null)
+                    dir = getFilesDir();
+
+                MetricsProvider.get().dump(new File(dir, METRICS_FILE));
+
+                if (TraceRecorder.ENABLED)
+                    TraceRecorder.dump(new File(dir, TRACE_FILE));
+
+                return dir;
+            }
+        }).continueWith(new Continuation<File, Object>() {
+            @Override
+            public Object then(Task<File> task) throws Exception {
+                if (task.isFaulted()) {
+                    Log.e(TAG, "[dumpDiagnostics] Couldn't dump diagnostics", task.getError());
+                    toast("Couldn't dump diagnostics");
+                    return null;
+                }
+
+                toast("Diagnostics written to " + task.getResult().getPath());
+
+                return null;
+            }
+        }, Task.UI_THREAD_EXECUTOR);
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.menu_main, menu);
@@ -269,7 +507,7 @@ public class MainActivity extends ActionBarActivity implements View.OnClickListe
     @Override
     public boolean onPrepareOptionsMenu(Menu menu) {
         mBluetoothDisconnectMenuItem.setVisible(mBluetoothDevice != null);
-        mBluetoothConnectMenuItem.setVisible(mBluetoothDevice == null);
+        mBluetoothConnectMenuItem.setVisible(true);
 
         return super.onPrepareOptionsMenu(menu);
     }
@@ -291,6 +529,10 @@ public class MainActivity extends ActionBarActivity implements View.OnClickListe
                 ShopActivity.show(this);
                 return true;
 
+            case R.id.action_dump_diagnostics:
+                dumpDiagnostics();
+                return true;
+
         }
 
         return super.onOptionsItemSelected(item);
@@ -321,49 +563,77 @@ public class MainActivity extends ActionBarActivity implements View.OnClickListe
 
         mCurrentTotalSteps = totalSteps;
 
-        TextView textView = new TextView(this);
-        textView.setText(String.format("Steps: %d", totalSteps));
-        mStepsContainer.addView(textView);
-    }
-
-    private void updatePixels() {
-        if (mBluetoothService != null && mTrackerService != null)
-            mBluetoothService.sendPixelMessage(mTrackerService.getAvailableSteps());
+        mStepHistory.add(totalSteps, System.currentTimeMillis());
+        mStepHistoryAdapter.notifyDataSetChanged();
     }
 
-    @DebugLog
-    @Subscribe
-    public void onStepsEvent(final TrackerService.StepsEvent event) {
-        runOnUiThread(new Runnable() {
-
-            @Override
-            public void run() {
-                updatePixels();
-                addSteps(event.newSteps, event.totalSteps);
-
-            }
-
-        });
-    }
+    /**
+     * Events
+     */
 
-    @DebugLog
-    @Subscribe
-    public void onPurchaseEvent(Shop.PurchaseEvent event) {
-        updatePixels();
+    private void subscribe() {
+        // All of these touch views, so they run on the UI lane
+        bus.subscribe(this, TrackerService.StepsEvent.class, EventBus.Lane.MAIN,
+                new EventBus.Handler<TrackerService.StepsEvent>() {
+                    @Override
+                    public void onEvent(TrackerService.StepsEvent event) {
+                        onStepsEvent(event);
+                    }
+                });
+
+        bus.subscribe(this, Shop.PurchaseEvent.class, EventBus.Lane.MAIN,
+                new EventBus.Handler<Shop.PurchaseEvent>() {
+                    @Override
+                    public void onEvent(Shop.PurchaseEvent event) {
+                        onPurchaseEvent(event);
+                    }
+                });
+
+        bus.subscribe(this, TrackerService.DataSourceFailedEvent.class, EventBus.Lane.MAIN,
+                new EventBus.Handler<TrackerService.DataSourceFailedEvent>() {
+                    @Override
+                    public void onEvent(TrackerService.DataSourceFailedEvent event) {
+                        onDataSourceFailedEvent(event);
+                    }
+                });
+
+        bus.subscribe(this, TrackerService.ConnectionFailedEvent.class, EventBus.Lane.MAIN,
+                new EventBus.Handler<TrackerService.ConnectionFailedEvent>() {
+                    @Override
+                    public void onEvent(TrackerService.ConnectionFailedEvent event) {
+                        onConnectionFailedEvent(event);
+                    }
+                });
+
+        bus.subscribe(this, Bluetooth.DeviceConnectedEvent.class, EventBus.Lane.MAIN,
+                new EventBus.Handler<Bluetooth.DeviceConnectedEvent>() {
+                    @Override
+                    public void onEvent(Bluetooth.DeviceConnectedEvent event) {
+                        onDeviceConnectedEvent(event);
+                    }
+                });
+
+        bus.subscribe(this, Bluetooth.DeviceDisconnectedEvent.class, EventBus.Lane.MAIN,
+                new EventBus.Handler<Bluetooth.DeviceDisconnectedEvent>() {
+                    @Override
+                    public void onEvent(Bluetooth.DeviceDisconnectedEvent event) {
+                        onDeviceDisconnectedEvent(event);
+                    }
+                });
     }
 
-    @DebugLog
-    @Subscribe
-    public void onTrackingStartedEvent(TrackerService.TrackingStartedEvent event) {
+    public void onStepsEvent(TrackerService.StepsEvent event) {
+        // The display is updated by BluetoothService, which hears about every step too
+        addSteps(event.newSteps, event.totalSteps);
+        populateSummary();
     }
 
-    @DebugLog
-    @Subscribe
-    public void onTrackingStoppedEvent(TrackerService.TrackingStoppedEvent event) {
+    public void onPurchaseEvent(Shop.PurchaseEvent event) {
+        // The display is updated by BluetoothService, which hears about every purchase
+        populateViews();
     }
 
     @DebugLog
-    @Subscribe
     public void onDataSourceFailedEvent(TrackerService.DataSourceFailedEvent event) {
         try {
             event.status.startResolutionForResult(
@@ -376,7 +646,6 @@ public class MainActivity extends ActionBarActivity implements View.OnClickListe
     }
 
     @DebugLog
-    @Subscribe
     public void onConnectionFailedEvent(TrackerService.ConnectionFailedEvent event) {
         if (!event.result.hasResolution()) {
             // Show the localized error dialog
@@ -404,10 +673,22 @@ public class MainActivity extends ActionBarActivity implements View.OnClickListe
         }
     }
 
-    @Subscribe
+    public void onDeviceConnectedEvent(Bluetooth.DeviceConnectedEvent event) {
+        // Reconnects happen in the background, reflect them once they're done
+        if (mIsConnecting || event.device == null)
+            return;
+
+        mBluetoothDevice = event.device;
+        populateViews();
+    }
+
     public void onDeviceDisconnectedEvent(Bluetooth.DeviceDisconnectedEvent event) {
-        if (event.device != null && event.device.equals(mBluetoothDevice)) {
-            mBluetoothDevice = null;
+        if (event.device != null && event.device.equals(mBluetoothDevice) && mBluetoothService != null) {
+            // Fall back to any other display that's still connected
+            List<BluetoothDevice> devices = mBluetoothService.getConnectedDevices();
+            mBluetoothDevice = devices.isEmpty() ? null : devices.get(0);
+            populateViews();
+        } else if (event.device != null) {
             populateViews();
         }
     }
@@ -0,0 +1,147 @@
+package com.decnorton.bitecoin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Named counters, gauges and latency histograms shared by the tracker, the event bus and the
+ * display links, so a slow pixel can be traced back to the stage that held it up.
+ *
+ * Metrics are created on first use and live as long as the registry. Recording is lock-free;
+ * look a metric up once and keep hold of it rather than on every update.
+ *
+ * Names are dotted, stage first, e.g. "display.write" or "steps.delivery". Latencies are in
+ * nanoseconds.
+ */
+public class Metrics {
+
+    private final ConcurrentHashMap<String, Counter> mCounters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Gauge> mGauges = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LatencyHistogram> mHistograms = new ConcurrentHashMap<>();
+
+    public Counter counter(String name) {
+        Counter counter = mCounters.get(name);
+
+        if (counter == null) {
+            Counter created = new Counter();
+            counter = mCounters.putIfAbsent(name, created);
+
+            if (counter == null)
+                counter = created;
+        }
+
+        return counter;
+    }
+
+    public LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = mHistograms.get(name);
+
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = mHistograms.putIfAbsent(name, created);
+
+            if (histogram == null)
+                histogram = created;
+        }
+
+        return histogram;
+    }
+
+    /**
+     * Adds a histogram that's recorded elsewhere, e.g. by the event bus, replacing any other
+     * of the same name.
+     */
+    public void register(String name, LatencyHistogram histogram) {
+        mHistograms.put(name, histogram);
+    }
+
+    /**
+     * Adds a value that's read when a snapshot is taken, replacing any other of the same name.
+     */
+    public void gauge(String name, Gauge gauge) {
+        mGauges.put(name, gauge);
+    }
+
+    public void removeGauge(String name) {
+        mGauges.remove(name);
+    }
+
+    /**
+     * Every metric's current value, sorted by name.
+     */
+    public Map<String, String> snapshot() {
+        Map<String, String> snapshot = new TreeMap<>();
+
+        for (Map.Entry<String, Counter> entry : mCounters.entrySet()) {
+            snapshot.put(entry.getKey(), String.valueOf(entry.getValue().get()));
+        }
+
+        for (Map.Entry<String, Gauge> entry : mGauges.entrySet()) {
+            snapshot.put(entry.getKey(), String.valueOf(entry.getValue().getValue()));
+        }
+
+        for (Map.Entry<String, LatencyHistogram> entry : mHistograms.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().toString());
+        }
+
+        return snapshot;
+    }
+
+    public void dump(Writer writer) throws IOException {
+        writer.write("# metrics at " + System.currentTimeMillis() + "\n");
+
+        for (Map.Entry<String, String> entry : snapshot().entrySet()) {
+            writer.write(entry.getKey());
+            writer.write(": ");
+            writer.write(entry.getValue());
+            writer.write("\n");
+        }
+
+        writer.flush();
+    }
+
+    /**
+     * Writes a snapshot to the given file, replacing it whole so a reader never sees half a
+     * dump.
+     */
+    public void dump(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+
+        try {
+            dump(writer);
+        } finally {
+            writer.close();
+        }
+
+        if (!temp.renameTo(file))
+            throw new IOException("Couldn't replace " + file);
+    }
+
+    public static final class Counter {
+        private final AtomicLong mValue = new AtomicLong();
+
+        public void increment() {
+            mValue.incrementAndGet();
+        }
+
+        public void add(long delta) {
+            mValue.addAndGet(delta);
+        }
+
+        public long get() {
+            return mValue.get();
+        }
+    }
+
+    public interface Gauge {
+        public long getValue();
+    }
+}
@@ -0,0 +1,14 @@
+package com.decnorton.bitecoin;
+
+/**
+ * The app's one {@link Metrics} registry.
+ */
+public class MetricsProvider {
+
+    private static final Metrics instance = new Metrics();
+
+    public static Metrics get() {
+        return instance;
+    }
+
+}
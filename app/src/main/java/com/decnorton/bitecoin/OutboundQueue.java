@@ -0,0 +1,149 @@
+package com.decnorton.bitecoin;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * FIFO queue of outbound commands where keyed commands are coalesced.
+ *
+ * Offering an item under a key that already has an unsent item pending replaces that item
+ * in place, so only the newest state goes out and it keeps its original place in the queue.
+ * Items offered without a key are never coalesced and go out strictly in order.
+ */
+public class OutboundQueue<T> {
+
+    private final ArrayDeque<Slot<T>> mQueue = new ArrayDeque<>();
+    private final Map<Object, Slot<T>> mPendingByKey = new HashMap<>();
+    private final Merger<T> mMerger;
+
+    private long mOfferedCount = 0;
+    private long mCoalescedCount = 0;
+    private long mSentCount = 0;
+
+    public OutboundQueue() {
+        this(null);
+    }
+
+    public OutboundQueue(Merger<T> merger) {
+        mMerger = merger;
+    }
+
+    /**
+     * Queues an item, returning true if it replaced a pending item with the same key.
+     */
+    public synchronized boolean offer(Object key, T item) {
+        mOfferedCount++;
+
+        if (key != null) {
+            Slot<T> pending = mPendingByKey.get(key);
+
+            if (pending != null) {
+                pending.item = mMerger != null ? mMerger.merge(pending.item, item) : item;
+                mCoalescedCount++;
+                return true;
+            }
+        }
+
+        Slot<T> slot = new Slot<>(key, item);
+        mQueue.addLast(slot);
+
+        if (key != null)
+            mPendingByKey.put(key, slot);
+
+        return false;
+    }
+
+    /**
+     * Puts an item that couldn't be sent back at the head of the queue. If a newer item with
+     * the same key has been queued since, the two are merged into the newer one instead.
+     */
+    public synchronized void requeue(Object key, T item) {
+        if (key != null) {
+            Slot<T> pending = mPendingByKey.get(key);
+
+            if (pending != null) {
+                pending.item = mMerger != null ? mMerger.merge(item, pending.item) : pending.item;
+                return;
+            }
+        }
+
+        Slot<T> slot = new Slot<>(key, item);
+        mQueue.addFirst(slot);
+
+        if (key != null)
+            mPendingByKey.put(key, slot);
+    }
+
+    /**
+     * Removes and returns everything still queued, oldest first.
+     */
+    public synchronized List<T> drain() {
+        List<T> items = new ArrayList<>(mQueue.size());
+
+        for (Slot<T> slot : mQueue) {
+            items.add(slot.item);
+        }
+
+        mQueue.clear();
+        mPendingByKey.clear();
+
+        return items;
+    }
+
+    /**
+     * Takes the next item off the queue, or null if it's empty. Once polled an item can no
+     * longer be coalesced.
+     */
+    public synchronized T poll() {
+        Slot<T> slot = mQueue.pollFirst();
+
+        if (slot == null)
+            return null;
+
+        if (slot.key != null)
+            mPendingByKey.remove(slot.key);
+
+        return slot.item;
+    }
+
+    public synchronized void recordSent() {
+        mSentCount++;
+    }
+
+    public synchronized int size() {
+        return mQueue.size();
+    }
+
+    public synchronized long getOfferedCount() {
+        return mOfferedCount;
+    }
+
+    public synchronized long getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+    public synchronized long getSentCount() {
+        return mSentCount;
+    }
+
+    private static final class Slot<T> {
+        final Object key;
+        T item;
+
+        Slot(Object key, T item) {
+            this.key = key;
+            this.item = item;
+        }
+    }
+
+    public interface Merger<T> {
+        /**
+         * Combines a pending item with a newer one for the same key. The result replaces the
+         * pending item in the queue.
+         */
+        public T merge(T pending, T newer);
+    }
+}
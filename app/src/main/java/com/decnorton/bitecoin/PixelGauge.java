@@ -0,0 +1,35 @@
+package com.decnorton.bitecoin;
+
+/**
+ * Draws the steps gauge into a {@link Framebuffer}: the first N pixels lit on a red to green
+ * gradient, the rest off. This used to be decided by the sketch.
+ */
+public class PixelGauge {
+
+    private static final int OFF = 0x000000;
+
+    // Red through yellow to green, for 16 pixels
+    private static final int[] GRADIENT = {
+            0xFF0000, 0xFF3200, 0xFF6000, 0xFF8000,
+            0xFFA000, 0xFFC000, 0xFFE100, 0xFFFF00,
+            0xE1FF00, 0xC0FF00, 0xA0FF00, 0x80FF00,
+            0x60FF00, 0x40FF00, 0x20FF00, 0x00FF00
+    };
+
+    private PixelGauge() {
+    }
+
+    public static void render(Framebuffer framebuffer, int litPixels) {
+        for (int i = 0; i < framebuffer.size(); i++) {
+            framebuffer.set(i, i < litPixels ? colourForIndex(i, framebuffer.size()) : OFF);
+        }
+    }
+
+    /**
+     * Colour of the given pixel, stretching the gradient over however many pixels there are.
+     */
+    public static int colourForIndex(int index, int numPixels) {
+        int step = numPixels <= 1 ? 0 : index * (GRADIENT.length - 1) / (numPixels - 1);
+        return GRADIENT[Math.max(0, Math.min(step, GRADIENT.length - 1))];
+    }
+}
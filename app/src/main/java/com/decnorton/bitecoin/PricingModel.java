@@ -0,0 +1,150 @@
+package com.decnorton.bitecoin;
+
+import java.util.Arrays;
+
+/**
+ * How many steps a food costs, given its calories and the person walking them off.
+ *
+ * The base rate is {@link FoodItem#CALORIES_PER_100_STEPS} for someone of
+ * {@link #DEFAULT_WEIGHT_KG} with a {@link #DEFAULT_STRIDE_METERS} stride. A step burns
+ * calories in proportion to weight and stride, so heavier walkers and longer strides pay fewer
+ * steps for the same food.
+ *
+ * On top of that, rate tiers charge calories above each threshold at a higher multiplier,
+ * like tax bands, so the big treats cost proportionally more.
+ *
+ * Immutable. Prices whole arrays at once with {@link #price(int[], int[])}, see
+ * {@link FoodPricing}.
+ */
+public final class PricingModel {
+
+    public static final float DEFAULT_WEIGHT_KG = 70f;
+    public static final float DEFAULT_STRIDE_METERS = 0.75f;
+
+    // A walking stride is roughly this fraction of someone's height
+    public static final float STRIDE_PER_HEIGHT = 0.415f;
+
+    // Calories at which each tier starts, and what it multiplies the base rate by
+    private static final int[] DEFAULT_TIER_CALORIES = { 0, 200, 500 };
+    private static final double[] DEFAULT_TIER_MULTIPLIERS = { 1, 1.2, 1.5 };
+
+    public static final PricingModel DEFAULT = new PricingModel(
+            DEFAULT_WEIGHT_KG, DEFAULT_STRIDE_METERS, DEFAULT_TIER_CALORIES, DEFAULT_TIER_MULTIPLIERS);
+
+    // Rounding slack, so an exact price doesn't get pushed up a step by a stray bit
+    private static final double EPSILON = 1e-6;
+
+    private final float mWeightKg;
+    private final float mStrideMeters;
+    private final int[] mTierCalories;
+    private final double[] mTierMultipliers;
+
+    // Steps per calorie in each tier
+    private final double[] mTierRates;
+
+    /**
+     * @param tierCalories    ascending, starting at 0
+     * @param tierMultipliers one per tier
+     */
+    public PricingModel(float weightKg, float strideMeters, int[] tierCalories, double[] tierMultipliers) {
+        if (weightKg <= 0 || strideMeters <= 0)
+            throw new IllegalArgumentException("Weight and stride must be positive");
+
+        if (tierCalories.length == 0 || tierCalories.length != tierMultipliers.length || tierCalories[0] != 0)
+            throw new IllegalArgumentException("Tiers must start at 0 calories, with a multiplier each");
+
+        for (int i = 1; i < tierCalories.length; i++) {
+            if (tierCalories[i] <= tierCalories[i - 1])
+                throw new IllegalArgumentException("Tiers must be in ascending order");
+        }
+
+        mWeightKg = weightKg;
+        mStrideMeters = strideMeters;
+        mTierCalories = tierCalories.clone();
+        mTierMultipliers = tierMultipliers.clone();
+
+        double caloriesPer100Steps = FoodItem.CALORIES_PER_100_STEPS
+                * (weightKg / DEFAULT_WEIGHT_KG) * (strideMeters / DEFAULT_STRIDE_METERS);
+
+        mTierRates = new double[tierCalories.length];
+
+        for (int i = 0; i < mTierRates.length; i++) {
+            mTierRates[i] = tierMultipliers[i] * 100 / caloriesPer100Steps;
+        }
+    }
+
+    /**
+     * The default tiers for someone else's build.
+     */
+    public PricingModel withBuild(float weightKg, float strideMeters) {
+        return new PricingModel(weightKg, strideMeters, mTierCalories, mTierMultipliers);
+    }
+
+    /**
+     * An estimate of someone's stride from their height, for when they don't know it.
+     */
+    public static float strideForHeight(float heightMeters) {
+        return heightMeters * STRIDE_PER_HEIGHT;
+    }
+
+    public float getWeightKg() {
+        return mWeightKg;
+    }
+
+    public float getStrideMeters() {
+        return mStrideMeters;
+    }
+
+    /**
+     * The price of a single food, the same as {@link #price(int[], int[])} would give it.
+     */
+    public int stepsFor(int calories) {
+        double steps = 0;
+
+        for (int t = 0; t < mTierRates.length; t++) {
+            steps += Math.max(0, Math.min(calories, upperOf(t)) - mTierCalories[t]) * mTierRates[t];
+        }
+
+        return toSteps(steps);
+    }
+
+    /**
+     * Prices every food at once. Each tier is one flat pass over primitive arrays, with no
+     * branches or objects, so the JIT can vectorise it.
+     *
+     * @param calories one per food
+     * @param steps    filled with one price per food
+     */
+    public void price(int[] calories, int[] steps) {
+        int count = calories.length;
+        double[] total = new double[count];
+
+        for (int t = 0; t < mTierRates.length; t++) {
+            int lower = mTierCalories[t];
+            int upper = upperOf(t);
+            double rate = mTierRates[t];
+
+            for (int i = 0; i < count; i++) {
+                total[i] += Math.max(0, Math.min(calories[i], upper) - lower) * rate;
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            steps[i] = toSteps(total[i]);
+        }
+    }
+
+    private int upperOf(int tier) {
+        return tier + 1 < mTierCalories.length ? mTierCalories[tier + 1] : Integer.MAX_VALUE;
+    }
+
+    private static int toSteps(double steps) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.ceil(steps - EPSILON));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("{ weightKg: %.1f, strideMeters: %.2f, tiers: %s, multipliers: %s }",
+                mWeightKg, mStrideMeters, Arrays.toString(mTierCalories), Arrays.toString(mTierMultipliers));
+    }
+}
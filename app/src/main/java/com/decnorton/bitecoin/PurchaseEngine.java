@@ -0,0 +1,156 @@
+package com.decnorton.bitecoin;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks out a whole cart as one transaction: the wallet is debited for every line or for
+ * none of them, with a single journal entry and a single callback.
+ *
+ * Each checkout carries an idempotency key. Checking out a key that has already gone through
+ * hands back the original receipt, marked as a duplicate, without spending anything, so a
+ * retried or double tapped checkout only ever charges once. The most recent
+ * {@link #MAX_REMEMBERED_KEYS} keys are remembered; failed checkouts aren't, so the same cart
+ * can be tried again once there are enough steps.
+ *
+ * Kept free of Android, like the wallet it spends from.
+ */
+public class PurchaseEngine {
+
+    static final int MAX_REMEMBERED_KEYS = 64;
+
+    private final Wallet mWallet;
+    private final Callback mCallback;
+
+    private volatile WalletJournal mJournal;
+
+    // Guarded by this
+    private final Map<String, Receipt> mReceipts = new LinkedHashMap<String, Receipt>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Receipt> eldest) {
+            return size() > MAX_REMEMBERED_KEYS;
+        }
+    };
+
+    public PurchaseEngine(Wallet wallet, Callback callback) {
+        mWallet = wallet;
+        mCallback = callback;
+    }
+
+    public void setJournal(WalletJournal journal) {
+        mJournal = journal;
+    }
+
+    /**
+     * @param key   idempotency key, the same for every attempt at the same checkout
+     * @param lines what's being bought
+     */
+    public Receipt checkout(String key, List<Cart.Line> lines, long nowMillis) {
+        if (key == null)
+            throw new IllegalArgumentException("Checkout needs an idempotency key");
+
+        Receipt receipt;
+
+        synchronized (this) {
+            Receipt previous = mReceipts.get(key);
+
+            if (previous != null)
+                return previous.asDuplicate();
+
+            receipt = debit(key, lines, nowMillis);
+
+            if (receipt.status != Status.COMPLETED)
+                return receipt;
+
+            mReceipts.put(key, receipt);
+        }
+
+        // Outside the lock, so a slow subscriber can't hold up the next checkout
+        if (mCallback != null)
+            mCallback.onPurchase(receipt);
+
+        return receipt;
+    }
+
+    private Receipt debit(String key, List<Cart.Line> lines, long nowMillis) {
+        if (lines.isEmpty())
+            return new Receipt(key, lines, 0, mWallet.getAvailableSteps(), nowMillis, Status.EMPTY, false);
+
+        long total = 0;
+
+        for (Cart.Line line : lines) {
+            total += line.getSteps();
+        }
+
+        // A single compare-and-set, so the whole cart is paid for or nothing is
+        if (total > Integer.MAX_VALUE || !mWallet.trySpend((int) total))
+            return new Receipt(key, lines, total, mWallet.getAvailableSteps(), nowMillis, Status.INSUFFICIENT_STEPS, false);
+
+        WalletJournal journal = mJournal;
+
+        if (journal != null)
+            journal.appendSpend((int) total, nowMillis);
+
+        return new Receipt(key, lines, total, mWallet.getAvailableSteps(), nowMillis, Status.COMPLETED, false);
+    }
+
+    public enum Status {
+        COMPLETED, INSUFFICIENT_STEPS, EMPTY
+    }
+
+    public static final class Receipt {
+        public final String key;
+        public final List<Cart.Line> lines;
+        public final long totalSteps;
+        public final int availableSteps;
+        public final long timestamp;
+        public final Status status;
+
+        // True if this key had already been checked out, and nothing was spent this time
+        public final boolean isDuplicate;
+
+        Receipt(String key, List<Cart.Line> lines, long totalSteps, int availableSteps, long timestamp,
+                Status status, boolean isDuplicate) {
+            this.key = key;
+            this.lines = Collections.unmodifiableList(lines);
+            this.totalSteps = totalSteps;
+            this.availableSteps = availableSteps;
+            this.timestamp = timestamp;
+            this.status = status;
+            this.isDuplicate = isDuplicate;
+        }
+
+        Receipt asDuplicate() {
+            return new Receipt(key, lines, totalSteps, availableSteps, timestamp, status, true);
+        }
+
+        public boolean isCompleted() {
+            return status == Status.COMPLETED;
+        }
+
+        public int getItemCount() {
+            int count = 0;
+
+            for (Cart.Line line : lines) {
+                count += line.quantity;
+            }
+
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("{ key: %s, status: %s, items: %d, totalSteps: %d, availableSteps: %d, duplicate: %b }",
+                    key, status, getItemCount(), totalSteps, availableSteps, isDuplicate);
+        }
+    }
+
+    public interface Callback {
+        /**
+         * Called once per completed checkout, never for duplicates.
+         */
+        public void onPurchase(Receipt receipt);
+    }
+}
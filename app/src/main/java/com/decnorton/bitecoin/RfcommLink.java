@@ -0,0 +1,82 @@
+package com.decnorton.bitecoin;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+
+/**
+ * A {@link Link} over a Bluetooth serial port (SPP) socket.
+ */
+public class RfcommLink implements Link {
+    private static final String TAG = "RfcommLink";
+
+    // Well known SPP UUID
+    private static final UUID SPP_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+
+    private final BluetoothSocket mSocket;
+
+    private RfcommLink(BluetoothSocket socket) {
+        mSocket = socket;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return mSocket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return mSocket.getOutputStream();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return mSocket.isConnected();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mSocket.close();
+    }
+
+    public static Connector connector(final BluetoothAdapter bluetoothAdapter, final BluetoothDevice device) {
+        return new Connector() {
+            @Override
+            public Link connect() throws IOException {
+                if (bluetoothAdapter == null || !bluetoothAdapter.isEnabled())
+                    throw new IOException("Bluetooth isn't available");
+
+                // Two things are needed to make a connection:
+                //   A MAC address, which we got above.
+                //   A Service ID or UUID.  In this case we are using the
+                //     UUID for SPP.
+                BluetoothSocket socket = device.createRfcommSocketToServiceRecord(SPP_UUID);
+
+                // Discovery is resource intensive.  Make sure it isn't going on
+                // when you attempt to connect and pass your message.
+                bluetoothAdapter.cancelDiscovery();
+
+                // Establish the connection.  This will block until it connects.
+                try {
+                    socket.connect();
+                } catch (IOException e) {
+                    try {
+                        socket.close();
+                    } catch (IOException e2) {
+                        Log.e(TAG, "[connect] Couldn't close socket during connection failure: " + e2.getMessage(), e);
+                    }
+
+                    throw e;
+                }
+
+                return new RfcommLink(socket);
+            }
+        };
+    }
+}
@@ -7,18 +7,18 @@ import android.content.ServiceConnection;
 import android.os.Bundle;
 import android.os.IBinder;
 import android.support.v7.app.ActionBarActivity;
+import android.util.Log;
+import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ListView;
 import android.widget.Toast;
 
-import com.decnorton.bitecoin.events.Shop;
-import com.squareup.otto.Bus;
-
-import java.util.ArrayList;
 import java.util.List;
 
+import bolts.Continuation;
+import bolts.Task;
 import butterknife.ButterKnife;
 import butterknife.InjectView;
 import hugo.weaving.DebugLog;
@@ -26,10 +26,11 @@ import hugo.weaving.DebugLog;
 /**
  * Created by decnorton on 17/03/15.
  */
-public class ShopActivity extends ActionBarActivity implements AdapterView.OnItemClickListener {
+public class ShopActivity extends ActionBarActivity implements AdapterView.OnItemClickListener,
+        BuildDialog.BuildChangedListener {
     private static final String TAG = "ShopActivity";
 
-    private Bus bus = BusProvider.get();
+    private EventBus bus = BusProvider.get();
 
     /**
      * Views
@@ -37,7 +38,9 @@ public class ShopActivity extends ActionBarActivity implements AdapterView.OnIte
     @InjectView(android.R.id.list) ListView mListView;
 
     ShopAdapter mAdapter;
-    List<FoodItem> mFoodItems = new ArrayList<FoodItem>();
+
+    private final Cart mCart = new Cart();
+    private boolean mIsCheckingOut = false;
 
     /**
      * Services
@@ -70,23 +73,21 @@ public class ShopActivity extends ActionBarActivity implements AdapterView.OnIte
 
         ButterKnife.inject(this);
 
-        mAdapter = new ShopAdapter(this, mFoodItems);
+        mAdapter = new ShopAdapter(this);
         mListView.setAdapter(mAdapter);
         mListView.setOnItemClickListener(this);
 
         if (getSupportActionBar() != null) {
             getSupportActionBar().setDisplayHomeAsUpEnabled(true);
         }
+
+        loadCatalog();
     }
 
     @Override
     protected void onResume() {
         super.onResume();
 
-        bus.register(this);
-
-        setFoodItems(createFoodList());
-
         bindService(new Intent(this, TrackerService.class), mTrackerServiceConnection, Context.BIND_AUTO_CREATE);
     }
 
@@ -94,8 +95,6 @@ public class ShopActivity extends ActionBarActivity implements AdapterView.OnIte
     protected void onPause() {
         super.onPause();
 
-        bus.unregister(this);
-
         unbindService(mTrackerServiceConnection);
     }
 
@@ -104,45 +103,160 @@ public class ShopActivity extends ActionBarActivity implements AdapterView.OnIte
         FoodItem item = (FoodItem) parent.getItemAtPosition(position);
 
         if (item != null) {
-            buyFoodItem(item);
+            addToCart(item);
         }
     }
 
+    private void addToCart(FoodItem item) {
+        mCart.add(item);
+
+        toast("Added a " + item.getName() + " to your basket");
+
+        invalidateOptionsMenu();
+    }
+
+    /**
+     * Buys the whole basket in one go. Tapping again while it's going through, or retrying the
+     * same basket, can't charge twice as the basket's key is the same.
+     */
     @DebugLog
-    private void buyFoodItem(FoodItem item) {
-        if (item.getSteps() > mTrackerService.getAvailableSteps()) {
-            toast("You haven't done enough exercise to buy this yet!");
+    private void checkout() {
+        if (mTrackerService == null || mCart.isEmpty())
             return;
-        }
 
-        mTrackerService.spendSteps(item.getSteps());
+        String key = mCart.getKey();
+        List<Cart.Line> lines = mCart.getLines();
+
+        mIsCheckingOut = true;
+        invalidateOptionsMenu();
+
+        // The spend is journalled in the background
+        mTrackerService.checkout(key, lines).continueWith(new Continuation<PurchaseEngine.Receipt, Object>() {
+            @Override
+            public Object then(Task<PurchaseEngine.Receipt> task) throws Exception {
+                mIsCheckingOut = false;
+                invalidateOptionsMenu();
 
-        toast("You've bought a " + item.getName());
+                if (task.isFaulted()) {
+                    Log.e(TAG, "[checkout] Checkout failed", task.getError());
+                    toast("Something went wrong, you haven't been charged");
+                    return null;
+                }
 
-        bus.post(new Shop.PurchaseEvent());
+                onCheckedOut(task.getResult());
 
-        BluetoothService.getInstance().sendPixelMessage(mTrackerService.getAvailableSteps());
+                return null;
+            }
+        }, Task.UI_THREAD_EXECUTOR);
     }
 
-    private List<FoodItem> createFoodList() {
-        List<FoodItem> data = new ArrayList<>();
+    private void onCheckedOut(PurchaseEngine.Receipt receipt) {
+        switch (receipt.status) {
+            case COMPLETED:
+                // Only clear the basket it was for, the user may have added more since
+                if (receipt.key.equals(mCart.getKey()))
+                    mCart.clear();
 
-        data.add(
-                new FoodItem(0, "Apple", 52, R.drawable.food_apple)
-        );
+                if (!receipt.isDuplicate)
+                    toast("You've bought " + receipt.getItemCount() + " items for " + receipt.totalSteps + " steps");
 
-        data.add(
-                new FoodItem(0, "Mars Bar", 260, R.drawable.food_mars_bar)
-        );
+                break;
 
-        return data;
+            case INSUFFICIENT_STEPS:
+                toast("You haven't done enough exercise to buy all this yet!");
+                break;
+        }
+
+        invalidateOptionsMenu();
     }
 
-    private void setFoodItems(List<FoodItem> foodItems) {
-        mFoodItems.clear();
-        mFoodItems.addAll(foodItems);
+    /**
+     * The catalog is loaded and priced once for the whole app, so this is instant after the
+     * first time.
+     */
+    private void loadCatalog() {
+        FoodCatalogProvider.getPricing(this).continueWith(new Continuation<FoodPricing, Object>() {
+            @Override
+            public Object then(Task<FoodPricing> task) throws Exception {
+                if (task.isFaulted()) {
+                    Log.e(TAG, "[loadCatalog] Couldn't load the food catalog", task.getError());
+                    toast("Couldn't load the shop");
+                    return null;
+                }
+
+                if (!isFinishing()) {
+                    FoodPricing pricing = task.getResult();
+                    mAdapter.setWindow(pricing.getCatalog().all(), pricing);
+                }
+
+                return null;
+            }
+        }, Task.UI_THREAD_EXECUTOR);
+    }
 
-        mAdapter.notifyDataSetChanged();
+    /**
+     * Asks for the user's build, starting from the one the shop is priced for.
+     */
+    private void showBuildDialog() {
+        FoodCatalogProvider.getPricing(this).onSuccess(new Continuation<FoodPricing, Object>() {
+            @Override
+            public Object then(Task<FoodPricing> task) throws Exception {
+                if (!isFinishing()) {
+                    BuildDialog.getInstance(task.getResult().getModel(), ShopActivity.this)
+                            .show(getSupportFragmentManager(), "buildDialog");
+                }
+
+                return null;
+            }
+        }, Task.UI_THREAD_EXECUTOR);
+    }
+
+    /**
+     * Re-prices the shop and the basket for the user's new build.
+     */
+    @DebugLog
+    @Override
+    public void onBuildChanged(float weightKg, float strideMeters) {
+        FoodCatalogProvider.setBuild(this, weightKg, strideMeters).continueWith(new Continuation<FoodPricing, Object>() {
+            @Override
+            public Object then(Task<FoodPricing> task) throws Exception {
+                if (task.isFaulted()) {
+                    Log.e(TAG, "[onBuildChanged] Couldn't re-price the shop", task.getError());
+                    toast("Couldn't update the prices");
+                    return null;
+                }
+
+                if (!isFinishing()) {
+                    mCart.reprice(task.getResult());
+                    mAdapter.notifyDataSetChanged();
+                    invalidateOptionsMenu();
+                }
+
+                return null;
+            }
+        }, Task.UI_THREAD_EXECUTOR);
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_shop, menu);
+
+        return super.onCreateOptionsMenu(menu);
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        MenuItem checkout = menu.findItem(R.id.action_checkout);
+
+        checkout.setTitle(getString(R.string.action_checkout_format, mCart.getItemCount(), mCart.getTotalSteps()));
+        checkout.setEnabled(!mCart.isEmpty() && !mIsCheckingOut);
+
+        menu.findItem(R.id.action_clear_basket).setEnabled(!mCart.isEmpty() && !mIsCheckingOut);
+
+        // Re-pricing mid-checkout would change the basket's key under it
+        menu.findItem(R.id.action_your_build).setEnabled(!mIsCheckingOut);
+
+        return super.onPrepareOptionsMenu(menu);
     }
 
     @Override
@@ -151,6 +265,19 @@ public class ShopActivity extends ActionBarActivity implements AdapterView.OnIte
             case android.R.id.home:
                 finish();
                 return true;
+
+            case R.id.action_checkout:
+                checkout();
+                return true;
+
+            case R.id.action_clear_basket:
+                mCart.clear();
+                invalidateOptionsMenu();
+                return true;
+
+            case R.id.action_your_build:
+                showBuildDialog();
+                return true;
         }
 
         return super.onOptionsItemSelected(item);
@@ -4,27 +4,64 @@ import android.content.Context;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-import java.util.List;
-
 import butterknife.ButterKnife;
 import butterknife.InjectView;
 
 /**
  * Created by decnorton on 17/03/15.
+ *
+ * Shows a {@link FoodCatalog.Window}, reading rows straight out of the catalog and its
+ * precomputed {@link FoodPricing}, so the size of the catalog doesn't matter and drawing a
+ * row doesn't make a {@link FoodItem}. Images load in the background through
+ * {@link FoodImageLoader}.
  */
-public class ShopAdapter extends ArrayAdapter<FoodItem> {
+public class ShopAdapter extends BaseAdapter {
     private static final String TAG = "FoodItemAdapter";
 
     private LayoutInflater mInflater;
+    private FoodImageLoader mImageLoader;
+    private int mImageSize;
 
-    public ShopAdapter(Context context, List<FoodItem> objects) {
-        super(context, R.layout.list_item_shop, objects);
+    private FoodCatalog.Window mWindow;
+    private FoodPricing mPricing;
 
+    public ShopAdapter(Context context) {
         mInflater = LayoutInflater.from(context);
+        mImageLoader = FoodImageLoader.get(context);
+        mImageSize = context.getResources().getDimensionPixelSize(R.dimen.shop_image_size);
+    }
+
+    /**
+     * @param window  rows of the pricing's catalog
+     */
+    public void setWindow(FoodCatalog.Window window, FoodPricing pricing) {
+        mWindow = window;
+        mPricing = pricing;
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public int getCount() {
+        return mWindow != null ? mWindow.size() : 0;
+    }
+
+    @Override
+    public FoodItem getItem(int position) {
+        return mPricing.get(mWindow.indexAt(position));
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mWindow.getId(position);
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
     }
 
     @Override
@@ -38,11 +75,12 @@ public class ShopAdapter extends ArrayAdapter<FoodItem> {
             holder = (Holder) v.getTag();
         }
 
-        FoodItem item = getItem(position);
+        FoodCatalog catalog = mPricing.getCatalog();
+        int index = mWindow.indexAt(position);
 
-        holder.name.setText(item.getName());
-        holder.cost.setText(String.valueOf(item.getSteps()));
-        holder.image.setImageResource(item.getImage());
+        holder.name.setText(catalog.getName(index));
+        holder.cost.setText(String.valueOf(mPricing.getSteps(index)));
+        mImageLoader.load(holder.image, catalog.getImage(index), mImageSize, mImageSize);
 
         return v;
     }
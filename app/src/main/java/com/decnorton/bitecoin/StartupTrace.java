@@ -0,0 +1,121 @@
+package com.decnorton.bitecoin;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * When each cold start milestone was reached, counted from {@link #start()} in
+ * {@link BiteCoinApp#onCreate()}.
+ *
+ * Each milestone is recorded once per process, the first time it's marked. They're exported as
+ * "startup.&lt;milestone&gt;_ms" gauges, -1 until reached, and as {@link TraceRecorder#STARTUP}
+ * events, so a dump shows how long a cold start took and what it was waiting on.
+ */
+public final class StartupTrace {
+
+    /**
+     * Milestones
+     */
+    public static final int APP_CREATED = 0;
+    public static final int ACTIVITY_CREATED = 1;
+    public static final int FIRST_FRAME = 2;
+    public static final int WALLET_RESTORED = 3;
+    public static final int FIT_CONNECTED = 4;
+    public static final int FIRST_STEP = 5;
+
+    private static final String[] NAMES = {
+            "app_created", "activity_created", "first_frame", "wallet_restored", "fit_connected",
+            "first_step"
+    };
+
+    /**
+     * What a cold start should fit in, to keep an eye on
+     */
+    public static final long FIRST_FRAME_BUDGET_MILLIS = 400;
+    public static final long FIRST_STEP_BUDGET_MILLIS = 5000;
+
+    private static final long NOT_REACHED = -1;
+
+    // Nanos since start per milestone
+    private static final AtomicLongArray sMilestones = new AtomicLongArray(NAMES.length);
+
+    private static volatile long sStartNanos = 0;
+
+    private StartupTrace() {
+    }
+
+    /**
+     * Starts the clock, as early in the process as possible.
+     */
+    public static synchronized void start(Metrics metrics) {
+        if (sStartNanos != 0)
+            return;
+
+        for (int i = 0; i < NAMES.length; i++) {
+            sMilestones.set(i, NOT_REACHED);
+
+            final int milestone = i;
+
+            metrics.gauge("startup." + NAMES[i] + "_ms", new Metrics.Gauge() {
+                @Override
+                public long getValue() {
+                    return getMillis(milestone);
+                }
+            });
+        }
+
+        sStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Records a milestone if it's the first time it's been reached.
+     *
+     * @return true if this was the first time, with {@link #getMillis(int)} set
+     */
+    public static boolean mark(int milestone) {
+        long start = sStartNanos;
+
+        // Cheap once it's been reached, as it's called on every step
+        if (start == 0 || sMilestones.get(milestone) != NOT_REACHED)
+            return false;
+
+        long elapsed = System.nanoTime() - start;
+
+        if (!sMilestones.compareAndSet(milestone, NOT_REACHED, elapsed))
+            return false;
+
+        if (TraceRecorder.ENABLED)
+            TraceRecorder.record(TraceRecorder.STARTUP, milestone, TimeUnit.NANOSECONDS.toMillis(elapsed));
+
+        return true;
+    }
+
+    /**
+     * @return milliseconds from start to the milestone, or -1 if it hasn't been reached
+     */
+    public static long getMillis(int milestone) {
+        long elapsed = sMilestones.get(milestone);
+        return elapsed == NOT_REACHED ? NOT_REACHED : TimeUnit.NANOSECONDS.toMillis(elapsed);
+    }
+
+    public static String getName(int milestone) {
+        return NAMES[milestone];
+    }
+
+    /**
+     * Every milestone reached so far, e.g. for the log.
+     */
+    public static String summary() {
+        StringBuilder builder = new StringBuilder("{ ");
+
+        for (int i = 0; i < NAMES.length; i++) {
+            if (i > 0)
+                builder.append(", ");
+
+            builder.append(String.format(Locale.US, "%s: %dms", NAMES[i], getMillis(i)));
+        }
+
+        return builder.append(" }").toString();
+    }
+}
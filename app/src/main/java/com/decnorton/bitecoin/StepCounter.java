@@ -0,0 +1,47 @@
+package com.decnorton.bitecoin;
+
+/**
+ * Turns the sensor's cumulative step count into deltas to credit.
+ *
+ * The cumulative count starts again whenever the listener is re-registered, so the first
+ * value seen is only used as a baseline for the session. Steps taken while not tracking aren't
+ * consumed, matching the original behaviour of crediting them once tracking resumes.
+ */
+public class StepCounter {
+
+    private boolean mHasBaseline = false;
+    private int mInitialSteps = 0;
+    private int mSessionSteps = 0;
+
+    /**
+     * Feeds a cumulative reading and returns the number of new steps to credit, or 0.
+     */
+    public int onCumulativeSteps(int cumulativeSteps, boolean isTracking) {
+        if (!mHasBaseline) {
+            mHasBaseline = true;
+            mInitialSteps = cumulativeSteps;
+            mSessionSteps = 0;
+        }
+
+        int sessionSteps = cumulativeSteps - mInitialSteps;
+        int newSteps = sessionSteps - mSessionSteps;
+
+        if (!isTracking || newSteps <= 0)
+            return 0;
+
+        mSessionSteps = sessionSteps;
+
+        return newSteps;
+    }
+
+    /**
+     * Forgets the baseline, so the next reading starts a new session.
+     */
+    public void reset() {
+        mHasBaseline = false;
+    }
+
+    public int getSessionSteps() {
+        return mSessionSteps;
+    }
+}
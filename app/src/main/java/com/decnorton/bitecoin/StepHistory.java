@@ -0,0 +1,78 @@
+package com.decnorton.bitecoin;
+
+/**
+ * Bounded history of step totals, backed by primitive ring buffers.
+ *
+ * Once full, adding a new entry overwrites the oldest, so memory stays fixed however long a
+ * tracking session runs. Index 0 is the oldest entry still held.
+ */
+public class StepHistory {
+
+    public static final int DEFAULT_CAPACITY = 500;
+
+    private final int[] mTotals;
+    private final long[] mTimestamps;
+
+    private int mStart = 0;
+    private int mSize = 0;
+
+    public StepHistory() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public StepHistory(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+
+        mTotals = new int[capacity];
+        mTimestamps = new long[capacity];
+    }
+
+    public void add(int totalSteps, long timestampMillis) {
+        int capacity = mTotals.length;
+        int index;
+
+        if (mSize < capacity) {
+            index = (mStart + mSize) % capacity;
+            mSize++;
+        } else {
+            index = mStart;
+            mStart = (mStart + 1) % capacity;
+        }
+
+        mTotals[index] = totalSteps;
+        mTimestamps[index] = timestampMillis;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int capacity() {
+        return mTotals.length;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public int getTotal(int position) {
+        return mTotals[indexOf(position)];
+    }
+
+    public long getTimestamp(int position) {
+        return mTimestamps[indexOf(position)];
+    }
+
+    public void clear() {
+        mStart = 0;
+        mSize = 0;
+    }
+
+    private int indexOf(int position) {
+        if (position < 0 || position >= mSize)
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + mSize);
+
+        return (mStart + position) % mTotals.length;
+    }
+}
@@ -0,0 +1,66 @@
+package com.decnorton.bitecoin;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import butterknife.ButterKnife;
+import butterknife.InjectView;
+
+/**
+ * Recycling adapter over a {@link StepHistory}, so only the visible rows are ever inflated.
+ */
+public class StepHistoryAdapter extends BaseAdapter {
+    private static final String TAG = "StepHistoryAdapter";
+
+    private final LayoutInflater mInflater;
+    private final StepHistory mHistory;
+
+    public StepHistoryAdapter(Context context, StepHistory history) {
+        mInflater = LayoutInflater.from(context);
+        mHistory = history;
+    }
+
+    @Override
+    public int getCount() {
+        return mHistory.size();
+    }
+
+    @Override
+    public Integer getItem(int position) {
+        return mHistory.getTotal(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mHistory.getTimestamp(position);
+    }
+
+    @Override
+    public View getView(int position, View v, ViewGroup parent) {
+        Holder holder;
+
+        if (v == null) {
+            v = mInflater.inflate(R.layout.list_item_step_history, parent, false);
+            holder = new Holder(v);
+        } else {
+            holder = (Holder) v.getTag();
+        }
+
+        holder.steps.setText(String.format("Steps: %d", mHistory.getTotal(position)));
+
+        return v;
+    }
+
+    static class Holder {
+        @InjectView(R.id.step_history_item) TextView steps;
+
+        private Holder(View view) {
+            ButterKnife.inject(this, view);
+            view.setTag(this);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.decnorton.bitecoin;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Everything that happens to a cumulative step reading once a {@link StepSource} delivers it:
+ * work out the new steps, credit the wallet, record history, journal it, then tell the
+ * callback.
+ *
+ * Each source keeps its own baseline, as every sensor counts from its own starting point.
+ *
+ * Kept free of Android so the service's step handling can be driven from a plain JVM with
+ * an {@link InMemoryStepSource}.
+ */
+public class StepIngestor implements StepSource.Listener {
+
+    private final Map<String, StepCounter> mStepCounters = new HashMap<>();
+    private final Wallet mWallet;
+    private final StepRollup mRollup;
+    private final AdaptiveSampler mSampler;
+    private final Callback mCallback;
+
+    private volatile WalletJournal mJournal;
+
+    private Metrics.Counter mReadingsCounter;
+    private LatencyHistogram mDeliveryHistogram;
+    private LatencyHistogram mIngestHistogram;
+    private volatile boolean mIsTracking = false;
+    private volatile int mLatestNewSteps = 0;
+
+    private long mReadingCount = 0;
+
+    public StepIngestor(Wallet wallet, StepRollup rollup, AdaptiveSampler sampler, Callback callback) {
+        mWallet = wallet;
+        mRollup = rollup;
+        mSampler = sampler;
+        mCallback = callback;
+    }
+
+    @Override
+    public void onCumulativeSteps(String sourceId, int cumulativeSteps, long timestampMillis) {
+        long startNanos = System.nanoTime();
+
+        if (TraceRecorder.ENABLED)
+            TraceRecorder.record(TraceRecorder.STEPS_READING, cumulativeSteps, timestampMillis);
+
+        if (mReadingsCounter != null) {
+            mReadingsCounter.increment();
+
+            // How long the reading took to reach us after the sensor counted it
+            mDeliveryHistogram.record(TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - timestampMillis));
+        }
+
+        ingest(sourceId, cumulativeSteps, timestampMillis);
+
+        if (mIngestHistogram != null)
+            mIngestHistogram.record(System.nanoTime() - startNanos);
+    }
+
+    private void ingest(String sourceId, int cumulativeSteps, long timestampMillis) {
+        int newSteps;
+
+        synchronized (this) {
+            mReadingCount++;
+            StepCounter counter = mStepCounters.get(sourceId);
+
+            if (counter == null) {
+                counter = new StepCounter();
+                mStepCounters.put(sourceId, counter);
+            }
+
+            newSteps = counter.onCumulativeSteps(cumulativeSteps, mIsTracking);
+        }
+
+        if (mSampler != null)
+            mSampler.onSteps(newSteps, timestampMillis);
+
+        if (newSteps <= 0)
+            return;
+
+        mLatestNewSteps = newSteps;
+        mWallet.addSteps(newSteps);
+
+        if (TraceRecorder.ENABLED)
+            TraceRecorder.record(TraceRecorder.STEPS_NEW, newSteps, mWallet.getTotalSteps());
+        mRollup.record(timestampMillis, newSteps);
+
+        WalletJournal journal = mJournal;
+
+        if (journal != null)
+            journal.appendSteps(newSteps, timestampMillis);
+
+        if (mCallback != null)
+            mCallback.onNewSteps(newSteps, mWallet.getTotalSteps(), timestampMillis);
+    }
+
+    public void setTracking(boolean isTracking, long nowMillis) {
+        mIsTracking = isTracking;
+
+        if (mSampler != null)
+            mSampler.setTracking(isTracking, nowMillis);
+    }
+
+    public boolean isTracking() {
+        return mIsTracking;
+    }
+
+    public void setJournal(WalletJournal journal) {
+        mJournal = journal;
+    }
+
+    /**
+     * Records readings as "steps.readings", the sensor-to-us delay as "steps.delivery" and the
+     * time spent handling each as "steps.ingest". Set before the source starts.
+     *
+     * Leave unset for recorded traces, as their timestamps are in the past.
+     */
+    public void setMetrics(Metrics metrics) {
+        mDeliveryHistogram = metrics.histogram("steps.delivery");
+        mIngestHistogram = metrics.histogram("steps.ingest");
+        mReadingsCounter = metrics.counter("steps.readings");
+    }
+
+    /**
+     * Forgets the sensor baseline, so the next reading starts a new session.
+     */
+    public synchronized void resetBaseline() {
+        mStepCounters.clear();
+    }
+
+    public int getLatestNewSteps() {
+        return mLatestNewSteps;
+    }
+
+    public synchronized long getReadingCount() {
+        return mReadingCount;
+    }
+
+    public interface Callback {
+        /**
+         * @param timestampMillis when the sensor counted the steps
+         */
+        public void onNewSteps(int newSteps, int totalSteps, long timestampMillis);
+    }
+}
@@ -0,0 +1,275 @@
+package com.decnorton.bitecoin;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Incremental per-minute, per-hour and per-day step totals.
+ *
+ * Each resolution is a fixed-size ring of primitive buckets, so memory is bounded and
+ * {@link #record(long, int)} is O(1) and allocation-free. Every sample is added to all three
+ * rings at once, which downsamples it as it goes: when a minute falls off the minute ring its
+ * steps are still counted in the hour and day that contain it.
+ *
+ * Day buckets follow local midnight using the UTC offset given at construction.
+ */
+public class StepRollup {
+
+    /**
+     * Constants
+     */
+    public static final int MINUTE_BUCKETS = 120;
+    public static final int HOUR_BUCKETS = 48;
+    public static final int DAY_BUCKETS = 366;
+
+    private static final long MINUTE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private final Ring mMinutes = new Ring(MINUTE_BUCKETS, MINUTE_MILLIS);
+    private final Ring mHours = new Ring(HOUR_BUCKETS, HOUR_MILLIS);
+    private final Ring mDays = new Ring(DAY_BUCKETS, DAY_MILLIS);
+
+    private final long mUtcOffsetMillis;
+
+    private long mTotalSteps = 0;
+
+    public StepRollup() {
+        this(0);
+    }
+
+    public StepRollup(long utcOffsetMillis) {
+        mUtcOffsetMillis = utcOffsetMillis;
+    }
+
+    /**
+     * Adds steps walked at the given time. Samples older than a ring's window are still added
+     * to the coarser rings that cover them.
+     */
+    public synchronized void record(long timestampMillis, int steps) {
+        long local = timestampMillis + mUtcOffsetMillis;
+
+        mMinutes.add(local, steps);
+        mHours.add(local, steps);
+        mDays.add(local, steps);
+
+        mTotalSteps += steps;
+    }
+
+    public synchronized void clear() {
+        mMinutes.clear();
+        mHours.clear();
+        mDays.clear();
+
+        mTotalSteps = 0;
+    }
+
+    /**
+     * Steps recorded over the last {@code minutes} minutes, including the current one.
+     */
+    public synchronized long getStepsInLastMinutes(long nowMillis, int minutes) {
+        return mMinutes.sumLast(nowMillis + mUtcOffsetMillis, minutes);
+    }
+
+    public synchronized long getStepsInLastHours(long nowMillis, int hours) {
+        return mHours.sumLast(nowMillis + mUtcOffsetMillis, hours);
+    }
+
+    public synchronized long getStepsInLastDays(long nowMillis, int days) {
+        return mDays.sumLast(nowMillis + mUtcOffsetMillis, days);
+    }
+
+    /**
+     * Average steps per minute over the last {@code minutes} minutes.
+     */
+    public synchronized float getStepsPerMinute(long nowMillis, int minutes) {
+        if (minutes <= 0)
+            return 0;
+
+        return (float) getStepsInLastMinutes(nowMillis, minutes) / minutes;
+    }
+
+    public synchronized float getStepsPerHour(long nowMillis, int hours) {
+        if (hours <= 0)
+            return 0;
+
+        return (float) getStepsInLastHours(nowMillis, hours) / hours;
+    }
+
+    public synchronized long getStepsToday(long nowMillis) {
+        return getStepsInLastDays(nowMillis, 1);
+    }
+
+    /**
+     * Single bucket lookups, where 0 is the current bucket and 1 the one before it.
+     */
+    public synchronized long getMinute(long nowMillis, int minutesAgo) {
+        return mMinutes.get(nowMillis + mUtcOffsetMillis, minutesAgo);
+    }
+
+    public synchronized long getHour(long nowMillis, int hoursAgo) {
+        return mHours.get(nowMillis + mUtcOffsetMillis, hoursAgo);
+    }
+
+    public synchronized long getDay(long nowMillis, int daysAgo) {
+        return mDays.get(nowMillis + mUtcOffsetMillis, daysAgo);
+    }
+
+    public synchronized long getTotalSteps() {
+        return mTotalSteps;
+    }
+
+    /**
+     * Replaces everything with a copy of another rollup's buckets.
+     */
+    public void copyFrom(StepRollup other) {
+        Ring minutes = new Ring(MINUTE_BUCKETS, MINUTE_MILLIS);
+        Ring hours = new Ring(HOUR_BUCKETS, HOUR_MILLIS);
+        Ring days = new Ring(DAY_BUCKETS, DAY_MILLIS);
+        long totalSteps;
+
+        synchronized (other) {
+            minutes.copyFrom(other.mMinutes);
+            hours.copyFrom(other.mHours);
+            days.copyFrom(other.mDays);
+            totalSteps = other.mTotalSteps;
+        }
+
+        synchronized (this) {
+            mMinutes.copyFrom(minutes);
+            mHours.copyFrom(hours);
+            mDays.copyFrom(days);
+            mTotalSteps = totalSteps;
+        }
+    }
+
+    /**
+     * Writes every bucket, for {@link WalletCheckpoint}.
+     */
+    synchronized void writeTo(DataOutput out) throws IOException {
+        out.writeLong(mTotalSteps);
+
+        mMinutes.writeTo(out);
+        mHours.writeTo(out);
+        mDays.writeTo(out);
+    }
+
+    synchronized void readFrom(DataInput in) throws IOException {
+        mTotalSteps = in.readLong();
+
+        mMinutes.readFrom(in);
+        mHours.readFrom(in);
+        mDays.readFrom(in);
+    }
+
+    /**
+     * Ring of buckets indexed by absolute bucket number (time / bucket size).
+     */
+    private static final class Ring {
+        private final long[] mBuckets;
+        private final long mBucketMillis;
+
+        // Absolute number of the newest bucket, -1 before the first sample
+        private long mHead = -1;
+
+        Ring(int size, long bucketMillis) {
+            mBuckets = new long[size];
+            mBucketMillis = bucketMillis;
+        }
+
+        void add(long timeMillis, int steps) {
+            long bucket = timeMillis / mBucketMillis;
+
+            if (bucket > mHead)
+                advanceTo(bucket);
+
+            // Too old for this resolution
+            if (mHead - bucket >= mBuckets.length)
+                return;
+
+            mBuckets[slot(bucket)] += steps;
+        }
+
+        long get(long nowMillis, int ago) {
+            long bucket = nowMillis / mBucketMillis - ago;
+
+            if (ago < 0 || bucket > mHead || mHead - bucket >= mBuckets.length)
+                return 0;
+
+            return mBuckets[slot(bucket)];
+        }
+
+        long sumLast(long nowMillis, int count) {
+            if (mHead < 0)
+                return 0;
+
+            long newest = Math.min(nowMillis / mBucketMillis, mHead);
+            long oldest = Math.max(nowMillis / mBucketMillis - count + 1, mHead - mBuckets.length + 1);
+
+            long sum = 0;
+
+            for (long bucket = oldest; bucket <= newest; bucket++) {
+                sum += mBuckets[slot(bucket)];
+            }
+
+            return sum;
+        }
+
+        void clear() {
+            for (int i = 0; i < mBuckets.length; i++) {
+                mBuckets[i] = 0;
+            }
+
+            mHead = -1;
+        }
+
+        void copyFrom(Ring other) {
+            System.arraycopy(other.mBuckets, 0, mBuckets, 0, mBuckets.length);
+            mHead = other.mHead;
+        }
+
+        void writeTo(DataOutput out) throws IOException {
+            out.writeLong(mHead);
+            out.writeInt(mBuckets.length);
+
+            for (long steps : mBuckets) {
+                out.writeLong(steps);
+            }
+        }
+
+        void readFrom(DataInput in) throws IOException {
+            long head = in.readLong();
+
+            if (in.readInt() != mBuckets.length)
+                throw new IOException("Bucket count doesn't match");
+
+            for (int i = 0; i < mBuckets.length; i++) {
+                mBuckets[i] = in.readLong();
+            }
+
+            mHead = head;
+        }
+
+        /**
+         * Moves the head forward, zeroing the buckets that are being reused. Bounded by the
+         * ring size however long the gap since the last sample.
+         */
+        private void advanceTo(long bucket) {
+            long gap = mHead < 0 ? mBuckets.length : Math.min(bucket - mHead, mBuckets.length);
+
+            for (long i = 0; i < gap; i++) {
+                mBuckets[slot(bucket - i)] = 0;
+            }
+
+            mHead = bucket;
+        }
+
+        private int slot(long bucket) {
+            // Buckets before the epoch are negative, so keep the slot in range
+            int slot = (int) (bucket % mBuckets.length);
+            return slot < 0 ? slot + mBuckets.length : slot;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.decnorton.bitecoin;
+
+/**
+ * Somewhere cumulative step counts come from, e.g. the Fit sensors or a recorded trace.
+ *
+ * Sources report raw cumulative readings; turning them into steps to credit is left to
+ * {@link StepIngestor}, so every source goes through exactly the same logic.
+ */
+public interface StepSource {
+
+    /**
+     * Starts delivering readings to the listener at the current sampling rate.
+     */
+    public void start(Listener listener);
+
+    /**
+     * Stops delivering readings. The source can be started again afterwards.
+     */
+    public void stop();
+
+    /**
+     * Changes how often readings are taken and how long they may be batched for. Takes effect
+     * straight away if the source is running, otherwise on the next {@link #start(Listener)}.
+     */
+    public void setSamplingRate(SamplingRate rate);
+
+    public SamplingRate getSamplingRate();
+
+    public interface Listener {
+        public void onCumulativeSteps(String sourceId, int cumulativeSteps, long timestampMillis);
+    }
+
+    /**
+     * How often to sample, and how long readings may be held back so they can be delivered
+     * in a batch. Batching lets the sensor hub collect readings without waking the app.
+     */
+    public static final class SamplingRate {
+
+        /**
+         * While steps are coming in.
+         */
+        public static final SamplingRate ACTIVE = new SamplingRate("active", 5000, 0);
+
+        /**
+         * Tracking, but the user hasn't moved for a while.
+         */
+        public static final SamplingRate IDLE = new SamplingRate("idle", 60000, 5 * 60000);
+
+        /**
+         * Not tracking. Readings are still needed to keep the baseline, but nothing is credited.
+         */
+        public static final SamplingRate PAUSED = new SamplingRate("paused", 5 * 60000, 15 * 60000);
+
+        public final String name;
+        public final int periodMillis;
+        public final int maxLatencyMillis;
+
+        public SamplingRate(String name, int periodMillis, int maxLatencyMillis) {
+            if (periodMillis <= 0 || maxLatencyMillis < 0)
+                throw new IllegalArgumentException("Invalid sampling rate: " + periodMillis + "/" + maxLatencyMillis);
+
+            this.name = name;
+            this.periodMillis = periodMillis;
+            this.maxLatencyMillis = maxLatencyMillis;
+        }
+
+        public boolean isBatched() {
+            return maxLatencyMillis > 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("{ name: %s, periodMillis: %d, maxLatencyMillis: %d }", name, periodMillis, maxLatencyMillis);
+        }
+    }
+}
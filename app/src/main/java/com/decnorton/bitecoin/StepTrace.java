@@ -0,0 +1,218 @@
+package com.decnorton.bitecoin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recorded cumulative step readings, for replaying through {@link TraceReplaySource}.
+ *
+ * File layout (little-endian):
+ *
+ *   header (16 bytes): magic, version, record size, record count, source count
+ *   records (16 bytes each):
+ *     0  long  timestamp (ms since epoch)
+ *     8  int   cumulative steps
+ *     12 int   index into the source table
+ *   source table: per source, a short length then the UTF-8 source id
+ *
+ * Records are read straight out of a read-only mapping, so opening even a long trace is cheap.
+ */
+public class StepTrace {
+
+    /**
+     * Constants
+     */
+    private static final int MAGIC = 0x42545431; // "BTT1"
+    private static final short VERSION = 1;
+
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 16;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer mRecords;
+    private final int mRecordCount;
+    private final String[] mSourceIds;
+
+    private StepTrace(ByteBuffer records, int recordCount, String[] sourceIds) {
+        mRecords = records;
+        mRecordCount = recordCount;
+        mSourceIds = sourceIds;
+    }
+
+    public static StepTrace open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+                throw new IOException("Not a step trace: " + file);
+
+            if (buffer.getShort(4) != VERSION || buffer.getShort(6) != RECORD_SIZE)
+                throw new IOException("Unsupported step trace version " + buffer.getShort(4));
+
+            int recordCount = buffer.getInt(8);
+            int sourceCount = buffer.getInt(12);
+
+            long tableOffset = HEADER_SIZE + (long) recordCount * RECORD_SIZE;
+
+            if (recordCount < 0 || sourceCount < 0 || tableOffset > buffer.limit())
+                throw new IOException("Truncated step trace: " + file);
+
+            buffer.position((int) tableOffset);
+
+            String[] sourceIds = new String[sourceCount];
+
+            for (int i = 0; i < sourceCount; i++) {
+                byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+                buffer.get(bytes);
+                sourceIds[i] = new String(bytes, UTF_8);
+            }
+
+            buffer.position(HEADER_SIZE);
+            buffer.limit((int) tableOffset);
+
+            return new StepTrace(buffer.slice().order(ByteOrder.LITTLE_ENDIAN), recordCount, sourceIds);
+        } finally {
+            // The mapping stays valid after the file is closed
+            raf.close();
+        }
+    }
+
+    public int size() {
+        return mRecordCount;
+    }
+
+    public long getTimestamp(int index) {
+        return mRecords.getLong(index * RECORD_SIZE);
+    }
+
+    public int getCumulativeSteps(int index) {
+        return mRecords.getInt(index * RECORD_SIZE + 8);
+    }
+
+    public String getSourceId(int index) {
+        return mSourceIds[mRecords.getInt(index * RECORD_SIZE + 12)];
+    }
+
+    /**
+     * Records readings into a trace file. It's a {@link StepSource.Listener}, so it can be hooked
+     * up to a live source to capture a session.
+     */
+    public static class Writer implements StepSource.Listener {
+
+        private static final int BUFFER_RECORDS = 512;
+
+        private final RandomAccessFile mFile;
+        private final FileChannel mChannel;
+        private final ByteBuffer mBuffer = ByteBuffer.allocate(RECORD_SIZE * BUFFER_RECORDS)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        private final Map<String, Integer> mSourceIndex = new HashMap<>();
+        private final List<String> mSourceIds = new ArrayList<>();
+
+        private int mRecordCount = 0;
+        private boolean mIsClosed = false;
+
+        public Writer(File file) throws IOException {
+            mFile = new RandomAccessFile(file, "rw");
+            mFile.setLength(0);
+            mChannel = mFile.getChannel();
+            mChannel.position(HEADER_SIZE);
+        }
+
+        @Override
+        public void onCumulativeSteps(String sourceId, int cumulativeSteps, long timestampMillis) {
+            try {
+                append(sourceId, cumulativeSteps, timestampMillis);
+            } catch (IOException e) {
+                throw new IllegalStateException("Couldn't write step trace", e);
+            }
+        }
+
+        public synchronized void append(String sourceId, int cumulativeSteps, long timestampMillis) throws IOException {
+            if (mIsClosed)
+                throw new IllegalStateException("Trace is closed");
+
+            if (sourceId == null)
+                sourceId = "";
+
+            Integer index = mSourceIndex.get(sourceId);
+
+            if (index == null) {
+                index = mSourceIds.size();
+                mSourceIndex.put(sourceId, index);
+                mSourceIds.add(sourceId);
+            }
+
+            if (!mBuffer.hasRemaining())
+                writeBuffer();
+
+            mBuffer.putLong(timestampMillis);
+            mBuffer.putInt(cumulativeSteps);
+            mBuffer.putInt(index);
+
+            mRecordCount++;
+        }
+
+        public synchronized int getRecordCount() {
+            return mRecordCount;
+        }
+
+        /**
+         * Writes the source table and header. The trace can't be read until it's closed.
+         */
+        public synchronized void close() throws IOException {
+            if (mIsClosed)
+                return;
+
+            mIsClosed = true;
+
+            try {
+                writeBuffer();
+
+                for (String sourceId : mSourceIds) {
+                    byte[] bytes = sourceId.getBytes(UTF_8);
+                    ByteBuffer entry = ByteBuffer.allocate(2 + bytes.length).order(ByteOrder.LITTLE_ENDIAN);
+                    entry.putShort((short) bytes.length).put(bytes).flip();
+                    writeFully(entry);
+                }
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putShort(VERSION).putShort((short) RECORD_SIZE)
+                        .putInt(mRecordCount).putInt(mSourceIds.size()).flip();
+
+                mChannel.position(0);
+                writeFully(header);
+            } finally {
+                mChannel.close();
+                mFile.close();
+            }
+        }
+
+        private void writeBuffer() throws IOException {
+            mBuffer.flip();
+            writeFully(mBuffer);
+            mBuffer.clear();
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                mChannel.write(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package com.decnorton.bitecoin;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Always-on tracing for the hot paths, where logging would allocate and do I/O on every event.
+ *
+ * Each record is a timestamp, an event id and two longs, written into a preallocated ring
+ * owned by the recording thread, so recording never locks or allocates. Each thread keeps its
+ * last {@link #RING_RECORDS} records. Noisy events can be sampled down with
+ * {@link #setSampleInterval(int, int)}.
+ *
+ * Guard calls with {@link #ENABLED} so they compile away when it's off:
+ *
+ *   if (TraceRecorder.ENABLED)
+ *       TraceRecorder.record(TraceRecorder.FRAME_WRITTEN, sequence, length);
+ *
+ * {@link #dump(File)} writes every ring to a binary file, and {@link #read(File, Visitor)}
+ * decodes one off the phone (see the benchmarks' TraceDecoder).
+ *
+ * File layout, little-endian:
+ *
+ *   header   magic "BTR1", version, record size, record count, event count, thread count,
+ *            wall clock millis and nanoTime at the dump (to line timestamps up with the clock)
+ *   events   id (short), name length (short), UTF-8 name
+ *   threads  index (short), name length (short), UTF-8 name
+ *   records  timestamp nanos (long), event (int), thread index (int), a (long), b (long),
+ *            oldest first
+ */
+public final class TraceRecorder {
+
+    /**
+     * The compile-time switch. Off, guarded calls are stripped out by the compiler.
+     */
+    public static final boolean ENABLED = true;
+
+    /**
+     * Events, and what their two values hold
+     */
+    public static final int STEPS_READING = 1;      // cumulative steps, reading timestamp millis
+    public static final int STEPS_NEW = 2;          // new steps, total steps
+    public static final int PIXELS_RENDERED = 3;    // available steps, lit pixels
+    public static final int FRAME_QUEUED = 4;       // sequence, opcode
+    public static final int FRAME_WRITTEN = 5;      // sequence, bytes
+    public static final int FRAME_ACKED = 6;        // sequence, status
+    public static final int FRAME_UNACKED = 7;      // sequence, attempts
+    public static final int LINK_CONNECTED = 8;     // connect nanos, 0
+    public static final int LINK_FAILED = 9;        // connect nanos, 0
+    public static final int LINK_LOST = 10;         // 0, 0
+    public static final int STARTUP = 11;           // StartupTrace milestone, millis since start
+
+    private static final String[] EVENT_NAMES = {
+            null, "STEPS_READING", "STEPS_NEW", "PIXELS_RENDERED", "FRAME_QUEUED", "FRAME_WRITTEN",
+            "FRAME_ACKED", "FRAME_UNACKED", "LINK_CONNECTED", "LINK_FAILED", "LINK_LOST", "STARTUP"
+    };
+
+    static final int MAX_EVENTS = 64;
+    static final int RING_RECORDS = 1024;
+
+    // Rings of finished threads are dropped past this many, oldest first
+    private static final int MAX_RINGS = 32;
+
+    private static final int MAGIC = 0x31525442; // "BTR1"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 32;
+
+    private static final int WORDS_PER_RECORD = 4;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int[] sSampleIntervals = new int[MAX_EVENTS];
+
+    private static final CopyOnWriteArrayList<Ring> sRings = new CopyOnWriteArrayList<>();
+    private static int sNextThreadIndex = 0;
+
+    private static final ThreadLocal<Ring> sRing = new ThreadLocal<Ring>() {
+        @Override
+        protected Ring initialValue() {
+            return newRing(Thread.currentThread());
+        }
+    };
+
+    static {
+        for (int i = 0; i < MAX_EVENTS; i++) {
+            sSampleIntervals[i] = 1;
+        }
+    }
+
+    private TraceRecorder() {}
+
+    public static void record(int event, long a, long b) {
+        if (!ENABLED)
+            return;
+
+        event &= MAX_EVENTS - 1;
+        sRing.get().record(event, sSampleIntervals[event], a, b);
+    }
+
+    /**
+     * Keeps one in every interval records of the given event, per thread.
+     */
+    public static void setSampleInterval(int event, int interval) {
+        sSampleIntervals[event & (MAX_EVENTS - 1)] = Math.max(1, interval);
+    }
+
+    public static String nameOf(int event) {
+        return event > 0 && event < EVENT_NAMES.length ? EVENT_NAMES[event] : "EVENT_" + event;
+    }
+
+    /**
+     * Writes every thread's ring to the given file. Threads carry on recording meanwhile,
+     * anything they overwrite while it's being copied is left out.
+     *
+     * @return the number of records written
+     */
+    public static int dump(File file) throws IOException {
+        long wallMillis = System.currentTimeMillis();
+        long nanos = System.nanoTime();
+
+        List<Ring> rings = new ArrayList<>(sRings);
+        List<long[]> records = new ArrayList<>();
+
+        for (Ring ring : rings) {
+            ring.copyTo(records);
+        }
+
+        Collections.sort(records, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] lhs, long[] rhs) {
+                return lhs[0] < rhs[0] ? -1 : (lhs[0] == rhs[0] ? 0 : 1);
+            }
+        });
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+        try {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putShort(VERSION).putShort((short) RECORD_SIZE)
+                    .putInt(records.size()).putShort((short) (EVENT_NAMES.length - 1)).putShort((short) rings.size())
+                    .putLong(wallMillis).putLong(nanos).flip();
+            writeFully(channel, header);
+
+            for (int event = 1; event < EVENT_NAMES.length; event++) {
+                writeFully(channel, nameEntry(event, EVENT_NAMES[event]));
+            }
+
+            for (Ring ring : rings) {
+                writeFully(channel, nameEntry(ring.index, ring.threadName));
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 256).order(ByteOrder.LITTLE_ENDIAN);
+
+            for (long[] record : records) {
+                if (!buffer.hasRemaining()) {
+                    buffer.flip();
+                    writeFully(channel, buffer);
+                    buffer.clear();
+                }
+
+                buffer.putLong(record[0]).putInt((int) (record[1] >>> 32)).putInt((int) record[1])
+                        .putLong(record[2]).putLong(record[3]);
+            }
+
+            buffer.flip();
+            writeFully(channel, buffer);
+        } finally {
+            raf.close();
+        }
+
+        return records.size();
+    }
+
+    /**
+     * Decodes a file written by {@link #dump(File)}.
+     */
+    public static void read(File file, Visitor visitor) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+
+        try {
+            read(in, visitor);
+        } finally {
+            in.close();
+        }
+    }
+
+    public static void read(InputStream in, Visitor visitor) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        byte[] bytes = new byte[HEADER_SIZE];
+
+        try {
+            data.readFully(bytes);
+        } catch (EOFException e) {
+            throw new IOException("Not a trace recorder file");
+        }
+
+        ByteBuffer header = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+
+        if (header.getInt() != MAGIC)
+            throw new IOException("Not a trace recorder file");
+
+        int version = header.getShort();
+        int recordSize = header.getShort();
+
+        if (version != VERSION || recordSize != RECORD_SIZE)
+            throw new IOException("Unsupported trace version " + version);
+
+        int recordCount = header.getInt();
+        int eventCount = header.getShort();
+        int threadCount = header.getShort();
+
+        visitor.onHeader(header.getLong(), header.getLong());
+
+        for (int i = 0; i < eventCount; i++) {
+            int id = Short.reverseBytes(data.readShort());
+            visitor.onEventName(id, readName(data));
+        }
+
+        for (int i = 0; i < threadCount; i++) {
+            int index = Short.reverseBytes(data.readShort());
+            visitor.onThreadName(index, readName(data));
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        for (int i = 0; i < recordCount; i++) {
+            data.readFully(record.array());
+            record.rewind();
+
+            visitor.onRecord(record.getLong(), record.getInt(), record.getInt(), record.getLong(), record.getLong());
+        }
+    }
+
+    private static String readName(DataInputStream data) throws IOException {
+        byte[] name = new byte[Short.reverseBytes(data.readShort()) & 0xFFFF];
+        data.readFully(name);
+        return new String(name, UTF_8);
+    }
+
+    private static ByteBuffer nameEntry(int id, String name) {
+        byte[] bytes = name.getBytes(UTF_8);
+        ByteBuffer entry = ByteBuffer.allocate(4 + bytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        entry.putShort((short) id).putShort((short) bytes.length).put(bytes).flip();
+        return entry;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static synchronized Ring newRing(Thread thread) {
+        if (sRings.size() >= MAX_RINGS) {
+            for (Ring ring : sRings) {
+                if (!ring.isAlive()) {
+                    sRings.remove(ring);
+                    break;
+                }
+            }
+        }
+
+        Ring ring = new Ring(sNextThreadIndex++, thread);
+        sRings.add(ring);
+        return ring;
+    }
+
+    /**
+     * One thread's records. Only its own thread writes to it; readers copy it out and throw
+     * away whatever was overwritten while they did.
+     */
+    private static final class Ring {
+        final int index;
+        final String threadName;
+
+        private final WeakReference<Thread> mThread;
+        private final long[] mWords = new long[RING_RECORDS * WORDS_PER_RECORD];
+        private final int[] mSampleCounts = new int[MAX_EVENTS];
+
+        // Records ever written, published after each one
+        private volatile long mWritten = 0;
+
+        Ring(int index, Thread thread) {
+            this.index = index;
+            this.threadName = thread.getName();
+
+            mThread = new WeakReference<>(thread);
+        }
+
+        void record(int event, int sampleInterval, long a, long b) {
+            if (sampleInterval > 1 && mSampleCounts[event]++ % sampleInterval != 0)
+                return;
+
+            long written = mWritten;
+            int offset = (int) (written % RING_RECORDS) * WORDS_PER_RECORD;
+
+            mWords[offset] = System.nanoTime();
+            mWords[offset + 1] = ((long) event << 32) | index;
+            mWords[offset + 2] = a;
+            mWords[offset + 3] = b;
+
+            mWritten = written + 1;
+        }
+
+        void copyTo(List<long[]> records) {
+            long end = mWritten;
+            long start = Math.max(0, end - RING_RECORDS);
+
+            List<long[]> copied = new ArrayList<>((int) (end - start));
+
+            for (long i = start; i < end; i++) {
+                int offset = (int) (i % RING_RECORDS) * WORDS_PER_RECORD;
+                copied.add(new long[] {
+                        mWords[offset], mWords[offset + 1], mWords[offset + 2], mWords[offset + 3]
+                });
+            }
+
+            // If the thread wrote meanwhile, anything it lapped or is overwriting may be torn
+            long written = mWritten;
+            long torn = written == end ? 0 : written - RING_RECORDS + 1 - start;
+
+            for (int i = (int) Math.max(0, torn); i < copied.size(); i++) {
+                records.add(copied.get(i));
+            }
+        }
+
+        boolean isAlive() {
+            Thread thread = mThread.get();
+            return thread != null && thread.isAlive();
+        }
+    }
+
+    public interface Visitor {
+        /**
+         * @param wallMillis  the wall clock when the trace was dumped
+         * @param nanos       {@link System#nanoTime()} at the same moment
+         */
+        public void onHeader(long wallMillis, long nanos);
+
+        public void onEventName(int event, String name);
+
+        public void onThreadName(int thread, String name);
+
+        public void onRecord(long timestampNanos, int event, int thread, long a, long b);
+    }
+}
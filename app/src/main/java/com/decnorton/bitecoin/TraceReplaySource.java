@@ -0,0 +1,172 @@
+package com.decnorton.bitecoin;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link StepSource} that plays back a {@link StepTrace} in its own thread, sped up by a
+ * fixed factor.
+ *
+ * Each reading is due at its offset from the start of the trace divided by the speed-up. The
+ * latency recorded for it runs from when it was due until the listener returns, so it covers
+ * both falling behind schedule and the time spent ingesting it. When the listener can't keep
+ * up, readings are sent back to back, so throughput shows where ingestion tops out.
+ *
+ * The trace's own sampling is kept as recorded, so {@link #setSamplingRate} is only noted.
+ */
+public class TraceReplaySource implements StepSource {
+
+    /**
+     * Constants
+     */
+    public static final double MIN_SPEED = 1;
+    public static final double MAX_SPEED = 10000;
+
+    private final StepTrace mTrace;
+    private final double mSpeed;
+
+    private volatile SamplingRate mRate = SamplingRate.ACTIVE;
+    private volatile boolean mIsStopped = false;
+
+    private Thread mThread;
+    private final CountDownLatch mFinished = new CountDownLatch(1);
+
+    private final Report mReport = new Report();
+
+    public TraceReplaySource(StepTrace trace, double speed) {
+        if (speed < MIN_SPEED || speed > MAX_SPEED)
+            throw new IllegalArgumentException("Speed must be between " + MIN_SPEED + " and " + MAX_SPEED + ": " + speed);
+
+        mTrace = trace;
+        mSpeed = speed;
+    }
+
+    @Override
+    public synchronized void start(final Listener listener) {
+        if (mThread != null)
+            throw new IllegalStateException("Replay has already been started");
+
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    replay(listener);
+                } finally {
+                    mFinished.countDown();
+                }
+            }
+        }, "TraceReplay");
+
+        mThread.start();
+    }
+
+    @Override
+    public void stop() {
+        mIsStopped = true;
+
+        synchronized (this) {
+            if (mThread != null)
+                LockSupport.unpark(mThread);
+        }
+    }
+
+    @Override
+    public void setSamplingRate(SamplingRate rate) {
+        mRate = rate;
+    }
+
+    @Override
+    public SamplingRate getSamplingRate() {
+        return mRate;
+    }
+
+    /**
+     * Waits for the replay to reach the end of the trace or be stopped.
+     *
+     * @return false if it timed out
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        return mFinished.await(timeout, unit);
+    }
+
+    /**
+     * Results so far. Only complete once {@link #awaitCompletion} has returned true.
+     */
+    public Report getReport() {
+        return mReport;
+    }
+
+    private void replay(Listener listener) {
+        int count = mTrace.size();
+
+        if (count == 0)
+            return;
+
+        long firstTimestamp = mTrace.getTimestamp(0);
+        long startNanos = System.nanoTime();
+
+        for (int i = 0; i < count && !mIsStopped; i++) {
+            long offsetMillis = mTrace.getTimestamp(i) - firstTimestamp;
+            long dueNanos = startNanos + (long) (offsetMillis * 1000000L / mSpeed);
+
+            long now;
+
+            while ((now = System.nanoTime()) < dueNanos && !mIsStopped) {
+                LockSupport.parkNanos(dueNanos - now);
+            }
+
+            if (mIsStopped)
+                break;
+
+            listener.onCumulativeSteps(mTrace.getSourceId(i), mTrace.getCumulativeSteps(i), mTrace.getTimestamp(i));
+
+            mReport.record(System.nanoTime() - dueNanos);
+        }
+
+        mReport.finish(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Throughput and due-to-ingested latency for a replay.
+     */
+    public static final class Report {
+
+        private final LatencyHistogram mLatency = new LatencyHistogram();
+
+        private volatile long mElapsedNanos = 0;
+
+        void record(long latencyNanos) {
+            mLatency.record(latencyNanos);
+        }
+
+        void finish(long elapsedNanos) {
+            mElapsedNanos = elapsedNanos;
+        }
+
+        public long getCount() {
+            return mLatency.getCount();
+        }
+
+        public long getElapsedNanos() {
+            return mElapsedNanos;
+        }
+
+        public double getThroughputPerSecond() {
+            long elapsed = mElapsedNanos;
+            return elapsed == 0 ? 0 : getCount() * 1e9 / elapsed;
+        }
+
+        public LatencyHistogram getLatency() {
+            return mLatency;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "{ readings: %d, elapsedMs: %d, perSecond: %.0f, latency: %s }",
+                    getCount(), mElapsedNanos / 1000000, getThroughputPerSecond(), mLatency
+            );
+        }
+    }
+}
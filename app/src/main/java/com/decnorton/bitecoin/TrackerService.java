@@ -7,27 +7,25 @@ import android.os.Bundle;
 import android.os.IBinder;
 import android.util.Log;
 
+import com.decnorton.bitecoin.events.Shop;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.Scopes;
 import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.common.api.Scope;
 import com.google.android.gms.common.api.Status;
 import com.google.android.gms.fitness.Fitness;
-import com.google.android.gms.fitness.data.DataPoint;
-import com.google.android.gms.fitness.data.DataSource;
-import com.google.android.gms.fitness.data.DataType;
-import com.google.android.gms.fitness.data.Field;
-import com.google.android.gms.fitness.data.Value;
-import com.google.android.gms.fitness.request.DataSourcesRequest;
-import com.google.android.gms.fitness.request.OnDataPointListener;
-import com.google.android.gms.fitness.request.SensorRequest;
-import com.google.android.gms.fitness.result.DataSourcesResult;
-import com.squareup.otto.Bus;
-import com.squareup.otto.Produce;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import bolts.Continuation;
+import bolts.Task;
 import hugo.weaving.DebugLog;
 
 /**
@@ -41,10 +39,20 @@ public class TrackerService extends Service {
      */
     private static final int REQUEST_OAUTH = 1;
 
+    private static final String JOURNAL_FILE = "wallet.journal";
+    private static final String CHECKPOINT_FILE = "wallet.checkpoint";
+
+    private static final long CHECKPOINT_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    // A tail longer than this at start up is checkpointed straight away
+    private static final int CHECKPOINT_TAIL_ENTRIES = 1000;
+
+    private static final long IDLE_CHECK_INTERVAL_SECONDS = 30;
+
     /**
      * Helpers
      */
-    private final Bus bus = BusProvider.get();
+    private final EventBus bus = BusProvider.get();
 
     /**
      * Binder
@@ -61,69 +69,95 @@ public class TrackerService extends Service {
 
     private GoogleApiClient mClient = null;
 
-    private boolean mIsTracking = false;
-    private Integer mInitialSteps = null;
-    private int mLatestNewSteps = 0;
-    private int mTotalSteps = 0;
-    private int mSpentSteps = 0;
+    private WalletJournal mJournal;
+    private WalletCheckpointer mCheckpointer;
 
-    OnDataPointListener mStepListener = new OnDataPointListener() {
-        @Override
-        public void onDataPoint(DataPoint dataPoint) {
+    // Completes once the wallet has been restored from storage
+    private Task<Void> mWalletRestored;
 
-            for (Field field : dataPoint.getDataType().getFields()) {
-                Value val = dataPoint.getValue(field);
-                Log.i(TAG, "Detected DataPoint field: " + field.getName());
-                Log.i(TAG, "Detected DataPoint value: " + val);
+    private final long mUtcOffsetMillis = TimeZone.getDefault().getOffset(System.currentTimeMillis());
 
-                if (mInitialSteps == null) {
-                    mInitialSteps = val.asInt();
-                    mTotalSteps = 0;
-                }
+    private final Wallet mWallet = new Wallet();
+    private final StepRollup mRollup = new StepRollup(mUtcOffsetMillis);
 
-                int totalSteps = val.asInt() - mInitialSteps;
+    private PurchaseEngine mPurchaseEngine;
 
-                int latestNewSteps = mLatestNewSteps;
+    private FitStepSource mStepSource;
+    private AdaptiveSampler mSampler;
+    private StepIngestor mIngestor;
 
-                if (latestNewSteps == 0) {
-                    latestNewSteps = totalSteps;
-                } else {
-                    latestNewSteps = totalSteps - latestNewSteps;
-                }
+    /**
+     * Checks for the user going idle, as a quiet sensor won't tell us
+     */
+    private ScheduledExecutorService mIdleCheckExecutor;
 
-                Log.i(TAG, "[onDataPoint] New: " + latestNewSteps);
-                Log.i(TAG, "[onDataPoint] Total: " + totalSteps);
+    @Override
+    public void onCreate() {
+        super.onCreate();
 
-                if (!mIsTracking)
-                    continue;
+        Log.i(TAG, "[onCreate]");
 
-                mLatestNewSteps = latestNewSteps;
-                mTotalSteps = totalSteps;
+        // Hand the current totals to anyone who subscribes to steps later on
+        bus.produce(this, StepsEvent.class, new EventBus.Producer<StepsEvent>() {
+            @Override
+            public StepsEvent produce() {
+                return produceStepsEvent();
+            }
+        });
 
-                bus.post(new StepsEvent(mLatestNewSteps, mTotalSteps));
+        buildFitnessClient();
 
-                // Send event
+        mStepSource = new FitStepSource(mClient);
+        mStepSource.setFailureListener(new FitStepSource.FailureListener() {
+            @Override
+            public void onDataSourcesFailed(Status status) {
+                bus.post(new DataSourceFailedEvent(status));
             }
-        }
-    };
+        });
 
-    @Override
-    public void onCreate() {
-        super.onCreate();
+        mSampler = new AdaptiveSampler(mStepSource);
+        mIngestor = new StepIngestor(mWallet, mRollup, mSampler, new StepIngestor.Callback() {
+            @Override
+            public void onNewSteps(int newSteps, int totalSteps, long timestampMillis) {
+                if (StartupTrace.mark(StartupTrace.FIRST_STEP))
+                    logFirstStep();
 
-        Log.i(TAG, "[onCreate]");
+                // Total and available from the same moment
+                bus.post(new StepsEvent(newSteps, mWallet.snapshot(), timestampMillis));
+            }
+        });
+        mIngestor.setMetrics(MetricsProvider.get());
 
-        bus.register(this);
+        mPurchaseEngine = new PurchaseEngine(mWallet, new PurchaseEngine.Callback() {
+            @Override
+            public void onPurchase(PurchaseEngine.Receipt receipt) {
+                bus.post(new Shop.PurchaseEvent(receipt));
+            }
+        });
 
-        buildFitnessClient();
+        restoreWallet();
+
+        mIdleCheckExecutor = Executors.newSingleThreadScheduledExecutor();
+        mIdleCheckExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                mSampler.checkIdle(System.currentTimeMillis());
+            }
+        }, IDLE_CHECK_INTERVAL_SECONDS, IDLE_CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         Log.i(TAG, "[onStartCommand]");
 
-        // Connect to the Fitness API
-        connectClient();
+        // Connect to the Fitness API, once there's a wallet to put the steps in
+        mWalletRestored.continueWith(new Continuation<Void, Object>() {
+            @Override
+            public Object then(Task<Void> task) throws Exception {
+                connectClient();
+                return null;
+            }
+        }, Task.UI_THREAD_EXECUTOR);
 
         return START_STICKY;
     }
@@ -134,9 +168,20 @@ public class TrackerService extends Service {
 
         Log.i(TAG, "[onDestroy]");
 
+        mIdleCheckExecutor.shutdownNow();
+
         disconnectClient();
 
         bus.unregister(this);
+
+        // Don't close the journal out from under a restore, or block the main thread waiting for it
+        mWalletRestored.continueWith(new Continuation<Void, Object>() {
+            @Override
+            public Object then(Task<Void> task) throws Exception {
+                closeJournal();
+                return null;
+            }
+        }, Task.BACKGROUND_EXECUTOR);
     }
 
     @Override
@@ -149,7 +194,7 @@ public class TrackerService extends Service {
 
         bus.post(new TrackingStartedEvent());
 
-        mIsTracking = true;
+        mIngestor.setTracking(true, System.currentTimeMillis());
     }
 
     public void stopTracking() {
@@ -157,33 +202,175 @@ public class TrackerService extends Service {
 
         bus.post(new TrackingStoppedEvent());
 
-        mIsTracking = false;
+        mIngestor.setTracking(false, System.currentTimeMillis());
     }
 
     public boolean isTracking() {
-        return mIsTracking;
+        return mIngestor.isTracking();
     }
 
     public int getTotalSteps() {
-        return mTotalSteps;
+        return mWallet.getTotalSteps();
     }
 
-    public void resetTotalSteps() {
-        mInitialSteps = null;
+    /**
+     * Resets the total once the wallet has been restored, so the restore can't undo it.
+     */
+    public Task<Void> resetTotalSteps() {
+        return mWalletRestored.continueWith(new Continuation<Void, Void>() {
+            @Override
+            public Void then(Task<Void> task) throws Exception {
+                mIngestor.resetBaseline();
+                mWallet.resetTotal();
+
+                if (mJournal != null)
+                    mJournal.appendReset(System.currentTimeMillis());
+
+                return null;
+            }
+        }, Task.BACKGROUND_EXECUTOR);
     }
 
-    public void spendSteps(int steps) {
-        mSpentSteps += steps;
+    /**
+     * Buys everything in the cart or nothing, once per version of the cart, see
+     * {@link PurchaseEngine}.
+     *
+     * @return a task for the receipt, which runs in the background
+     */
+    public Task<PurchaseEngine.Receipt> checkout(final String key, final List<Cart.Line> lines) {
+        // The balance isn't known until the wallet is restored, and the spend has to be journalled
+        return mWalletRestored.continueWith(new Continuation<Void, PurchaseEngine.Receipt>() {
+            @Override
+            public PurchaseEngine.Receipt then(Task<Void> task) throws Exception {
+                return mPurchaseEngine.checkout(key, lines, System.currentTimeMillis());
+            }
+        }, Task.BACKGROUND_EXECUTOR);
     }
 
     public int getAvailableSteps() {
-        return mTotalSteps - mSpentSteps;
+        return mWallet.getAvailableSteps();
+    }
+
+    /**
+     * The rate steps are currently being sampled at, which follows tracking and activity.
+     */
+    public StepSource.SamplingRate getSamplingRate() {
+        return mStepSource.getSamplingRate();
+    }
+
+    public Wallet.Snapshot getWalletSnapshot() {
+        return mWallet.snapshot();
+    }
+
+    /**
+     * Per-minute, per-hour and per-day step history for rates and windows.
+     */
+    public StepRollup getStepRollup() {
+        return mRollup;
     }
 
     @DebugLog
-    @Produce
     public StepsEvent produceStepsEvent() {
-        return new StepsEvent(mLatestNewSteps, mTotalSteps);
+        return new StepsEvent(mIngestor.getLatestNewSteps(), mWallet.snapshot());
+    }
+
+    /**
+     * Restores the wallet in the background, so reading the journal doesn't hold up the main
+     * thread. Anyone subscribed to steps hears the restored totals when it's done.
+     */
+    private void restoreWallet() {
+        mWalletRestored = Task.callInBackground(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                openJournal();
+
+                StartupTrace.mark(StartupTrace.WALLET_RESTORED);
+                bus.post(produceStepsEvent());
+
+                return null;
+            }
+        });
+    }
+
+    private void closeJournal() {
+        if (mCheckpointer != null) {
+            mCheckpointer.close();
+            mCheckpointer = null;
+        }
+
+        if (mJournal != null) {
+            mJournal.close();
+            mJournal = null;
+        }
+    }
+
+    private void logFirstStep() {
+        long millis = StartupTrace.getMillis(StartupTrace.FIRST_STEP);
+
+        if (millis > StartupTrace.FIRST_STEP_BUDGET_MILLIS)
+            Log.w(TAG, "[logFirstStep] First step took " + millis + "ms, over the "
+                    + StartupTrace.FIRST_STEP_BUDGET_MILLIS + "ms budget: " + StartupTrace.summary());
+        else
+            Log.i(TAG, "[logFirstStep] First step took " + millis + "ms: " + StartupTrace.summary());
+    }
+
+    /**
+     * Opens the wallet journal and rebuilds the totals from the last checkpoint plus the
+     * entries written after it, so a restart doesn't lose the user's steps.
+     */
+    private void openJournal() {
+        long start = System.currentTimeMillis();
+
+        try {
+            mJournal = new WalletJournal(new File(getFilesDir(), JOURNAL_FILE));
+        } catch (IOException e) {
+            Log.e(TAG, "[openJournal] Couldn't open journal: " + e.getMessage(), e);
+            return;
+        }
+
+        File checkpointFile = new File(getFilesDir(), CHECKPOINT_FILE);
+        WalletCheckpoint checkpoint = readCheckpoint(checkpointFile);
+        int checkpointSequence = checkpoint.getSequence();
+
+        mJournal.replayFrom(checkpointSequence + 1, checkpoint);
+
+        mWallet.restore(checkpoint.getTotalSteps(), checkpoint.getSpentSteps());
+        mRollup.copyFrom(checkpoint.getRollup());
+        mIngestor.setJournal(mJournal);
+        mPurchaseEngine.setJournal(mJournal);
+
+        int tail = mJournal.getLastSequence() - checkpointSequence;
+
+        mCheckpointer = new WalletCheckpointer(mJournal, checkpointFile, checkpoint, CHECKPOINT_INTERVAL_MILLIS);
+
+        if (tail > CHECKPOINT_TAIL_ENTRIES)
+            mCheckpointer.checkpointSoon();
+
+        Log.i(TAG, "[openJournal] Restored checkpoint at " + checkpointSequence + " and replayed "
+                + tail + " entries in " + (System.currentTimeMillis() - start) + "ms. Wallet: "
+                + mWallet.snapshot());
+    }
+
+    /**
+     * The last checkpoint, or an empty one to replay the whole journal into if it's missing,
+     * unreadable or ahead of the journal.
+     */
+    private WalletCheckpoint readCheckpoint(File file) {
+        WalletCheckpoint checkpoint = null;
+
+        try {
+            checkpoint = WalletCheckpoint.read(file, mUtcOffsetMillis);
+        } catch (IOException e) {
+            Log.w(TAG, "[readCheckpoint] Ignoring checkpoint: " + e.getMessage());
+        }
+
+        // Entries it covers have been lost from the journal, which will now reuse their numbers
+        if (checkpoint != null && checkpoint.getSequence() > mJournal.getLastSequence()) {
+            Log.w(TAG, "[readCheckpoint] Ignoring checkpoint ahead of the journal: " + checkpoint);
+            checkpoint = null;
+        }
+
+        return checkpoint != null ? checkpoint : new WalletCheckpoint(mUtcOffsetMillis);
     }
 
     /**
@@ -206,10 +393,12 @@ public class TrackerService extends Service {
                             public void onConnected(Bundle bundle) {
                                 Log.i(TAG, "Connected!!!");
 
+                                StartupTrace.mark(StartupTrace.FIT_CONNECTED);
+
                                 // Now you can make calls to the Fitness APIs.
                                 // Put application specific code here.
 
-                                listSensors();
+                                mStepSource.start(mIngestor);
                             }
 
                             @Override
@@ -238,58 +427,6 @@ public class TrackerService extends Service {
                 .build();
     }
 
-    private void listSensors() {
-        Fitness.SensorsApi.findDataSources(
-                mClient,
-                new DataSourcesRequest.Builder()
-                        // At least one datatype must be specified.
-                        .setDataTypes(DataType.TYPE_STEP_COUNT_CUMULATIVE)
-                                // Can specify whether data type is raw or derived.
-                        .setDataSourceTypes(DataSource.TYPE_RAW)
-                        .build()
-        )
-                .setResultCallback(new ResultCallback<DataSourcesResult>() {
-                    @Override
-                    public void onResult(DataSourcesResult dataSourcesResult) {
-                        Log.i(TAG, "[listSensors:onResult] Result: " + dataSourcesResult.getStatus().toString());
-
-                        if (dataSourcesResult.getStatus().hasResolution()) {
-                            bus.post(new DataSourceFailedEvent(dataSourcesResult.getStatus()));
-                            return;
-                        }
-
-                        for (DataSource dataSource : dataSourcesResult.getDataSources()) {
-                            Log.i(TAG, "Data source found: " + dataSource.toString());
-                            Log.i(TAG, "Data Source type: " + dataSource.getDataType().getName());
-                            addStepListener(dataSource);
-                        }
-                    }
-                });
-    }
-
-    private void addStepListener(DataSource dataSource) {
-        Fitness.SensorsApi.add(
-                mClient,
-                new SensorRequest.Builder()
-                        .setDataType(dataSource.getDataType())
-                        .setDataSource(dataSource)
-                        .setSamplingRate(10, TimeUnit.SECONDS)
-                                // Can specify whether data type is raw or derived.
-                        .build(),
-                mStepListener
-        )
-                .setResultCallback(new ResultCallback<Status>() {
-                    @Override
-                    public void onResult(Status status) {
-                        if (status.isSuccess()) {
-                            Log.i(TAG, "Listener registered!");
-                        } else {
-                            Log.i(TAG, "Listener not registered.");
-                        }
-                    }
-                });
-    }
-
     @DebugLog
     public void connectClient() {
         // Make sure the app is not already connected or attempting to connect
@@ -299,6 +436,8 @@ public class TrackerService extends Service {
     }
 
     public void disconnectClient() {
+        mStepSource.stop();
+
         if (mClient.isConnected()) {
             mClient.disconnect();
         }
@@ -316,14 +455,27 @@ public class TrackerService extends Service {
         public final int newSteps;
         public final int totalSteps;
 
-        public StepsEvent(int newSteps, int totalSteps) {
+        // What's left to spend, which is what the display shows
+        public final int availableSteps;
+
+        // When the sensor counted the new steps, or 0 if it's not from a reading
+        public final long readingTimestamp;
+
+        public StepsEvent(int newSteps, Wallet.Snapshot wallet) {
+            this(newSteps, wallet, 0);
+        }
+
+        public StepsEvent(int newSteps, Wallet.Snapshot wallet, long readingTimestamp) {
             this.newSteps = newSteps;
-            this.totalSteps = totalSteps;
+            this.totalSteps = wallet.totalSteps;
+            this.availableSteps = wallet.getAvailableSteps();
+            this.readingTimestamp = readingTimestamp;
         }
 
         @Override
         public String toString() {
-            return String.format("{ newSteps: %d, totalSteps: %d }", newSteps, totalSteps);
+            return String.format("{ newSteps: %d, totalSteps: %d, availableSteps: %d }",
+                    newSteps, totalSteps, availableSteps);
         }
     }
 
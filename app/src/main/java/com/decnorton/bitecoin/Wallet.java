@@ -0,0 +1,123 @@
+package com.decnorton.bitecoin;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free step wallet.
+ *
+ * Total and spent steps are packed into a single {@link AtomicLong} (total in the high 32 bits,
+ * spent in the low 32 bits), so every read is a consistent snapshot and {@link #trySpend(int)}
+ * is a single compare-and-set against the balance it checked.
+ */
+public class Wallet {
+
+    private final AtomicLong mState = new AtomicLong();
+
+    public Wallet() {
+    }
+
+    public Wallet(int totalSteps, int spentSteps) {
+        mState.set(pack(totalSteps, spentSteps));
+    }
+
+    /**
+     * Overwrites the balance, e.g. with totals replayed from storage.
+     */
+    public void restore(int totalSteps, int spentSteps) {
+        mState.set(pack(totalSteps, spentSteps));
+    }
+
+    /**
+     * Credits newly walked steps. Never blocks, only retries if another thread got in first.
+     */
+    public void addSteps(int steps) {
+        if (steps < 0)
+            throw new IllegalArgumentException("Steps must be positive: " + steps);
+
+        while (true) {
+            long state = mState.get();
+
+            if (mState.compareAndSet(state, pack(totalOf(state) + steps, spentOf(state))))
+                return;
+        }
+    }
+
+    /**
+     * Spends steps if, and only if, enough are available at the moment of the spend.
+     */
+    public boolean trySpend(int steps) {
+        if (steps < 0)
+            throw new IllegalArgumentException("Steps must be positive: " + steps);
+
+        while (true) {
+            long state = mState.get();
+
+            if (totalOf(state) - spentOf(state) < steps)
+                return false;
+
+            if (mState.compareAndSet(state, pack(totalOf(state), spentOf(state) + steps)))
+                return true;
+        }
+    }
+
+    /**
+     * Zeroes the walked total, leaving what has been spent untouched.
+     */
+    public void resetTotal() {
+        while (true) {
+            long state = mState.get();
+
+            if (mState.compareAndSet(state, pack(0, spentOf(state))))
+                return;
+        }
+    }
+
+    public int getTotalSteps() {
+        return totalOf(mState.get());
+    }
+
+    public int getSpentSteps() {
+        return spentOf(mState.get());
+    }
+
+    public int getAvailableSteps() {
+        long state = mState.get();
+        return totalOf(state) - spentOf(state);
+    }
+
+    public Snapshot snapshot() {
+        long state = mState.get();
+        return new Snapshot(totalOf(state), spentOf(state));
+    }
+
+    private static long pack(int total, int spent) {
+        return ((long) total << 32) | (spent & 0xFFFFFFFFL);
+    }
+
+    private static int totalOf(long state) {
+        return (int) (state >>> 32);
+    }
+
+    private static int spentOf(long state) {
+        return (int) state;
+    }
+
+    public static final class Snapshot {
+        public final int totalSteps;
+        public final int spentSteps;
+
+        Snapshot(int totalSteps, int spentSteps) {
+            this.totalSteps = totalSteps;
+            this.spentSteps = spentSteps;
+        }
+
+        public int getAvailableSteps() {
+            return totalSteps - spentSteps;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("{ totalSteps: %d, spentSteps: %d }", totalSteps, spentSteps);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.decnorton.bitecoin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+/**
+ * The wallet as of a point in the {@link WalletJournal}, so a cold start only has to replay the
+ * entries written after it.
+ *
+ * It's a journal {@link WalletJournal.Visitor}: feed it entries and it keeps up, skipping any
+ * it has already seen.
+ *
+ * File layout (big-endian):
+ *
+ *   header (16 bytes):
+ *     0  int   magic
+ *     4  short version
+ *     6  short reserved
+ *     8  int   payload length
+ *     12 int   CRC32 of the payload
+ *   payload:
+ *     int  last journal sequence included
+ *     int  total steps
+ *     int  spent steps
+ *     int  number of resets
+ *     long time of the last reset (ms since epoch), or 0
+ *     long time of the last entry (ms since epoch), or 0
+ *     the {@link StepRollup}'s buckets
+ *
+ * Files are written to a temporary file then renamed over the old one, so a checkpoint is
+ * either all there or not there at all.
+ */
+public class WalletCheckpoint implements WalletJournal.Visitor {
+
+    private static final int MAGIC = 0x42545331; // "BTS1"
+    private static final short VERSION = 1;
+
+    // Well over a full rollup, anything bigger isn't one of ours
+    private static final int MAX_PAYLOAD_SIZE = 64 * 1024;
+
+    private final StepRollup mRollup;
+
+    private int mSequence = 0;
+    private int mTotalSteps = 0;
+    private int mSpentSteps = 0;
+    private int mResetCount = 0;
+    private long mLastResetMillis = 0;
+    private long mLastEntryMillis = 0;
+
+    public WalletCheckpoint(long utcOffsetMillis) {
+        mRollup = new StepRollup(utcOffsetMillis);
+    }
+
+    @Override
+    public void onEntry(int sequence, byte type, int amount, long timestamp) {
+        if (sequence <= mSequence)
+            return;
+
+        switch (type) {
+            case WalletJournal.TYPE_STEPS:
+                mTotalSteps += amount;
+                mRollup.record(timestamp, amount);
+                break;
+
+            case WalletJournal.TYPE_SPEND:
+                mSpentSteps += amount;
+                break;
+
+            case WalletJournal.TYPE_RESET:
+                mTotalSteps = 0;
+                mResetCount++;
+                mLastResetMillis = timestamp;
+                break;
+        }
+
+        mSequence = sequence;
+        mLastEntryMillis = timestamp;
+    }
+
+    /**
+     * The last journal entry included, or 0 for none.
+     */
+    public int getSequence() {
+        return mSequence;
+    }
+
+    public int getTotalSteps() {
+        return mTotalSteps;
+    }
+
+    public int getSpentSteps() {
+        return mSpentSteps;
+    }
+
+    public int getResetCount() {
+        return mResetCount;
+    }
+
+    public long getLastResetMillis() {
+        return mLastResetMillis;
+    }
+
+    public StepRollup getRollup() {
+        return mRollup;
+    }
+
+    /**
+     * Writes the checkpoint to storage, replacing any older one.
+     */
+    public void write(File file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8 * 1024);
+        DataOutputStream payload = new DataOutputStream(bytes);
+
+        payload.writeInt(mSequence);
+        payload.writeInt(mTotalSteps);
+        payload.writeInt(mSpentSteps);
+        payload.writeInt(mResetCount);
+        payload.writeLong(mLastResetMillis);
+        payload.writeLong(mLastEntryMillis);
+        mRollup.writeTo(payload);
+        payload.flush();
+
+        byte[] data = bytes.toByteArray();
+
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+
+        try {
+            DataOutputStream header = new DataOutputStream(out);
+            header.writeInt(MAGIC);
+            header.writeShort(VERSION);
+            header.writeShort(0);
+            header.writeInt(data.length);
+            header.writeInt(checksum(data));
+            header.write(data);
+            header.flush();
+
+            // Make sure it's on storage before it replaces the old one
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(file))
+            throw new IOException("Couldn't replace " + file);
+    }
+
+    /**
+     * @return the checkpoint in the file, or null if there isn't one
+     * @throws IOException if it's unreadable, a different version or fails its checksum
+     */
+    public static WalletCheckpoint read(File file, long utcOffsetMillis) throws IOException {
+        if (!file.exists())
+            return null;
+
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a wallet checkpoint");
+
+            short version = in.readShort();
+
+            if (version != VERSION)
+                throw new IOException("Unsupported checkpoint version " + version);
+
+            in.readShort();
+
+            int length = in.readInt();
+            int crc = in.readInt();
+
+            if (length < 0 || length > MAX_PAYLOAD_SIZE)
+                throw new IOException("Bad checkpoint length " + length);
+
+            byte[] data = new byte[length];
+            in.readFully(data);
+
+            if (checksum(data) != crc)
+                throw new IOException("Checkpoint failed its checksum");
+
+            DataInputStream payload = new DataInputStream(new ByteArrayInputStream(data));
+            WalletCheckpoint checkpoint = new WalletCheckpoint(utcOffsetMillis);
+
+            checkpoint.mSequence = payload.readInt();
+            checkpoint.mTotalSteps = payload.readInt();
+            checkpoint.mSpentSteps = payload.readInt();
+            checkpoint.mResetCount = payload.readInt();
+            checkpoint.mLastResetMillis = payload.readLong();
+            checkpoint.mLastEntryMillis = payload.readLong();
+            checkpoint.mRollup.readFrom(payload);
+
+            return checkpoint;
+        } catch (EOFException e) {
+            throw new IOException("Checkpoint is truncated", e);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static int checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return (int) crc.getValue();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("{ sequence: %d, totalSteps: %d, spentSteps: %d, resets: %d }",
+                mSequence, mTotalSteps, mSpentSteps, mResetCount);
+    }
+}
@@ -0,0 +1,94 @@
+package com.decnorton.bitecoin;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a {@link WalletCheckpoint} up to date in the background.
+ *
+ * Every interval it replays the journal entries written since the last checkpoint into its own
+ * copy of the wallet and writes that out. It never touches the live wallet or takes the
+ * journal's lock while replaying, so step ingestion carries on as normal, and because the
+ * copy is built from the journal it always matches a single point in it.
+ */
+public class WalletCheckpointer {
+    private static final String TAG = "WalletCheckpointer";
+
+    private final WalletJournal mJournal;
+    private final File mFile;
+
+    // Only used on the executor's thread once started
+    private final WalletCheckpoint mCheckpoint;
+    private int mWrittenSequence;
+
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * @param checkpoint where the journal has been replayed up to, or what was loaded; it's
+     *                   written out again once there are new entries
+     */
+    public WalletCheckpointer(WalletJournal journal, File file, WalletCheckpoint checkpoint, long intervalMillis) {
+        mJournal = journal;
+        mFile = file;
+        mCheckpoint = checkpoint;
+        mWrittenSequence = -1;
+
+        mExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                checkpoint();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Checkpoints as soon as possible rather than waiting for the interval.
+     */
+    public void checkpointSoon() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                checkpoint();
+            }
+        });
+    }
+
+    /**
+     * Stops checkpointing, waiting for one that's being written to finish.
+     */
+    public void close() {
+        mExecutor.shutdownNow();
+
+        try {
+            mExecutor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void checkpoint() {
+        long start = System.currentTimeMillis();
+
+        mJournal.replayFrom(mCheckpoint.getSequence() + 1, mCheckpoint);
+
+        if (mCheckpoint.getSequence() == mWrittenSequence)
+            return;
+
+        try {
+            mCheckpoint.write(mFile);
+            mWrittenSequence = mCheckpoint.getSequence();
+        } catch (IOException e) {
+            // The journal still has everything, try again next time
+            Log.e(TAG, "[checkpoint] Couldn't write checkpoint: " + e.getMessage(), e);
+            return;
+        }
+
+        Log.i(TAG, "[checkpoint] Checkpointed " + mCheckpoint + " in "
+                + (System.currentTimeMillis() - start) + "ms");
+    }
+}
@@ -0,0 +1,308 @@
+package com.decnorton.bitecoin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, memory-mapped journal of wallet changes.
+ *
+ * File layout:
+ *
+ *   header (16 bytes): magic, version, entry size
+ *   entries (24 bytes each):
+ *     0  int   sequence number, starting at 1
+ *     4  byte  entry type
+ *     8  int   amount
+ *     12 long  timestamp (ms since epoch)
+ *     20 int   CRC32 of bytes 0 - 19
+ *
+ * Writes go straight into the mapping, so they survive the process being killed. Forcing them
+ * to storage is batched: a background flush runs at most once per flush interval, or
+ * immediately on {@link #sync()}.
+ *
+ * Recovery replays entries until the first one with a bad checksum or an unexpected sequence
+ * number, which is where a torn write would be. Appends then carry on from that point.
+ *
+ * Written entries never change, so replays read them without holding the journal's lock and
+ * don't hold up appends, see {@link WalletCheckpointer}.
+ */
+public class WalletJournal {
+
+    /**
+     * Constants
+     */
+    public static final byte TYPE_STEPS = 1;
+    public static final byte TYPE_SPEND = 2;
+    public static final byte TYPE_RESET = 3;
+
+    private static final int MAGIC = 0x42544A31; // "BTJ1"
+    private static final short VERSION = 1;
+
+    static final int HEADER_SIZE = 16;
+    static final int ENTRY_SIZE = 24;
+
+    private static final int CRC_OFFSET = 20;
+
+    private static final long INITIAL_CAPACITY = HEADER_SIZE + ENTRY_SIZE * 4096L;
+    private static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final CRC32 mCrc = new CRC32();
+    private final byte[] mScratch = new byte[CRC_OFFSET];
+
+    private final ScheduledExecutorService mFlusher;
+
+    private MappedByteBuffer mBuffer;
+    private ByteBuffer mReader;
+    private long mCapacity;
+    private long mPosition;
+    private int mNextSequence;
+
+    private boolean mDirty = false;
+    private boolean mIsClosed = false;
+
+    private long mTornBytes = 0;
+
+    public WalletJournal(File file) throws IOException {
+        this(file, DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    public WalletJournal(File file, long flushIntervalMillis) throws IOException {
+        mFile = new RandomAccessFile(file, "rw");
+        mChannel = mFile.getChannel();
+
+        long length = mChannel.size();
+
+        map(Math.max(length, INITIAL_CAPACITY));
+
+        if (length < HEADER_SIZE || mBuffer.getInt(0) != MAGIC) {
+            writeHeader();
+        } else if (mBuffer.getShort(4) != VERSION || mBuffer.getShort(6) != ENTRY_SIZE) {
+            close();
+            throw new IOException("Unsupported journal version " + mBuffer.getShort(4));
+        }
+
+        recover();
+
+        mFlusher = Executors.newSingleThreadScheduledExecutor();
+        mFlusher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void appendSteps(int delta, long timestamp) {
+        append(TYPE_STEPS, delta, timestamp);
+    }
+
+    public synchronized void appendSpend(int amount, long timestamp) {
+        append(TYPE_SPEND, amount, timestamp);
+    }
+
+    public synchronized void appendReset(long timestamp) {
+        append(TYPE_RESET, 0, timestamp);
+    }
+
+    /**
+     * Replays every valid entry, oldest first.
+     */
+    public void replay(Visitor visitor) {
+        replayFrom(1, visitor);
+    }
+
+    /**
+     * Replays valid entries starting at the given sequence number, up to the last one appended
+     * when it was called.
+     *
+     * Only the end of the journal is read under the lock, so appends carry on while the
+     * visitor runs.
+     */
+    public void replayFrom(int sequence, Visitor visitor) {
+        ByteBuffer buffer;
+        long end;
+
+        synchronized (this) {
+            // Growing swaps the mapping, but the old one still maps the same entries
+            buffer = mBuffer;
+            end = mPosition;
+        }
+
+        for (long pos = offsetOf(Math.max(sequence, 1)); pos < end; pos += ENTRY_SIZE) {
+            int p = (int) pos;
+
+            visitor.onEntry(
+                    buffer.getInt(p),
+                    buffer.get(p + 4),
+                    buffer.getInt(p + 8),
+                    buffer.getLong(p + 12)
+            );
+        }
+    }
+
+    /**
+     * Sequence number of the last valid entry, or 0 if the journal is empty.
+     */
+    public synchronized int getLastSequence() {
+        return mNextSequence - 1;
+    }
+
+    public synchronized int getEntryCount() {
+        return mNextSequence - 1;
+    }
+
+    /**
+     * Number of bytes of entries discarded after the last valid one when the journal was opened.
+     */
+    public synchronized long getTornBytes() {
+        return mTornBytes;
+    }
+
+    /**
+     * Forces all appended entries to storage now.
+     */
+    public synchronized void sync() {
+        if (mIsClosed)
+            return;
+
+        mBuffer.force();
+        mDirty = false;
+    }
+
+    public synchronized void close() {
+        if (mIsClosed)
+            return;
+
+        if (mFlusher != null)
+            mFlusher.shutdown();
+
+        mBuffer.force();
+        mIsClosed = true;
+
+        try {
+            mChannel.close();
+            mFile.close();
+        } catch (IOException e) {
+            // Nothing left to do with it
+        }
+    }
+
+    private synchronized void flush() {
+        if (mDirty)
+            sync();
+    }
+
+    private void append(byte type, int amount, long timestamp) {
+        if (mIsClosed)
+            throw new IllegalStateException("Journal is closed");
+
+        if (mPosition + ENTRY_SIZE > mCapacity)
+            grow();
+
+        int p = (int) mPosition;
+
+        mBuffer.putInt(p, mNextSequence);
+        mBuffer.put(p + 4, type);
+        mBuffer.put(p + 5, (byte) 0);
+        mBuffer.putShort(p + 6, (short) 0);
+        mBuffer.putInt(p + 8, amount);
+        mBuffer.putLong(p + 12, timestamp);
+        mBuffer.putInt(p + CRC_OFFSET, checksum(p));
+
+        mPosition += ENTRY_SIZE;
+        mNextSequence++;
+        mDirty = true;
+    }
+
+    private void recover() {
+        long pos = HEADER_SIZE;
+        int expected = 1;
+
+        while (pos + ENTRY_SIZE <= mCapacity) {
+            int p = (int) pos;
+
+            if (mBuffer.getInt(p) != expected || mBuffer.getInt(p + CRC_OFFSET) != checksum(p))
+                break;
+
+            pos += ENTRY_SIZE;
+            expected++;
+        }
+
+        mPosition = pos;
+        mNextSequence = expected;
+
+        // Wipe everything after the last valid entry, not just the torn one. Entries left over
+        // from a longer log carry on with the sequence numbers we're about to reuse, so once
+        // new appends reach them a later recovery would replay them as if they were ours.
+        for (; pos + ENTRY_SIZE <= mCapacity; pos += ENTRY_SIZE) {
+            int p = (int) pos;
+
+            if (mBuffer.getLong(p) == 0 && mBuffer.getLong(p + 8) == 0 && mBuffer.getLong(p + 16) == 0)
+                continue;
+
+            mBuffer.putLong(p, 0);
+            mBuffer.putLong(p + 8, 0);
+            mBuffer.putLong(p + 16, 0);
+
+            mTornBytes += ENTRY_SIZE;
+            mDirty = true;
+        }
+    }
+
+    private int checksum(int position) {
+        mReader.position(position);
+        mReader.get(mScratch, 0, CRC_OFFSET);
+
+        mCrc.reset();
+        mCrc.update(mScratch, 0, CRC_OFFSET);
+
+        return (int) mCrc.getValue();
+    }
+
+    private void writeHeader() {
+        mBuffer.putInt(0, MAGIC);
+        mBuffer.putShort(4, VERSION);
+        mBuffer.putShort(6, (short) ENTRY_SIZE);
+        mBuffer.putLong(8, 0);
+        mBuffer.force();
+    }
+
+    private void grow() {
+        mBuffer.force();
+
+        try {
+            map(mCapacity * 2);
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't grow journal", e);
+        }
+    }
+
+    private void map(long capacity) throws IOException {
+        if (capacity > Integer.MAX_VALUE)
+            throw new IOException("Journal too large");
+
+        mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        mReader = mBuffer.duplicate();
+        mCapacity = capacity;
+    }
+
+    private static long offsetOf(int sequence) {
+        return HEADER_SIZE + (long) (sequence - 1) * ENTRY_SIZE;
+    }
+
+    public interface Visitor {
+        public void onEntry(int sequence, byte type, int amount, long timestamp);
+    }
+}
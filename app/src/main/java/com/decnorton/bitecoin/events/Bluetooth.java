@@ -16,8 +16,12 @@ public class Bluetooth {
     }
 
     public static class DeviceFoundEvent extends BluetoothDeviceEvent {
-        public DeviceFoundEvent(BluetoothDevice device) {
+        // Signal strength in dBm, or Short.MIN_VALUE if the scan didn't report it
+        public final short rssi;
+
+        public DeviceFoundEvent(BluetoothDevice device, short rssi) {
             super(device);
+            this.rssi = rssi;
         }
     }
 
@@ -39,6 +43,20 @@ public class Bluetooth {
         }
     }
 
+    /**
+     * A display never acked a command, even after any retries.
+     */
+    public static class CommandUnacknowledgedEvent extends BluetoothDeviceEvent {
+        public final int opcode;
+        public final int sequence;
+
+        public CommandUnacknowledgedEvent(BluetoothDevice device, int opcode, int sequence) {
+            super(device);
+            this.opcode = opcode;
+            this.sequence = sequence;
+        }
+    }
+
     public static class DiscoveryStartedEvent {
         public DiscoveryStartedEvent() {
         }
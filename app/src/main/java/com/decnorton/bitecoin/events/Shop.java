@@ -1,12 +1,25 @@
 package com.decnorton.bitecoin.events;
 
+import com.decnorton.bitecoin.PurchaseEngine;
+
 /**
  * Created by decnorton on 23/03/15.
  */
 public class Shop {
 
+    /**
+     * Posted once per completed checkout, however many items were in it.
+     */
     public static class PurchaseEvent {
-        public PurchaseEvent() {
+        public final PurchaseEngine.Receipt receipt;
+
+        public PurchaseEvent(PurchaseEngine.Receipt receipt) {
+            this.receipt = receipt;
+        }
+
+        @Override
+        public String toString() {
+            return receipt.toString();
         }
     }
 }
@@ -7,12 +7,39 @@ int ledPin = 13;
 int numPixels = 16;
 Adafruit_NeoPixel stick = Adafruit_NeoPixel(numPixels, neopixelPin, NEO_GRB + NEO_KHZ800);
 
-String prevCommand;
-String command;
+// Binary frame protocol, see DisplayFrame.java
+// [version << 4 | opcode][sequence][length][payload ...][crc8]
+const byte PROTOCOL_VERSION = 2;
+const byte OP_PIXEL = 0x1;
+const byte OP_LED = 0x2;
+const byte OP_TEXT = 0x3;
+
+// Pixel colours are decided by the app, see Framebuffer.java
+// delta:    repeated [start][count][r g b ...] runs
+// keyframe: [r g b] for every pixel from 0
+const byte OP_PIXELS_DELTA = 0x6;
+const byte OP_PIXELS_KEYFRAME = 0x7;
+
+// Sent back to the app
+const byte OP_ACK = 0x4;
+const byte OP_LOG = 0x5;
+
+const byte ACK_OK = 0;
+const byte ACK_REJECTED = 1;
+
+const int FRAME_HEADER = 3;
+const int FRAME_OVERHEAD = 4;
+const int MAX_PAYLOAD = 64; // Must match DisplayFrame.MAX_PAYLOAD
+
+byte frame[FRAME_OVERHEAD + MAX_PAYLOAD];
+int frameLength = 0;
+
+int prevPixel = -1;
 
 void setup() {
   // Initialise NeoPixel stick
   stick.begin();
+  stick.setBrightness(200);
   stick.show(); // initialize all pixels to 'off' 
   
   // Set the LED pin
@@ -24,40 +51,216 @@ void setup() {
 }
 
 void loop() {
-  // Read string from Serial if available
-  if (Serial.available() > 0) {
-    command = Serial.readStringUntil('\n');
+  // Feed every available byte into the frame parser
+  while (Serial.available() > 0) {
+    frame[frameLength++] = Serial.read();
+    drainFrames();
+  }
+}
+
+byte crc8Update(byte crc, byte data) {
+  crc ^= data;
+  
+  for (int bit = 0; bit < 8; bit++) {
+    crc = (crc & 0x80) ? (crc << 1) ^ 0x07 : crc << 1;
+  }
+  
+  return crc;
+}
+
+byte crc8(byte *data, int length) {
+  byte crc = 0;
+  
+  for (int i = 0; i < length; i++) {
+    crc = crc8Update(crc, data[i]);
   }
   
-  // If command isn't empty and not equal to the previous command.
-  if (command != "" && command != prevCommand) {
-    prevCommand = command;
+  return crc;
+}
+
+// Writes a frame back to the app, computing the CRC as it goes so nothing is buffered
+void sendFrame(byte opcode, byte sequence, const byte *payload, int length) {
+  byte header[FRAME_HEADER] = { (byte) ((PROTOCOL_VERSION << 4) | opcode), sequence, (byte) length };
+  byte crc = 0;
+  
+  for (int i = 0; i < FRAME_HEADER; i++) {
+    crc = crc8Update(crc, header[i]);
+  }
+  
+  for (int i = 0; i < length; i++) {
+    crc = crc8Update(crc, payload[i]);
+  }
+  
+  Serial.write(header, FRAME_HEADER);
+  Serial.write(payload, length);
+  Serial.write(crc);
+}
+
+void sendAck(byte sequence, byte status) {
+  sendFrame(OP_ACK, sequence, &status, 1);
+}
+
+// Diagnostics go out as frames too, so the app can tell them apart from acks
+void sendLog(String message) {
+  int length = min((int) message.length(), MAX_PAYLOAD);
+  sendFrame(OP_LOG, 0, (const byte *) message.c_str(), length);
+}
+
+void consumeFrameBytes(int count) {
+  frameLength -= count;
+  memmove(frame, frame + count, frameLength);
+}
+
+void drainFrames() {
+  while (frameLength > 0) {
+    // Resync on anything that doesn't look like a header
+    if ((frame[0] >> 4) != PROTOCOL_VERSION) {
+      consumeFrameBytes(1);
+      continue;
+    }
+    
+    if (frameLength < FRAME_HEADER)
+      return;
+    
+    int payloadLength = frame[2];
+    
+    byte opcode = frame[0] & 0x0F;
+    
+    if (payloadLength > MAX_PAYLOAD || opcode == 0
+        || ((opcode == OP_PIXEL || opcode == OP_LED) && payloadLength != 1)
+        || (opcode == OP_PIXELS_DELTA && payloadLength < 5)
+        || (opcode == OP_PIXELS_KEYFRAME && (payloadLength == 0 || payloadLength % 3 != 0))) {
+      consumeFrameBytes(1);
+      continue;
+    }
+    
+    if (frameLength < FRAME_OVERHEAD + payloadLength)
+      return;
+    
+    if (crc8(frame, FRAME_HEADER + payloadLength) != frame[FRAME_HEADER + payloadLength]) {
+      consumeFrameBytes(1);
+      continue;
+    }
     
-    // Handle it
-    handleCommand(command);
+    // Acked once it's on the display, so the app knows it was shown and not just sent
+    byte status = handleFrame(frame[0] & 0x0F, frame + FRAME_HEADER, payloadLength) ? ACK_OK : ACK_REJECTED;
+    sendAck(frame[1], status);
+    
+    consumeFrameBytes(FRAME_OVERHEAD + payloadLength);
   }
 }
 
+bool handleFrame(byte opcode, byte *payload, int length) {
+  switch (opcode) {
+    case OP_PIXEL:
+      if (length < 1)
+        return false;
+      
+      // Skip redraws for an unchanged pixel count, it's already showing
+      if (payload[0] == prevPixel)
+        return true;
+      
+      prevPixel = payload[0];
+      setPixelColour(payload[0]);
+      return true;
+      
+    case OP_LED:
+      if (length < 1)
+        return false;
+      
+      digitalWrite(ledPin, payload[0] ? HIGH : LOW);
+      sendLog(payload[0] ? "LED on" : "LED off");
+      return true;
+      
+    case OP_PIXELS_KEYFRAME:
+      return applyKeyframe(payload, length);
+      
+    case OP_PIXELS_DELTA:
+      return applyDelta(payload, length);
+      
+    case OP_TEXT: {
+      String command = "";
+      
+      for (int i = 0; i < length; i++) {
+        command += (char) payload[i];
+      }
+      
+      handleCommand(command);
+      return true;
+    }
+  }
+  
+  return false;
+}
+
 void handleCommand(String command) {  
   if (command == "led on") {
     digitalWrite(ledPin, HIGH);
-    Serial.println("LED on");
+    sendLog("LED on");
   }
   
   if (command == "led off") {
     digitalWrite(ledPin, LOW);
-    Serial.println("LED off");
+    sendLog("LED off");
   }
   
   if (command.startsWith("pixel")) {
     int index = command.substring(5, command.length()).toInt();
+    prevPixel = index;
     setPixelColour(index);
   }
 }
 
+bool applyKeyframe(byte *payload, int length) {
+  int count = length / 3;
+  
+  if (count > numPixels)
+    return false;
+  
+  for (int i = 0; i < count; i++) {
+    stick.setPixelColor(i, stick.Color(payload[i * 3], payload[i * 3 + 1], payload[i * 3 + 2]));
+  }
+  
+  // Whatever the legacy pixel command last drew has been replaced
+  prevPixel = -1;
+  stick.show();
+  return true;
+}
+
+bool applyDelta(byte *payload, int length) {
+  // Check every run fits before touching the pixels, so a bad frame changes nothing
+  for (int pos = 0; pos < length; ) {
+    if (pos + 2 > length)
+      return false;
+    
+    int start = payload[pos];
+    int count = payload[pos + 1];
+    pos += 2;
+    
+    if (start + count > numPixels || pos + count * 3 > length)
+      return false;
+    
+    pos += count * 3;
+  }
+  
+  for (int pos = 0; pos < length; ) {
+    int start = payload[pos];
+    int count = payload[pos + 1];
+    pos += 2;
+    
+    for (int i = start; i < start + count; i++, pos += 3) {
+      stick.setPixelColor(i, stick.Color(payload[pos], payload[pos + 1], payload[pos + 2]));
+    }
+  }
+  
+  // Only the changed pixels were touched, one refresh for the lot
+  prevPixel = -1;
+  stick.show();
+  return true;
+}
+
 void setPixelColour(int index) {
-  Serial.print("[setPixelColour] index: ");
-  Serial.print(index);
+  sendLog("[setPixelColour] index: " + String(index));
   
   resetPixels();
   
@@ -105,7 +308,7 @@ uint32_t getColourForIndex(int index) {
   int green = 0;
   int blue = 0;
   
-  Serial.println(red);
+  sendLog(String(red));
   
   return stick.Color(red, green, blue);
 }
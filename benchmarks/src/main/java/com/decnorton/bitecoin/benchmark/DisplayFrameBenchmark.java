@@ -0,0 +1,87 @@
+package com.decnorton.bitecoin.benchmark;
+
+import com.decnorton.bitecoin.DisplayFrame;
+import com.decnorton.bitecoin.FrameDecoder;
+import com.decnorton.bitecoin.Framebuffer;
+import com.decnorton.bitecoin.PixelGauge;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pixel command encoding as done by BluetoothService.sendPixelMessage, compared to the old
+ * "pixel N" string, plus decoding throughput.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DisplayFrameBenchmark {
+
+    private static final int STEPS_PER_PIXEL = 10;
+    private static final int NUM_PIXELS = 16;
+
+    private final byte[] mBuffer = new byte[DisplayFrame.MAX_FRAME_SIZE];
+    private final byte[] mPayload = new byte[1];
+
+    private byte[] mStream;
+    private FrameDecoder mDecoder;
+    private Framebuffer mFramebuffer;
+    private int mFrames;
+
+    private int mSteps;
+
+    @Setup
+    public void setUp() {
+        mStream = new byte[DisplayFrame.OVERHEAD + 1];
+        DisplayFrame.pixel(12).encode(mStream, 0);
+
+        mFramebuffer = new Framebuffer(NUM_PIXELS);
+
+        mDecoder = new FrameDecoder(new FrameDecoder.Listener() {
+            @Override
+            public void onFrame(DisplayFrame frame) {
+                mFrames++;
+            }
+        });
+    }
+
+    private int nextPixel() {
+        mSteps += 3;
+        return Math.min(mSteps / STEPS_PER_PIXEL, NUM_PIXELS);
+    }
+
+    @Benchmark
+    public byte[] encodeStringCommand() {
+        return ("pixel " + nextPixel()).getBytes();
+    }
+
+    @Benchmark
+    public byte[] encodeFrame() {
+        return DisplayFrame.pixel(nextPixel()).encode();
+    }
+
+    @Benchmark
+    public int encodeFrameIntoBuffer() {
+        mPayload[0] = (byte) nextPixel();
+        return DisplayFrame.encode(DisplayFrame.OP_PIXEL, 0, mPayload, 0, 1, mBuffer, 0);
+    }
+
+    @Benchmark
+    public DisplayFrame renderAndFlushFramebuffer() {
+        PixelGauge.render(mFramebuffer, nextPixel());
+        return mFramebuffer.flush();
+    }
+
+    @Benchmark
+    public int decodeFrame() {
+        mDecoder.feed(mStream, 0, mStream.length);
+        return mFrames;
+    }
+}
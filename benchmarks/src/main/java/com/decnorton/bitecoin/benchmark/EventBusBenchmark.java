@@ -0,0 +1,90 @@
+package com.decnorton.bitecoin.benchmark;
+
+import com.decnorton.bitecoin.EventBus;
+import com.squareup.otto.Bus;
+import com.squareup.otto.Subscribe;
+import com.squareup.otto.ThreadEnforcer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Post and inline dispatch of a steps event, on EventBus and on the Otto bus it replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EventBusBenchmark {
+
+    @Param({ "1", "4" })
+    public int subscribers;
+
+    private EventBus mEventBus;
+    private Bus mOttoBus;
+
+    private long mReceived;
+
+    @Setup
+    public void setUp() {
+        // Nothing is posted to the other lanes, but the bus still needs executors for them
+        Executor direct = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+
+        mEventBus = new EventBus(direct, direct);
+        mOttoBus = new Bus(ThreadEnforcer.ANY);
+
+        for (int i = 0; i < subscribers; i++) {
+            mEventBus.subscribe(new Object(), StepsEvent.class, EventBus.Lane.INLINE,
+                    new EventBus.Handler<StepsEvent>() {
+                        @Override
+                        public void onEvent(StepsEvent event) {
+                            mReceived += event.totalSteps;
+                        }
+                    });
+
+            mOttoBus.register(new OttoSubscriber());
+        }
+    }
+
+    @Benchmark
+    public long eventBusPost() {
+        mEventBus.post(new StepsEvent(7, 1000));
+        return mReceived;
+    }
+
+    @Benchmark
+    public long ottoPost() {
+        mOttoBus.post(new StepsEvent(7, 1000));
+        return mReceived;
+    }
+
+    public static class StepsEvent {
+        public final int newSteps;
+        public final int totalSteps;
+
+        public StepsEvent(int newSteps, int totalSteps) {
+            this.newSteps = newSteps;
+            this.totalSteps = totalSteps;
+        }
+    }
+
+    public class OttoSubscriber {
+        @Subscribe
+        public void onStepsEvent(StepsEvent event) {
+            mReceived += event.totalSteps;
+        }
+    }
+}
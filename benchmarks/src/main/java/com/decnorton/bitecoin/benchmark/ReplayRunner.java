@@ -0,0 +1,98 @@
+package com.decnorton.bitecoin.benchmark;
+
+import com.decnorton.bitecoin.StepIngestor;
+import com.decnorton.bitecoin.StepRollup;
+import com.decnorton.bitecoin.StepTrace;
+import com.decnorton.bitecoin.TraceReplaySource;
+import com.decnorton.bitecoin.Wallet;
+import com.decnorton.bitecoin.WalletJournal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a step trace through the same ingestion the service uses, headless, and prints the
+ * throughput and latency.
+ *
+ *   replay <trace> [speed]                    replay at 1x - 10000x (default 10000x)
+ *   generate <trace> [days] [sources]         write a synthetic trace to replay
+ */
+public class ReplayRunner {
+
+    private static final long SAMPLE_PERIOD_MILLIS = 10000;
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    public static void main(String[] args) throws Exception {
+        if (args.length >= 2 && args[0].equals("generate")) {
+            generate(
+                    new File(args[1]),
+                    args.length > 2 ? Integer.parseInt(args[2]) : 1,
+                    args.length > 3 ? Integer.parseInt(args[3]) : 1
+            );
+        } else if (args.length >= 2 && args[0].equals("replay")) {
+            replay(new File(args[1]), args.length > 2 ? Double.parseDouble(args[2]) : TraceReplaySource.MAX_SPEED);
+        } else {
+            System.err.println("Usage: replay <trace> [speed] | generate <trace> [days] [sources]");
+            System.exit(1);
+        }
+    }
+
+    private static void replay(File file, double speed) throws IOException, InterruptedException {
+        StepTrace trace = StepTrace.open(file);
+
+        File journalFile = File.createTempFile("replay", ".journal");
+        journalFile.deleteOnExit();
+
+        WalletJournal journal = new WalletJournal(journalFile);
+        Wallet wallet = new Wallet();
+
+        StepIngestor ingestor = new StepIngestor(wallet, new StepRollup(), null, null);
+        ingestor.setJournal(journal);
+        ingestor.setTracking(true, System.currentTimeMillis());
+
+        TraceReplaySource source = new TraceReplaySource(trace, speed);
+
+        System.out.println("Replaying " + trace.size() + " readings at " + speed + "x");
+
+        source.start(ingestor);
+        source.awaitCompletion(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+        journal.close();
+
+        System.out.println("Report: " + source.getReport());
+        System.out.println("Wallet: " + wallet.snapshot());
+    }
+
+    /**
+     * Writes a reading per source every 10 seconds, with walks of a few minutes scattered
+     * through each day. Seeded, so the same arguments give the same trace.
+     */
+    private static void generate(File file, int days, int sources) throws IOException {
+        Random random = new Random(42);
+        StepTrace.Writer writer = new StepTrace.Writer(file);
+
+        long start = 1420070400000L;
+        long end = start + days * DAY_MILLIS;
+
+        int[] cumulative = new int[sources];
+        long walkUntil = 0;
+
+        for (long t = start; t < end; t += SAMPLE_PERIOD_MILLIS) {
+            if (t >= walkUntil && random.nextInt(200) == 0)
+                walkUntil = t + TimeUnit.MINUTES.toMillis(2 + random.nextInt(30));
+
+            for (int s = 0; s < sources; s++) {
+                if (t < walkUntil)
+                    cumulative[s] += 15 + random.nextInt(10);
+
+                writer.append("source-" + s, cumulative[s], t);
+            }
+        }
+
+        writer.close();
+
+        System.out.println("Wrote " + writer.getRecordCount() + " readings to " + file);
+    }
+}
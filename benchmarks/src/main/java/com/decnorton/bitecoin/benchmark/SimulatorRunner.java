@@ -0,0 +1,166 @@
+package com.decnorton.bitecoin.benchmark;
+
+import com.decnorton.bitecoin.AckTracker;
+import com.decnorton.bitecoin.DisplayFrame;
+import com.decnorton.bitecoin.FirmwareSimulator;
+import com.decnorton.bitecoin.FrameDecoder;
+import com.decnorton.bitecoin.Framebuffer;
+import com.decnorton.bitecoin.LatencyHistogram;
+import com.decnorton.bitecoin.Link;
+import com.decnorton.bitecoin.PixelGauge;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives the firmware simulator with the same gauge updates through each of the display's
+ * commands, and prints the round trip and throughput of each.
+ *
+ *   [updates] [baud] [window]        defaults to 200 updates at 9600 baud, one frame in flight
+ */
+public class SimulatorRunner {
+
+    private static final long ACK_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    public static void main(String[] args) throws Exception {
+        int updates = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int baud = args.length > 1 ? Integer.parseInt(args[1]) : FirmwareSimulator.DEFAULT_BAUD;
+        // Sequence numbers are a byte, so keep well clear of wrapping onto an unacked frame
+        int window = Math.min(128, args.length > 2 ? Integer.parseInt(args[2]) : 1);
+
+        // A random walk around the gauge, like steps coming in and being spent
+        Random random = new Random(42);
+        int[] counts = new int[updates];
+        int count = 0;
+
+        for (int i = 0; i < updates; i++) {
+            count = Math.max(0, Math.min(FirmwareSimulator.DEFAULT_NUM_PIXELS, count + random.nextInt(5) - 2));
+            counts[i] = count;
+        }
+
+        for (Mode mode : Mode.values()) {
+            run(mode, counts, baud, window);
+        }
+    }
+
+    private enum Mode {
+        TEXT, PIXEL, FRAMEBUFFER
+    }
+
+    private static void run(Mode mode, int[] counts, int baud, int window) throws IOException, InterruptedException {
+        FirmwareSimulator simulator = new FirmwareSimulator(FirmwareSimulator.DEFAULT_NUM_PIXELS, baud);
+        final Link link = simulator.getConnector().connect();
+
+        final AckTracker<Long> tracker = new AckTracker<>(ACK_TIMEOUT_NANOS);
+        final LatencyHistogram rtt = new LatencyHistogram();
+        final Semaphore inFlight = new Semaphore(window);
+
+        final FrameDecoder decoder = new FrameDecoder(new FrameDecoder.Listener() {
+            @Override
+            public void onFrame(DisplayFrame frame) {
+                if (frame.getOpcode() != DisplayFrame.OP_ACK)
+                    return;
+
+                long now = System.nanoTime();
+                Long sentAt = tracker.onAck(frame.getSequence(), frame.getPayloadByte(0), now);
+
+                // Across opcodes, as keyframes and deltas are both the one update
+                if (sentAt != null) {
+                    rtt.record(now - sentAt);
+                    inFlight.release();
+                }
+            }
+        });
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[64];
+
+                try {
+                    InputStream in = link.getInputStream();
+                    int read;
+
+                    while ((read = in.read(buffer, 0, buffer.length)) >= 0) {
+                        decoder.feed(buffer, 0, read);
+                    }
+                } catch (IOException ignored) {
+                }
+            }
+        });
+
+        reader.setDaemon(true);
+        reader.start();
+
+        Framebuffer framebuffer = new Framebuffer(FirmwareSimulator.DEFAULT_NUM_PIXELS);
+        OutputStream out = link.getOutputStream();
+
+        long bytes = 0;
+        long start = System.nanoTime();
+
+        for (int i = 0; i < counts.length; i++) {
+            DisplayFrame frame;
+
+            switch (mode) {
+                case TEXT:
+                    frame = DisplayFrame.text("pixel " + counts[i]);
+                    break;
+
+                case PIXEL:
+                    frame = DisplayFrame.pixel(counts[i]);
+                    break;
+
+                default:
+                    PixelGauge.render(framebuffer, counts[i]);
+                    frame = framebuffer.flush();
+
+                    if (frame == null)
+                        continue;
+            }
+
+            if (!inFlight.tryAcquire(ACK_TIMEOUT_NANOS, TimeUnit.NANOSECONDS)) {
+                // Give up on whatever timed out, as the session would
+                inFlight.release(tracker.expire(System.nanoTime()).size());
+                inFlight.acquire();
+            }
+
+            frame = frame.withSequence(i & 0xFF);
+            byte[] encoded = frame.encode();
+
+            tracker.onSent(frame.getSequence(), frame.getOpcode(), System.nanoTime(), System.nanoTime());
+            out.write(encoded);
+            bytes += encoded.length;
+        }
+
+        // Wait for the last acks
+        inFlight.tryAcquire(window, ACK_TIMEOUT_NANOS, TimeUnit.NANOSECONDS);
+
+        long elapsed = System.nanoTime() - start;
+
+        simulator.stop();
+
+        System.out.println(String.format(
+                "%-11s frames: %d, bytes: %d, elapsedMs: %d, perSecond: %.1f, rttMeanMs: %.2f, rttP99Ms: %.2f, "
+                        + "acked: %d, lost: %d, shows: %d, skipped: %d, rxOverflow: %d",
+                mode,
+                rtt.getCount(),
+                bytes,
+                TimeUnit.NANOSECONDS.toMillis(elapsed),
+                rtt.getCount() * 1e9 / elapsed,
+                rtt.getMeanNanos() / 1e6,
+                rtt.getPercentileNanos(0.99) / 1e6,
+                tracker.getAckedCount(),
+                tracker.getExpiredCount() + tracker.getLostCount(),
+                simulator.getShowCount(),
+                simulator.getRedrawsSkipped(),
+                simulator.getRxOverflowBytes()
+        ));
+
+        System.out.println("            pixels: " + Arrays.toString(simulator.getPixels()));
+    }
+}
@@ -0,0 +1,60 @@
+package com.decnorton.bitecoin.benchmark;
+
+import com.decnorton.bitecoin.StepCounter;
+import com.decnorton.bitecoin.StepRollup;
+import com.decnorton.bitecoin.Wallet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What StepIngestor does for each reading, minus the journal and callbacks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StepCounterBenchmark {
+
+    private StepCounter mCounter;
+    private Wallet mWallet;
+    private StepRollup mRollup;
+
+    private int mCumulative;
+    private long mTimestamp;
+
+    @Setup
+    public void setUp() {
+        mCounter = new StepCounter();
+        mWallet = new Wallet();
+        mRollup = new StepRollup();
+
+        mCumulative = 1000;
+        mTimestamp = 1420070400000L;
+    }
+
+    @Benchmark
+    public int stepDelta() {
+        mCumulative += 7;
+        return mCounter.onCumulativeSteps(mCumulative, true);
+    }
+
+    @Benchmark
+    public int stepDeltaAndCredit() {
+        mCumulative += 7;
+        mTimestamp += 10000;
+
+        int newSteps = mCounter.onCumulativeSteps(mCumulative, true);
+
+        mWallet.addSteps(newSteps);
+        mRollup.record(mTimestamp, newSteps);
+
+        return mWallet.getTotalSteps();
+    }
+}
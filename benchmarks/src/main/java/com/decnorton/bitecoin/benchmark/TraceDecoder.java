@@ -0,0 +1,72 @@
+package com.decnorton.bitecoin.benchmark;
+
+import com.decnorton.bitecoin.TraceRecorder;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Prints a file written by TraceRecorder.dump(), one line per record with its wall clock
+ * time and thread, then a count per event.
+ *
+ *   <trace>
+ */
+public class TraceDecoder {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: <trace>");
+            System.exit(1);
+        }
+
+        final SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS", Locale.US);
+        final Map<Integer, String> events = new HashMap<>();
+        final Map<Integer, String> threads = new HashMap<>();
+        final Map<String, Integer> counts = new TreeMap<>();
+        final long[] anchor = new long[2];
+
+        TraceRecorder.read(new File(args[0]), new TraceRecorder.Visitor() {
+            @Override
+            public void onHeader(long wallMillis, long nanos) {
+                anchor[0] = wallMillis;
+                anchor[1] = nanos;
+            }
+
+            @Override
+            public void onEventName(int event, String name) {
+                events.put(event, name);
+            }
+
+            @Override
+            public void onThreadName(int thread, String name) {
+                threads.put(thread, name);
+            }
+
+            @Override
+            public void onRecord(long timestampNanos, int event, int thread, long a, long b) {
+                String name = events.containsKey(event) ? events.get(event) : "EVENT_" + event;
+
+                // Both clocks were read at the dump, so the offset from it gives the wall time
+                long wallMillis = anchor[0] - (anchor[1] - timestampNanos) / 1000000;
+                long micros = (timestampNanos / 1000) % 1000;
+
+                System.out.println(String.format(Locale.US, "%s%03d [%s] %s %d %d",
+                        format.format(new Date(wallMillis)), micros, threads.get(thread), name, a, b));
+
+                Integer count = counts.get(name);
+                counts.put(name, count == null ? 1 : count + 1);
+            }
+        });
+
+        System.out.println();
+
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            System.out.println(entry.getKey() + ": " + entry.getValue());
+        }
+    }
+}
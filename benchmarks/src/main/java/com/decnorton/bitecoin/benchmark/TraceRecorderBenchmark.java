@@ -0,0 +1,36 @@
+package com.decnorton.bitecoin.benchmark;
+
+import com.decnorton.bitecoin.TraceRecorder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A trace record against the string a log line would have built for the same event, which
+ * is the cheaper half of what Log.i costs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TraceRecorderBenchmark {
+
+    private int mTotalSteps = 1000;
+
+    @Benchmark
+    public void record() {
+        mTotalSteps++;
+        TraceRecorder.record(TraceRecorder.PIXELS_RENDERED, mTotalSteps, mTotalSteps / 10);
+    }
+
+    @Benchmark
+    public String logMessage() {
+        mTotalSteps++;
+        return "[sendPixelMessage] Steps: " + mTotalSteps + "[sendPixelMessage] Pixel: " + mTotalSteps / 10;
+    }
+}
@@ -0,0 +1,76 @@
+package com.decnorton.bitecoin.benchmark;
+
+import com.decnorton.bitecoin.IndexedUniqueList;
+import com.decnorton.bitecoin.UniqueList;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filling a device list the way BluetoothDevicesDialog does: one bonded-device batch, then one
+ * add per discovered device, half of which are duplicates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UniqueListBenchmark {
+
+    @Param({ "16", "256", "1024" })
+    public int devices;
+
+    private List<String> mBonded;
+    private List<String> mDiscovered;
+
+    @Setup
+    public void setUp() {
+        mBonded = new ArrayList<>();
+        mDiscovered = new ArrayList<>();
+
+        for (int i = 0; i < devices; i++) {
+            String address = String.format("00:11:22:%02X:%02X:%02X", i >> 16 & 0xFF, i >> 8 & 0xFF, i & 0xFF);
+
+            if (i % 4 == 0)
+                mBonded.add(address);
+
+            mDiscovered.add(address);
+            mDiscovered.add(address);
+        }
+    }
+
+    private int fill(List<String> list) {
+        list.addAll(mBonded);
+
+        for (String address : mDiscovered) {
+            list.add(address);
+        }
+
+        int found = 0;
+
+        for (String address : mBonded) {
+            if (list.contains(address))
+                found++;
+        }
+
+        return found + list.size();
+    }
+
+    @Benchmark
+    public int uniqueList() {
+        return fill(new UniqueList<String>());
+    }
+
+    @Benchmark
+    public int indexedUniqueList() {
+        return fill(new IndexedUniqueList<String>());
+    }
+}
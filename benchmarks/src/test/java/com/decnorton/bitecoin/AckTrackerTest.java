@@ -0,0 +1,48 @@
+package com.decnorton.bitecoin;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AckTrackerTest {
+
+    private static final long TIMEOUT_NANOS = 1000;
+
+    @Test
+    public void wrappingHandsBackTheDisplacedCommand() {
+        AckTracker<String> tracker = new AckTracker<>(TIMEOUT_NANOS);
+
+        assertNull(tracker.onSent(5, DisplayFrame.OP_PIXELS_DELTA, "old", 0));
+        assertEquals("old", tracker.onSent(5 + 256, DisplayFrame.OP_PIXELS_DELTA, "new", 10));
+
+        assertEquals(1, tracker.getLostCount());
+        assertEquals(1, tracker.getOutstandingCount());
+        assertEquals("new", tracker.onAck(5, DisplayFrame.ACK_OK, 20));
+    }
+
+    @Test
+    public void resendingIsNotALoss() {
+        AckTracker<String> tracker = new AckTracker<>(TIMEOUT_NANOS);
+
+        tracker.onSent(7, DisplayFrame.OP_PIXELS_DELTA, "frame", 0);
+        assertNull(tracker.onSent(7, DisplayFrame.OP_PIXELS_DELTA, "frame", 10));
+
+        assertEquals(0, tracker.getLostCount());
+        assertEquals(1, tracker.getOutstandingCount());
+    }
+
+    @Test
+    public void expiresOnlyOverdueCommands() {
+        AckTracker<String> tracker = new AckTracker<>(TIMEOUT_NANOS);
+
+        tracker.onSent(1, DisplayFrame.OP_PIXELS_DELTA, "early", 0);
+        tracker.onSent(2, DisplayFrame.OP_PIXELS_DELTA, "late", 500);
+
+        assertEquals(Collections.singletonList("early"), tracker.expire(TIMEOUT_NANOS));
+        assertEquals(1, tracker.getOutstandingCount());
+        assertNull(tracker.onAck(1, DisplayFrame.ACK_OK, TIMEOUT_NANOS));
+    }
+}
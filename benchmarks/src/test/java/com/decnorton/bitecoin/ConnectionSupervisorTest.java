@@ -0,0 +1,122 @@
+package com.decnorton.bitecoin;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConnectionSupervisorTest {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private static final ConnectionSupervisor.Listener NO_LISTENER = new ConnectionSupervisor.Listener() {
+        @Override
+        public void onConnected() {
+        }
+
+        @Override
+        public void onGaveUp() {
+        }
+    };
+
+    private final BlockingConnector mConnector = new BlockingConnector();
+
+    // Long enough that a retry never fires on its own during a test
+    private final ConnectionSupervisor mSupervisor = new ConnectionSupervisor(
+            mConnector, NO_LISTENER, new Backoff(60000, 60000), ConnectionSupervisor.DEFAULT_MAX_ATTEMPTS);
+
+    @After
+    public void tearDown() {
+        mConnector.release.countDown();
+        mSupervisor.shutdown();
+    }
+
+    @Test
+    public void connectNowJoinsTheRunningAttempt() throws Exception {
+        Future<Boolean> first = mSupervisor.connectNow();
+        assertTrue(mConnector.entered.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        Future<Boolean> second = mSupervisor.connectNow();
+        assertSame(first, second);
+
+        mConnector.release.countDown();
+
+        assertTrue(second.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(1, mConnector.connects.get());
+        assertFalse(mSupervisor.isReconnecting());
+    }
+
+    @Test
+    public void connectNowBringsAScheduledRetryForward() throws Exception {
+        mConnector.succeeds.set(false);
+        mConnector.release.countDown();
+
+        // Fails, and schedules a retry a minute out
+        assertFalse(mSupervisor.connectNow().get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(mSupervisor.isReconnecting());
+
+        mConnector.succeeds.set(true);
+
+        assertTrue(mSupervisor.connectNow().get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(2, mConnector.connects.get());
+        assertFalse(mSupervisor.isReconnecting());
+    }
+
+    @Test
+    public void finishingAttemptKeepsANewerOne() throws Exception {
+        Future<Boolean> first = mSupervisor.connectNow();
+        assertTrue(mConnector.entered.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // Queued behind the running attempt on the supervisor's thread
+        mSupervisor.cancel();
+        Future<Boolean> second = mSupervisor.connectNow();
+
+        mConnector.release.countDown();
+
+        try {
+            first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            fail("The cancelled attempt completed normally");
+        } catch (CancellationException expected) {
+        }
+
+        assertTrue(second.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(2, mConnector.connects.get());
+        assertFalse(mSupervisor.isReconnecting());
+    }
+
+    /**
+     * Blocks every connect until released, then succeeds unless told otherwise.
+     */
+    private static final class BlockingConnector implements ConnectionSupervisor.Connector {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger connects = new AtomicInteger();
+        final AtomicBoolean succeeds = new AtomicBoolean(true);
+
+        @Override
+        public boolean connect() {
+            connects.incrementAndGet();
+            entered.countDown();
+
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+
+            return succeeds.get();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.decnorton.bitecoin;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DisplayFrameTest {
+
+    @Test
+    public void encodesPixelInFiveBytes() {
+        byte[] bytes = DisplayFrame.pixel(16).withSequence(7).encode();
+
+        assertEquals(5, bytes.length);
+        assertEquals((DisplayFrame.VERSION << 4) | DisplayFrame.OP_PIXEL, bytes[0] & 0xFF);
+        assertEquals(7, bytes[1]);
+        assertEquals(1, bytes[2]);
+        assertEquals(16, bytes[3]);
+        assertEquals(DisplayFrame.crc8(bytes, 0, 4), bytes[4]);
+    }
+
+    @Test
+    public void encodesIntoBufferAtOffset() {
+        DisplayFrame frame = DisplayFrame.text("hello").withSequence(3);
+        byte[] dest = new byte[2 + frame.size()];
+
+        assertEquals(frame.size(), frame.encode(dest, 2));
+
+        byte[] expected = frame.encode();
+
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], dest[2 + i]);
+        }
+    }
+
+    @Test
+    public void truncatesTextToWhatTheDisplayAccepts() {
+        StringBuilder text = new StringBuilder();
+
+        for (int i = 0; i < DisplayFrame.MAX_PAYLOAD + 50; i++) {
+            text.append('a');
+        }
+
+        DisplayFrame frame = DisplayFrame.text(text.toString());
+
+        assertEquals(DisplayFrame.MAX_PAYLOAD, frame.getPayloadLength());
+        assertEquals(DisplayFrame.MAX_PAYLOAD + DisplayFrame.OVERHEAD, DisplayFrame.MAX_FRAME_SIZE);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPayloadsTooLongForTheDisplay() {
+        new DisplayFrame(DisplayFrame.OP_TEXT, new byte[DisplayFrame.MAX_PAYLOAD + 1]);
+    }
+
+    @Test
+    public void rejectsImplausibleHeaders() {
+        assertFalse(DisplayFrame.isPlausibleHeader(0, 1));
+        assertFalse(DisplayFrame.isPlausibleHeader(DisplayFrame.OP_PIXEL, 2));
+        assertFalse(DisplayFrame.isPlausibleHeader(DisplayFrame.OP_PIXELS_KEYFRAME, 4));
+        assertFalse(DisplayFrame.isPlausibleHeader(DisplayFrame.OP_TEXT, DisplayFrame.MAX_PAYLOAD + 1));
+        assertTrue(DisplayFrame.isPlausibleHeader(DisplayFrame.OP_TEXT, DisplayFrame.MAX_PAYLOAD));
+    }
+
+    @Test
+    public void keepsPayloadsIntact() {
+        byte[] payload = { 0, 1, 2, (byte) 0xFF, (byte) 0x80, 42 };
+        DisplayFrame frame = new DisplayFrame(DisplayFrame.OP_PIXELS_KEYFRAME, 9, payload);
+
+        assertArrayEquals(payload, frame.getPayload());
+        assertEquals(0xFF, frame.getPayloadByte(3));
+        assertEquals(frame, new DisplayFrame(DisplayFrame.OP_PIXELS_KEYFRAME, 9, payload.clone()));
+    }
+}
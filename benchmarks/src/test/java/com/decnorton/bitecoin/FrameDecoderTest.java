@@ -0,0 +1,133 @@
+package com.decnorton.bitecoin;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class FrameDecoderTest {
+
+    private final List<DisplayFrame> mFrames = new ArrayList<>();
+
+    private final FrameDecoder mDecoder = new FrameDecoder(new FrameDecoder.Listener() {
+        @Override
+        public void onFrame(DisplayFrame frame) {
+            mFrames.add(frame);
+        }
+    });
+
+    @Test
+    public void roundTripsEveryOpcode() {
+        List<DisplayFrame> sent = new ArrayList<>();
+        sent.add(DisplayFrame.pixel(12).withSequence(1));
+        sent.add(DisplayFrame.led(true).withSequence(2));
+        sent.add(DisplayFrame.text("Hello, display").withSequence(3));
+        sent.add(DisplayFrame.ack(4, DisplayFrame.ACK_OK));
+        sent.add(DisplayFrame.log("Booted"));
+        sent.add(new DisplayFrame(DisplayFrame.OP_PIXELS_DELTA, 6, new byte[] { 0, 1, 10, 20, 30 }));
+        sent.add(new DisplayFrame(DisplayFrame.OP_PIXELS_KEYFRAME, 7, new byte[DisplayFrame.MAX_PAYLOAD - 1]));
+
+        for (DisplayFrame frame : sent) {
+            mDecoder.feed(frame.encode());
+        }
+
+        assertEquals(sent, mFrames);
+        assertEquals(0, mDecoder.getDroppedBytes());
+    }
+
+    @Test
+    public void decodesFramesSplitAcrossReads() {
+        byte[] bytes = DisplayFrame.text("split across reads").withSequence(9).encode();
+
+        for (byte b : bytes) {
+            mDecoder.feed(new byte[] { b });
+        }
+
+        assertEquals(1, mFrames.size());
+        assertEquals("split across reads", mFrames.get(0).getText());
+    }
+
+    @Test
+    public void resynchronisesAfterGarbage() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        byte[] garbage = { 0x00, 0x21, (byte) 0xFF, 0x13, 0x20, 0x55 };
+
+        stream.write(garbage, 0, garbage.length);
+        write(stream, DisplayFrame.pixel(3).withSequence(1));
+        stream.write(garbage, 0, garbage.length);
+        write(stream, DisplayFrame.pixel(4).withSequence(2));
+
+        mDecoder.feed(stream.toByteArray());
+
+        assertEquals(2, mFrames.size());
+        assertEquals(3, mFrames.get(0).getPayloadByte(0));
+        assertEquals(4, mFrames.get(1).getPayloadByte(0));
+    }
+
+    @Test
+    public void rejectsBadChecksums() {
+        byte[] corrupt = DisplayFrame.pixel(5).withSequence(1).encode();
+        corrupt[3] ^= 0x01;
+
+        mDecoder.feed(corrupt);
+        mDecoder.feed(DisplayFrame.pixel(6).withSequence(2).encode());
+
+        assertEquals(1, mFrames.size());
+        assertEquals(6, mFrames.get(0).getPayloadByte(0));
+        assertEquals(corrupt.length, mDecoder.getDroppedBytes());
+    }
+
+    @Test
+    public void skipsHeadersClaimingMoreThanTheDisplayAccepts() {
+        // A text header claiming 200 bytes must not be waited for, or overflow the buffer
+        mDecoder.feed(new byte[] { (byte) ((DisplayFrame.VERSION << 4) | DisplayFrame.OP_TEXT), 1, (byte) 200 });
+        mDecoder.feed(DisplayFrame.pixel(7).withSequence(2).encode());
+
+        assertEquals(1, mFrames.size());
+        assertEquals(7, mFrames.get(0).getPayloadByte(0));
+    }
+
+    /**
+     * A long stream of frames fed in random chunks, with noise between some of them, comes out
+     * whole and in order.
+     */
+    @Test
+    public void decodesLongStreamsInRandomChunks() {
+        Random random = new Random(42);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        List<DisplayFrame> sent = new ArrayList<>();
+
+        for (int i = 0; i < 10000; i++) {
+            DisplayFrame frame = i % 3 == 0
+                    ? DisplayFrame.text("frame " + i).withSequence(i)
+                    : DisplayFrame.pixel(i % 17).withSequence(i);
+
+            sent.add(frame);
+            write(stream, frame);
+
+            // Zero never starts a frame, so it's always dropped
+            if (i % 10 == 0)
+                stream.write(0);
+        }
+
+        byte[] bytes = stream.toByteArray();
+
+        for (int offset = 0; offset < bytes.length; ) {
+            int length = Math.min(1 + random.nextInt(40), bytes.length - offset);
+            mDecoder.feed(bytes, offset, length);
+            offset += length;
+        }
+
+        assertEquals(sent, mFrames);
+        assertEquals(1000, mDecoder.getDroppedBytes());
+    }
+
+    private static void write(ByteArrayOutputStream stream, DisplayFrame frame) {
+        byte[] bytes = frame.encode();
+        stream.write(bytes, 0, bytes.length);
+    }
+}
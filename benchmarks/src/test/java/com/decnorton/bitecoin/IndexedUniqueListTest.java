@@ -0,0 +1,142 @@
+package com.decnorton.bitecoin;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IndexedUniqueListTest {
+
+    private static final IndexedUniqueList.KeyFunction<String> LOWER_CASE =
+            new IndexedUniqueList.KeyFunction<String>() {
+                @Override
+                public Object keyOf(String s) {
+                    return s.toLowerCase();
+                }
+            };
+
+    @Test
+    public void addSkipsDuplicates() {
+        IndexedUniqueList<String> list = new IndexedUniqueList<>();
+
+        assertTrue(list.add("a"));
+        assertTrue(list.add("b"));
+        assertFalse(list.add("a"));
+
+        assertEquals(Arrays.asList("a", "b"), list);
+    }
+
+    @Test
+    public void addAllKeepsFirstOccurrences() {
+        IndexedUniqueList<String> list = new IndexedUniqueList<>();
+
+        assertTrue(list.addAll(Arrays.asList("a", "b", "a", "c", "b")));
+        assertFalse(list.addAll(Arrays.asList("c", "a")));
+
+        assertEquals(Arrays.asList("a", "b", "c"), list);
+        assertEquals(2, list.indexOf("c"));
+    }
+
+    @Test
+    public void insertShiftsTheIndex() {
+        IndexedUniqueList<String> list = new IndexedUniqueList<>();
+        list.addAll(Arrays.asList("a", "c"));
+
+        list.add(1, "b");
+        list.add(0, "z");
+
+        assertEquals(Arrays.asList("z", "a", "b", "c"), list);
+
+        for (int i = 0; i < list.size(); i++) {
+            assertEquals(i, list.indexOf(list.get(i)));
+        }
+    }
+
+    @Test
+    public void insertRejectsDuplicates() {
+        IndexedUniqueList<String> list = new IndexedUniqueList<>();
+        list.addAll(Arrays.asList("a", "b"));
+
+        try {
+            list.add(0, "b");
+            fail("Inserted a duplicate");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        try {
+            list.add(2, "a");
+            fail("Inserted a duplicate at the end");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        assertEquals(Arrays.asList("a", "b"), list);
+        assertEquals(1, list.indexOf("b"));
+    }
+
+    @Test
+    public void setReplacesOrRejects() {
+        IndexedUniqueList<String> list = new IndexedUniqueList<>();
+        list.addAll(Arrays.asList("a", "b"));
+
+        assertEquals("a", list.set(0, "c"));
+        assertFalse(list.contains("a"));
+        assertEquals(0, list.indexOf("c"));
+
+        try {
+            list.set(0, "b");
+            fail("Set a duplicate");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        assertEquals(Arrays.asList("c", "b"), list);
+    }
+
+    @Test
+    public void removeShiftsTheIndex() {
+        IndexedUniqueList<String> list = new IndexedUniqueList<>();
+        list.addAll(Arrays.asList("a", "b", "c", "d"));
+
+        assertEquals("b", list.remove(1));
+        assertTrue(list.remove("a"));
+        assertFalse(list.remove("a"));
+
+        assertEquals(Arrays.asList("c", "d"), list);
+        assertEquals(0, list.indexOf("c"));
+        assertEquals(1, list.indexOf("d"));
+
+        // Removed elements can be added back
+        assertTrue(list.add("a"));
+        assertEquals(2, list.indexOf("a"));
+    }
+
+    @Test
+    public void usesTheKeyFunction() {
+        IndexedUniqueList<String> list = new IndexedUniqueList<>(LOWER_CASE);
+
+        assertTrue(list.add("AA:BB"));
+        assertFalse(list.add("aa:bb"));
+
+        assertTrue(list.contains("Aa:Bb"));
+        assertTrue(list.containsKey("aa:bb"));
+        assertSame(list.get(0), list.getByKey("aa:bb"));
+        assertNull(list.getByKey("cc:dd"));
+    }
+
+    @Test
+    public void clearEmptiesTheIndex() {
+        IndexedUniqueList<String> list = new IndexedUniqueList<>();
+        list.addAll(Arrays.asList("a", "b"));
+
+        list.clear();
+
+        assertTrue(list.isEmpty());
+        assertEquals(-1, list.indexOf("a"));
+        assertTrue(list.add("a"));
+    }
+}
@@ -0,0 +1,158 @@
+package com.decnorton.bitecoin;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The service's step handling, driven through an {@link InMemoryStepSource} so every reading
+ * and timestamp is chosen by the test.
+ */
+public class StepIngestorTest {
+
+    private static final long IDLE_TIMEOUT_MILLIS = 2 * 60000;
+
+    private final Wallet mWallet = new Wallet();
+    private final InMemoryStepSource mSource = new InMemoryStepSource();
+    private final List<Integer> mCredited = new ArrayList<>();
+
+    private AdaptiveSampler mSampler;
+    private StepIngestor mIngestor;
+
+    @Before
+    public void setUp() {
+        mSampler = new AdaptiveSampler(mSource, IDLE_TIMEOUT_MILLIS);
+        mIngestor = new StepIngestor(mWallet, new StepRollup(0), mSampler, new StepIngestor.Callback() {
+            @Override
+            public void onNewSteps(int newSteps, int totalSteps, long timestampMillis) {
+                mCredited.add(newSteps);
+            }
+        });
+
+        mSource.start(mIngestor);
+    }
+
+    @Test
+    public void firstReadingIsTheBaseline() {
+        mIngestor.setTracking(true, 0);
+
+        mSource.push(1000, 1000);
+        mSource.push(1010, 6000);
+        mSource.push(1025, 11000);
+
+        assertEquals(Arrays.asList(10, 15), mCredited);
+        assertEquals(25, mWallet.getTotalSteps());
+        assertEquals(15, mIngestor.getLatestNewSteps());
+        assertEquals(3, mIngestor.getReadingCount());
+    }
+
+    @Test
+    public void resetStartsANewBaseline() {
+        mIngestor.setTracking(true, 0);
+
+        mSource.push(100, 1000);
+        mSource.push(120, 6000);
+
+        // The sensor starts counting from scratch after being re-registered
+        mIngestor.resetBaseline();
+        mSource.push(5, 11000);
+        mSource.push(15, 16000);
+
+        assertEquals(Arrays.asList(20, 10), mCredited);
+        assertEquals(30, mWallet.getTotalSteps());
+    }
+
+    @Test
+    public void stepsWhilePausedAreBatchedAndCreditedOnResume() {
+        mIngestor.setTracking(true, 0);
+        mSource.push(100, 1000);
+        mSource.push(110, 6000);
+
+        mIngestor.setTracking(false, 7000);
+        assertSame(StepSource.SamplingRate.PAUSED, mSource.getSamplingRate());
+
+        // Held back by the batched rate
+        mSource.push(150, 8000);
+        assertEquals(1, mSource.getPendingCount());
+        assertEquals(10, mWallet.getTotalSteps());
+
+        // Going active delivers the batch, and the steps count as tracking has resumed
+        mIngestor.setTracking(true, 9000);
+
+        assertSame(StepSource.SamplingRate.ACTIVE, mSource.getSamplingRate());
+        assertEquals(0, mSource.getPendingCount());
+        assertEquals(Arrays.asList(10, 40), mCredited);
+        assertEquals(50, mWallet.getTotalSteps());
+    }
+
+    @Test
+    public void switchesBetweenActiveIdleAndPaused() {
+        assertSame(StepSource.SamplingRate.PAUSED, mSource.getSamplingRate());
+
+        mIngestor.setTracking(true, 0);
+        assertSame(StepSource.SamplingRate.ACTIVE, mSource.getSamplingRate());
+
+        mSampler.checkIdle(IDLE_TIMEOUT_MILLIS - 1);
+        assertSame(StepSource.SamplingRate.ACTIVE, mSource.getSamplingRate());
+
+        mSampler.checkIdle(IDLE_TIMEOUT_MILLIS);
+        assertSame(StepSource.SamplingRate.IDLE, mSource.getSamplingRate());
+
+        // Readings without new steps don't wake it up
+        mSource.push(100, IDLE_TIMEOUT_MILLIS + 1000);
+        mSource.flush();
+        assertSame(StepSource.SamplingRate.IDLE, mSource.getSamplingRate());
+
+        mSource.push(130, IDLE_TIMEOUT_MILLIS + 2000);
+        mSource.flush();
+        assertSame(StepSource.SamplingRate.ACTIVE, mSource.getSamplingRate());
+
+        mIngestor.setTracking(false, IDLE_TIMEOUT_MILLIS + 3000);
+        assertSame(StepSource.SamplingRate.PAUSED, mSource.getSamplingRate());
+
+        assertEquals(4, mSampler.getRateChangeCount());
+    }
+
+    @Test
+    public void idleReadingsAreDeliveredInOneBatchOnceTheOldestIsDue() {
+        mIngestor.setTracking(true, 0);
+        mSampler.checkIdle(IDLE_TIMEOUT_MILLIS);
+
+        long start = IDLE_TIMEOUT_MILLIS + 1000;
+        int maxLatency = StepSource.SamplingRate.IDLE.maxLatencyMillis;
+
+        assertTrue(mSource.push(100, start));
+        assertTrue(mSource.push(100, start + 60000));
+        assertEquals(2, mSource.getPendingCount());
+        assertEquals(0, mIngestor.getReadingCount());
+
+        // The oldest reading has now waited as long as the rate allows
+        mSource.push(130, start + maxLatency);
+
+        assertEquals(0, mSource.getPendingCount());
+        assertEquals(1, mSource.getBatchCount());
+        assertEquals(3, mSource.getDeliveredCount());
+        assertEquals(3, mIngestor.getReadingCount());
+        assertEquals(Arrays.asList(30), mCredited);
+
+        // The steps in the batch brought the sampler back to active
+        assertSame(StepSource.SamplingRate.ACTIVE, mSource.getSamplingRate());
+    }
+
+    @Test
+    public void stoppedSourceDropsReadings() {
+        mIngestor.setTracking(true, 0);
+        mSource.stop();
+
+        assertFalse(mSource.push(100, 1000));
+        assertEquals(0, mIngestor.getReadingCount());
+    }
+}
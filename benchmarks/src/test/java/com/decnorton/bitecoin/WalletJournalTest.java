@@ -0,0 +1,114 @@
+package com.decnorton.bitecoin;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+
+public class WalletJournalTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void replaysWhatWasAppended() throws IOException {
+        File file = mFolder.newFile();
+        WalletJournal journal = new WalletJournal(file);
+
+        journal.appendSteps(10, 1000);
+        journal.appendSpend(4, 2000);
+        journal.appendReset(3000);
+        journal.close();
+
+        journal = new WalletJournal(file);
+        Totals totals = replay(journal);
+        journal.close();
+
+        assertEquals(3, totals.entries);
+        assertEquals(10, totals.steps);
+        assertEquals(4, totals.spent);
+    }
+
+    /**
+     * A log torn at 40 of 100 entries, then crashing again at 60, mustn't pick up the old
+     * run's entries 61 - 100 on the next open, even though their sequence numbers follow on.
+     */
+    @Test
+    public void discardsEverythingAfterATear() throws IOException {
+        File file = mFolder.newFile();
+        WalletJournal journal = new WalletJournal(file);
+
+        for (int i = 0; i < 100; i++) {
+            journal.appendSteps(1, i);
+        }
+
+        journal.close();
+
+        corruptEntry(file, 41);
+
+        journal = new WalletJournal(file);
+
+        assertEquals(40, journal.getLastSequence());
+        assertEquals(60 * WalletJournal.ENTRY_SIZE, journal.getTornBytes());
+
+        for (int i = 0; i < 20; i++) {
+            journal.appendSteps(1, 1000 + i);
+        }
+
+        journal.close();
+
+        journal = new WalletJournal(file);
+        Totals totals = replay(journal);
+
+        assertEquals(60, journal.getLastSequence());
+        assertEquals(0, journal.getTornBytes());
+        assertEquals(60, totals.entries);
+        assertEquals(60, totals.steps);
+
+        journal.close();
+    }
+
+    private static void corruptEntry(File file, int sequence) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+        try {
+            // Flip a bit in the amount, so the CRC no longer matches
+            long offset = WalletJournal.HEADER_SIZE + (long) (sequence - 1) * WalletJournal.ENTRY_SIZE + 8;
+            raf.seek(offset);
+            int b = raf.read();
+            raf.seek(offset);
+            raf.write(b ^ 0x01);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static Totals replay(WalletJournal journal) {
+        final Totals totals = new Totals();
+
+        journal.replay(new WalletJournal.Visitor() {
+            @Override
+            public void onEntry(int sequence, byte type, int amount, long timestamp) {
+                totals.entries++;
+
+                if (type == WalletJournal.TYPE_STEPS)
+                    totals.steps += amount;
+                else if (type == WalletJournal.TYPE_SPEND)
+                    totals.spent += amount;
+            }
+        });
+
+        return totals;
+    }
+
+    private static final class Totals {
+        int entries;
+        int steps;
+        int spent;
+    }
+}
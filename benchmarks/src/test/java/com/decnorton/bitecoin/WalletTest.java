@@ -0,0 +1,102 @@
+package com.decnorton.bitecoin;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WalletTest {
+
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 200000;
+
+    @Test
+    public void spendsOnlyWhatIsAvailable() {
+        Wallet wallet = new Wallet(100, 0);
+
+        assertTrue(wallet.trySpend(60));
+        assertFalse(wallet.trySpend(41));
+        assertTrue(wallet.trySpend(40));
+        assertEquals(0, wallet.getAvailableSteps());
+        assertEquals(100, wallet.getSpentSteps());
+    }
+
+    @Test
+    public void resetKeepsSpends() {
+        Wallet wallet = new Wallet(100, 30);
+
+        wallet.resetTotal();
+
+        assertEquals(0, wallet.getTotalSteps());
+        assertEquals(30, wallet.getSpentSteps());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeSpends() {
+        new Wallet().trySpend(-1);
+    }
+
+    /**
+     * Half the threads spend and half credit, all at once. Every spend that succeeded must be
+     * accounted for, and the balance must never be seen below zero.
+     */
+    @Test
+    public void concurrentSpendsNeverOverspend() throws InterruptedException {
+        final Wallet wallet = new Wallet();
+        final AtomicLong credited = new AtomicLong();
+        final AtomicLong spent = new AtomicLong();
+        final AtomicBoolean wentNegative = new AtomicBoolean();
+
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+
+        for (int t = 0; t < THREADS; t++) {
+            final boolean isSpender = t % 2 == 0;
+            final int seed = t;
+
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+
+                    for (int i = 0; i < ITERATIONS; i++) {
+                        int amount = 1 + (i * 31 + seed) % 7;
+
+                        if (isSpender) {
+                            if (wallet.trySpend(amount))
+                                spent.addAndGet(amount);
+                        } else {
+                            wallet.addSteps(amount);
+                            credited.addAndGet(amount);
+                        }
+
+                        if (wallet.getAvailableSteps() < 0)
+                            wentNegative.set(true);
+                    }
+                }
+            };
+
+            threads[t].start();
+        }
+
+        start.countDown();
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertFalse(wentNegative.get());
+        assertEquals(credited.get(), wallet.getTotalSteps());
+        assertEquals(spent.get(), wallet.getSpentSteps());
+        assertEquals(credited.get() - spent.get(), wallet.getAvailableSteps());
+    }
+}